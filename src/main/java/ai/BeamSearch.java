@@ -0,0 +1,506 @@
+/*
+ * TCSS 305 - Spring 2012
+ */
+
+package ai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import controller.Board;
+import controller.LatencyHistogram;
+import controller.ReadableBoard;
+import controller.Zobrist;
+import model.UniformPieceGenerator;
+
+/**
+ * Chooses where to put the current piece by a beam search over the pieces a
+ * board shows: the current piece and the preview. Every placement of the
+ * current piece that its moves can reach, tucks included, is scored; the
+ * best positions, up to the width of the beam, are then expanded by every
+ * placement of the next piece, and the current piece goes where the best
+ * position found leads. The positions of a level are expanded in parallel on a
+ * fork-join pool.
+ *
+ * The first level is always searched in full. Deeper levels are searched only
+ * while the time budget lasts; positions not expanded in time are left out, so
+ * a short budget gives a shallower answer rather than a late one.
+ *
+ * With an EvaluationCache, the positions of the last level are looked up by
+ * their hash and the piece placed in them before they are expanded, and so are
+ * whole decisions that were searched in full. Within a game the cache rarely
+ * hits, since every decision brings a new preview piece: it pays off only when
+ * the same positions and pieces are searched again, as by bots replaying a
+ * seed. Searches have no cache unless one is given.
+ *
+ * Usage: BeamSearch [pieces] [budget ms] [seed] [cache entries] plays one game
+ * headless and prints the lines cleared, the time taken by the decisions and,
+ * with a cache of a positive size, its counts.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class BeamSearch {
+
+  /** The default number of positions kept at each level. */
+  public static final int DEFAULT_BEAM = 16;
+
+  /** The placement stored for a position in which the piece cannot be placed. */
+  private static final int NO_MOVE = 0;
+
+  /** The default number of pieces placed by the measurement run. */
+  private static final int PIECES = 1000;
+
+  /** The default time budget of the measurement run in milliseconds. */
+  private static final int BUDGET_MS = 5;
+
+  /** The default seed of the measurement run. */
+  private static final long SEED = 305;
+
+  /** The width of the measured board. */
+  private static final int WIDTH = 10;
+
+  /** The height of the measured board. */
+  private static final int HEIGHT = 20;
+
+  /** The heuristic scoring the positions. */
+  private final Heuristic my_heuristic;
+
+  /** The number of positions kept at each level. */
+  private final int my_beam;
+
+  /** The pool expanding the positions. */
+  private final ForkJoinPool my_pool;
+
+  /** The cache of positions and decisions, or null. */
+  private final EvaluationCache my_cache;
+
+  /** The buffers of each thread expanding positions. */
+  private final ThreadLocal<Workspace> my_workspaces = new Workspaces();
+
+  /**
+   * A position reached by the search and the placement of the current piece
+   * that leads to it.
+   */
+  private static final class Node {
+    /** The frozen stack. */
+    private final Field my_field;
+    /** The lines cleared on the way to the position. */
+    private final int my_lines;
+    /** The score of the position. */
+    private final double my_score;
+    /** The packed state in which the current piece locks. */
+    private final int my_state;
+
+    /**
+     * Creates a position.
+     *
+     * @param the_field the frozen stack
+     * @param the_lines the lines cleared on the way to it
+     * @param the_score the score
+     * @param the_state the packed state in which the current piece locks
+     */
+    Node(final Field the_field, final int the_lines, final double the_score,
+         final int the_state) {
+      my_field = the_field;
+      my_lines = the_lines;
+      my_score = the_score;
+      my_state = the_state;
+    }
+  }
+
+  /**
+   * The buffers one thread reuses from one position to the next.
+   */
+  private static final class Workspace {
+    /** The enumerator of placements. */
+    private final PlacementEnumerator my_enumerator = new PlacementEnumerator();
+    /** Scratch space for the heuristic, as wide as any board. */
+    private final int[] my_heights = new int[Long.SIZE];
+    /** Receives the entries read from the cache. */
+    private final EvaluationCache.Entry my_entry = new EvaluationCache.Entry();
+    /** The field pieces are locked into to be scored, null until first needed. */
+    private Field my_field;
+
+    /**
+     * Returns the scratch field holding a copy of another.
+     *
+     * @param the_source the field to copy
+     * @return the scratch field
+     */
+    Field copy(final Field the_source) {
+      if (my_field == null) {
+        my_field = new Field(the_source);
+      } else {
+        my_field.copy(the_source);
+      }
+      return my_field;
+    }
+  }
+
+  /**
+   * Gives each thread a workspace of its own.
+   */
+  private static final class Workspaces extends ThreadLocal<Workspace> {
+    @Override
+    protected Workspace initialValue() {
+      return new Workspace();
+    }
+  }
+
+  /**
+   * Orders positions from the best score to the worst.
+   */
+  private static final class ByScore implements Comparator<Node> {
+    @Override
+    public int compare(final Node the_first, final Node the_second) {
+      return Double.compare(the_second.my_score, the_first.my_score);
+    }
+  }
+
+  /**
+   * Expands a range of the positions of a level, splitting it between workers.
+   */
+  private final class Expand extends RecursiveAction {
+    /** The serialization version. */
+    private static final long serialVersionUID = 1L;
+    /** The positions of the level. */
+    private final Node[] my_level;
+    /** Receives the positions reached from each position of the level. */
+    private final Node[][] my_children;
+    /** The first position of the range. */
+    private final int my_from;
+    /** One past the last position of the range. */
+    private final int my_to;
+    /** The packed state of the piece placed at this level. */
+    private final int my_piece;
+    /** Whether this is the level of the current piece. */
+    private final boolean my_first;
+    /** Whether this is the last level, of which only the best position matters. */
+    private final boolean my_last;
+    /** The time at which positions are no longer expanded, from System.nanoTime. */
+    private final long my_deadline;
+
+    /**
+     * Creates a task.
+     *
+     * @param the_level the positions of the level
+     * @param the_children receives the positions reached from each position
+     * @param the_from the first position of the range
+     * @param the_to one past the last position of the range
+     * @param the_piece the packed state of the piece placed at this level
+     * @param the_first whether this is the level of the current piece
+     * @param the_last whether this is the last level
+     * @param the_deadline the time at which expanding stops
+     */
+    Expand(final Node[] the_level, final Node[][] the_children, final int the_from,
+           final int the_to, final int the_piece, final boolean the_first,
+           final boolean the_last, final long the_deadline) {
+      super();
+      my_level = the_level;
+      my_children = the_children;
+      my_from = the_from;
+      my_to = the_to;
+      my_piece = the_piece;
+      my_first = the_first;
+      my_last = the_last;
+      my_deadline = the_deadline;
+    }
+
+    @Override
+    protected void compute() {
+      if (my_to - my_from > 1) {
+        final int middle = (my_from + my_to) >>> 1;
+        invokeAll(new Expand(my_level, my_children, my_from, middle, my_piece, my_first,
+                             my_last, my_deadline),
+                  new Expand(my_level, my_children, middle, my_to, my_piece, my_first,
+                             my_last, my_deadline));
+      } else if (my_last && (my_first || System.nanoTime() - my_deadline < 0)) {
+        my_children[my_from] = settle(my_level[my_from], my_piece, my_first);
+      } else if (my_first || System.nanoTime() - my_deadline < 0) {
+        my_children[my_from] = expand(my_level[my_from], my_piece, my_first);
+      }
+    }
+  }
+
+  /**
+   * Creates a search with the default heuristic and beam on the common pool,
+   * without a cache.
+   */
+  public BeamSearch() {
+    this(Heuristic.DEFAULT, DEFAULT_BEAM, ForkJoinPool.commonPool(), null);
+  }
+
+  /**
+   * Creates a search without a cache.
+   *
+   * @param the_heuristic the heuristic scoring the positions
+   * @param the_beam the number of positions kept at each level, at least 1
+   * @param the_pool the pool expanding the positions
+   * @throws IllegalArgumentException if the_beam is less than 1
+   */
+  public BeamSearch(final Heuristic the_heuristic, final int the_beam,
+                    final ForkJoinPool the_pool) throws IllegalArgumentException {
+    this(the_heuristic, the_beam, the_pool, null);
+  }
+
+  /**
+   * Creates a search.
+   *
+   * @param the_heuristic the heuristic scoring the positions
+   * @param the_beam the number of positions kept at each level, at least 1
+   * @param the_pool the pool expanding the positions
+   * @param the_cache the cache of positions and decisions, or null for none; it
+   *          must only be shared by searches with the same heuristic and beam
+   * @throws IllegalArgumentException if the_beam is less than 1
+   */
+  public BeamSearch(final Heuristic the_heuristic, final int the_beam,
+                    final ForkJoinPool the_pool, final EvaluationCache the_cache)
+    throws IllegalArgumentException {
+    if (the_beam < 1) {
+      throw new IllegalArgumentException("beam: " + the_beam);
+    }
+    my_heuristic = the_heuristic;
+    my_beam = the_beam;
+    my_pool = the_pool;
+    my_cache = the_cache;
+  }
+
+  /**
+   * @return the cache of positions and decisions, or null if there is none.
+   */
+  public EvaluationCache getCache() {
+    return my_cache;
+  }
+
+  /**
+   * Chooses where to put the current piece of a board. The board is only read;
+   * a board being played on another thread must be passed as a snapshot.
+   *
+   * @param the_board the board
+   * @param the_budget the time allowed for the deeper levels
+   * @param the_unit the unit of the_budget
+   * @return the best placement found, null if the current piece has none
+   */
+  public Placement search(final ReadableBoard the_board, final long the_budget,
+                          final TimeUnit the_unit) {
+    final long deadline = System.nanoTime() + the_unit.toNanos(the_budget);
+    final int[] pieces = {the_board.getCurrentPieceState(), the_board.getNextPieceState()};
+    final Node root = new Node(new Field(the_board), 0, 0, NO_MOVE);
+    final long key = root.my_field.getHash() ^ Zobrist.currentPieceKey(pieces[0]) ^
+                     Zobrist.nextPieceKey(pieces[1]);
+    final EvaluationCache.Entry entry = my_workspaces.get().my_entry;
+    Placement result = null;
+    if (my_cache != null && my_cache.get(key, entry)) {
+      result = toPlacement(root, pieces[0], entry.getMove(), entry.getScore());
+    }
+    if (result == null) {
+      Node[] level = {root};
+      Node best = null;
+      boolean complete = true;
+      for (int depth = 0; complete && depth < pieces.length; depth++) {
+        final Node[][] children = new Node[level.length][];
+        final Expand expand = new Expand(level, children, 0, level.length, pieces[depth],
+                                         depth == 0, depth == pieces.length - 1, deadline);
+        if (ForkJoinTask.getPool() == my_pool) {
+          expand.invoke(); // already on a worker, as when games are pool tasks
+        } else {
+          my_pool.invoke(expand);
+        }
+        final List<Node> reached = new ArrayList<Node>();
+        for (Node[] some : children) {
+          if (some == null) {
+            complete = false; // out of time
+          } else {
+            reached.addAll(Arrays.asList(some));
+          }
+        }
+        if (reached.isEmpty()) {
+          break;
+        }
+        level = reached.toArray(new Node[reached.size()]);
+        Arrays.sort(level, new ByScore());
+        level = Arrays.copyOf(level, Math.min(my_beam, level.length));
+        best = level[0];
+      }
+      if (best != null) {
+        result = toPlacement(root, pieces[0], best.my_state, best.my_score);
+        if (complete && my_cache != null) {
+          my_cache.put(key, best.my_score, best.my_state);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Finds the inputs that take the current piece of a board to where a placement
+   * locks it, for a placement searched before the piece moved or fell.
+   *
+   * @param the_board the board, in the position the placement was searched from
+   *          except for where its current piece is
+   * @param the_placement the placement
+   * @return the placement with inputs from where the piece is now, the placement
+   *         itself if the piece has not moved, null if it can no longer lock there
+   */
+  public Placement reroute(final ReadableBoard the_board, final Placement the_placement) {
+    final int piece = the_board.getCurrentPieceState();
+    Placement result = the_placement;
+    if (piece != the_placement.getStartState()) {
+      result = toPlacement(new Node(new Field(the_board), 0, 0, NO_MOVE), piece,
+                           the_placement.getState(), the_placement.getScore());
+    }
+    return result;
+  }
+
+  /**
+   * Returns the placement of the current piece in the given state, with the
+   * inputs that take it there.
+   *
+   * @param the_root the position searched
+   * @param the_piece the packed state of the current piece
+   * @param the_state the packed state in which the piece locks
+   * @param the_score the score of the best position reached through it
+   * @return the placement, null if the piece cannot lock in the_state
+   */
+  private Placement toPlacement(final Node the_root, final int the_piece, final int the_state,
+                                final double the_score) {
+    final PlacementEnumerator enumerator = my_workspaces.get().my_enumerator;
+    final int count = enumerator.enumerate(the_root.my_field, the_piece);
+    Placement result = null;
+    for (int i = 0; result == null && i < count; i++) {
+      if (enumerator.getState(i) == the_state) {
+        result = new Placement(the_piece, the_state, enumerator.getPath(i), the_score);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the positions reached by every placement of a piece.
+   *
+   * @param the_parent the position to place the piece in
+   * @param the_piece the packed state of the piece
+   * @param the_first whether the piece is the current piece
+   * @return the positions reached; the parent itself if its game has ended
+   */
+  private Node[] expand(final Node the_parent, final int the_piece, final boolean the_first) {
+    final Field field = the_parent.my_field;
+    Node[] result = {the_parent};
+    if (!field.isOver()) {
+      final Workspace work = my_workspaces.get();
+      result = new Node[work.my_enumerator.enumerate(field, the_piece)];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = place(the_parent, work.my_enumerator.getState(i), the_first,
+                          work.my_heights);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the best position reached by a placement of a piece, from the cache
+   * if it holds the position and piece. The positions are scored in a scratch
+   * field and the cache holds scores without the lines cleared before the
+   * position, so only the best needs a node.
+   *
+   * @param the_parent the position to place the piece in
+   * @param the_piece the packed state of the piece
+   * @param the_first whether the piece is the current piece
+   * @return the best position reached, none if the piece has no placement; the
+   *         parent itself if its game has ended
+   */
+  private Node[] settle(final Node the_parent, final int the_piece, final boolean the_first) {
+    final Field field = the_parent.my_field;
+    Node[] result = {the_parent};
+    if (!field.isOver()) {
+      final Workspace work = my_workspaces.get();
+      final long key = field.getHash() ^ Zobrist.currentPieceKey(the_piece);
+      double score = Heuristic.LOSS;
+      int move = NO_MOVE;
+      if (my_cache != null && my_cache.get(key, work.my_entry)) {
+        score = work.my_entry.getScore();
+        move = work.my_entry.getMove();
+      } else {
+        final int count = work.my_enumerator.enumerate(field, the_piece);
+        for (int i = 0; i < count; i++) {
+          final Field child = work.copy(field);
+          final int state = work.my_enumerator.getState(i);
+          final double child_score =
+              my_heuristic.evaluate(child, child.lock(state), work.my_heights);
+          if (move == NO_MOVE || child_score > score) {
+            score = child_score;
+            move = state;
+          }
+        }
+        if (my_cache != null) {
+          my_cache.put(key, score, move);
+        }
+      }
+      result = new Node[0];
+      if (move != NO_MOVE) {
+        result = new Node[] {new Node(field, the_parent.my_lines,
+                                      score + my_heuristic.scoreLines(the_parent.my_lines),
+                                      the_first ? move : the_parent.my_state)};
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Locks a piece into a copy of a position and scores the result.
+   *
+   * @param the_parent the position
+   * @param the_state the packed state in which the piece locks
+   * @param the_first whether the piece is the current piece
+   * @param the_scratch scratch space for the heuristic
+   * @return the position reached
+   */
+  private Node place(final Node the_parent, final int the_state, final boolean the_first,
+                     final int[] the_scratch) {
+    final Field child = new Field(the_parent.my_field);
+    final int lines = the_parent.my_lines + child.lock(the_state);
+    final double score = my_heuristic.evaluate(child, lines, the_scratch);
+    return new Node(child, lines, score, the_first ? the_state : the_parent.my_state);
+  }
+
+  /**
+   * Plays one game with the default search and prints the results.
+   *
+   * @param the_args the optional number of pieces, budget in milliseconds, seed and
+   *          number of cache entries.
+   */
+  public static void main(final String[] the_args) {
+    final int pieces = the_args.length > 0 ? Integer.parseInt(the_args[0]) : PIECES;
+    final int budget = the_args.length > 1 ? Integer.parseInt(the_args[1]) : BUDGET_MS;
+    final long seed = the_args.length > 2 ? Long.parseLong(the_args[2]) : SEED;
+    final Board board = new Board(WIDTH, HEIGHT, new UniformPieceGenerator(seed));
+    final int cache = the_args.length > 3 ? Integer.parseInt(the_args[3]) : 0;
+    final BeamSearch search = new BeamSearch(Heuristic.DEFAULT, DEFAULT_BEAM,
+        ForkJoinPool.commonPool(), cache > 0 ? new EvaluationCache(cache) : null);
+    final LatencyHistogram decisions = new LatencyHistogram();
+
+    int placed = 0;
+    while (placed < pieces && board.isRunning()) {
+      final long start = System.nanoTime();
+      final Placement placement = search.search(board, budget, TimeUnit.MILLISECONDS);
+      decisions.record(System.nanoTime() - start);
+      if (placement == null || !placement.play(board)) {
+        board.drop();
+      }
+      placed++;
+    }
+    System.out.printf("%d pieces, %d lines, score %d, %s%n", placed, board.getTotalLines(),
+                      board.getScore(), board.isRunning() ? "running" : "game over");
+    System.out.printf("decision time %s%n", decisions);
+    if (search.getCache() != null) {
+      System.out.printf("cache %s%n", search.getCache());
+    }
+  }
+}
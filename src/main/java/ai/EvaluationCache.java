@@ -0,0 +1,292 @@
+/*
+ * TCSS 305 - Spring 2012
+ */
+
+package ai;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache from the hash of a search position to its score and the best
+ * placement found in it, shared by the threads of one or more searches.
+ *
+ * The entries live in primitive arrays grouped in buckets of a few ways: a key
+ * can only be stored in the ways of its bucket, and when they are all taken one
+ * is evicted by the clock algorithm, which passes over the entries read since
+ * the hand last went by and takes the first that was not. The buckets are
+ * guarded by a fixed set of striped locks, so threads working on different
+ * buckets rarely wait for each other, and the memory used never grows after
+ * construction.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class EvaluationCache {
+
+  /** The default number of ways of a bucket. */
+  public static final int DEFAULT_WAYS = 4;
+
+  /** The number of locks guarding the buckets. */
+  private static final int STRIPES = 64;
+
+  /** The mark of an empty way. */
+  private static final byte EMPTY = 0;
+
+  /** The mark of an entry not read since the hand last passed it. */
+  private static final byte UNREFERENCED = 1;
+
+  /** The mark of an entry read since the hand last passed it. */
+  private static final byte REFERENCED = 2;
+
+  /** The number of ways of a bucket. */
+  private final int my_ways;
+
+  /** The mask selecting a bucket from a hash. */
+  private final int my_bucket_mask;
+
+  /** The key of each entry. */
+  private final long[] my_keys;
+
+  /** The score of each entry. */
+  private final double[] my_scores;
+
+  /** The placement of each entry, as a packed piece state. */
+  private final int[] my_moves;
+
+  /** The state of each way: EMPTY, UNREFERENCED or REFERENCED. */
+  private final byte[] my_marks;
+
+  /** The way the clock hand of each bucket points at. */
+  private final byte[] my_hands;
+
+  /** The locks of the buckets; bucket b is guarded by lock b % STRIPES. */
+  private final Object[] my_locks = new Object[STRIPES];
+
+  /** The number of lookups that found their key. */
+  private final LongAdder my_hits = new LongAdder();
+
+  /** The number of lookups that did not find their key. */
+  private final LongAdder my_misses = new LongAdder();
+
+  /** The number of entries evicted to make room. */
+  private final LongAdder my_evictions = new LongAdder();
+
+  /**
+   * A score and placement read from the cache. A thread reuses one entry for its
+   * lookups, so looking up allocates nothing.
+   */
+  public static final class Entry {
+    /** The score. */
+    private double my_score;
+    /** The placement, as a packed piece state. */
+    private int my_move;
+
+    /**
+     * @return the score.
+     */
+    public double getScore() {
+      return my_score;
+    }
+
+    /**
+     * @return the placement, as a packed piece state.
+     */
+    public int getMove() {
+      return my_move;
+    }
+  }
+
+  /**
+   * Creates a cache with the default number of ways.
+   *
+   * @param the_capacity the largest number of entries, rounded up to fill a power of
+   *          two of buckets
+   */
+  public EvaluationCache(final int the_capacity) {
+    this(the_capacity, DEFAULT_WAYS);
+  }
+
+  /**
+   * Creates a cache.
+   *
+   * @param the_capacity the largest number of entries, rounded up to fill a power of
+   *          two of buckets
+   * @param the_ways the number of entries a key may be stored in, from 1 to 64; more
+   *          ways evict better entries but make lookups longer
+   * @throws IllegalArgumentException if the_capacity is not positive or the_ways is
+   *           out of range
+   */
+  public EvaluationCache(final int the_capacity, final int the_ways)
+    throws IllegalArgumentException {
+    if (the_capacity < 1 || the_capacity > 1 << 30 || the_ways < 1 ||
+        the_ways > Long.SIZE) {
+      throw new IllegalArgumentException("capacity: " + the_capacity + " ways: " + the_ways);
+    }
+    final int needed = (the_capacity + the_ways - 1) / the_ways;
+    final int buckets = needed == 1 ? 1 : Integer.highestOneBit(needed - 1) << 1;
+    my_ways = the_ways;
+    my_bucket_mask = buckets - 1;
+    my_keys = new long[buckets * the_ways];
+    my_scores = new double[buckets * the_ways];
+    my_moves = new int[buckets * the_ways];
+    my_marks = new byte[buckets * the_ways];
+    my_hands = new byte[buckets];
+    for (int i = 0; i < STRIPES; i++) {
+      my_locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Looks up a key.
+   *
+   * @param the_key the hash of a position
+   * @param the_entry receives the score and placement if the key is found
+   * @return true if the key was found
+   */
+  public boolean get(final long the_key, final Entry the_entry) {
+    final int bucket = bucketOf(the_key);
+    final int base = bucket * my_ways;
+    boolean result = false;
+    synchronized (my_locks[bucket & STRIPES - 1]) {
+      for (int way = base; !result && way < base + my_ways; way++) {
+        if (my_marks[way] != EMPTY && my_keys[way] == the_key) {
+          my_marks[way] = REFERENCED;
+          the_entry.my_score = my_scores[way];
+          the_entry.my_move = my_moves[way];
+          result = true;
+        }
+      }
+    }
+    if (result) {
+      my_hits.increment();
+    } else {
+      my_misses.increment();
+    }
+    return result;
+  }
+
+  /**
+   * Stores the score and placement of a key, replacing those stored before and
+   * evicting another entry of the key's bucket if it is full.
+   *
+   * @param the_key the hash of a position
+   * @param the_score the score
+   * @param the_move the placement, as a packed piece state
+   */
+  public void put(final long the_key, final double the_score, final int the_move) {
+    final int bucket = bucketOf(the_key);
+    final int base = bucket * my_ways;
+    synchronized (my_locks[bucket & STRIPES - 1]) {
+      int slot = -1;
+      int empty = -1;
+      for (int way = base; slot < 0 && way < base + my_ways; way++) {
+        if (my_marks[way] == EMPTY) {
+          empty = empty < 0 ? way : empty;
+        } else if (my_keys[way] == the_key) {
+          slot = way;
+        }
+      }
+      if (slot < 0) {
+        slot = empty < 0 ? evict(bucket) : empty;
+      }
+      my_keys[slot] = the_key;
+      my_scores[slot] = the_score;
+      my_moves[slot] = the_move;
+      my_marks[slot] = UNREFERENCED;
+    }
+  }
+
+  /**
+   * Removes every entry and resets the counts.
+   */
+  public void clear() {
+    for (int stripe = 0; stripe < STRIPES; stripe++) {
+      synchronized (my_locks[stripe]) {
+        for (int bucket = stripe; bucket <= my_bucket_mask; bucket += STRIPES) {
+          Arrays.fill(my_marks, bucket * my_ways, (bucket + 1) * my_ways, EMPTY);
+        }
+      }
+    }
+    my_hits.reset();
+    my_misses.reset();
+    my_evictions.reset();
+  }
+
+  /**
+   * @return the largest number of entries.
+   */
+  public int getCapacity() {
+    return my_keys.length;
+  }
+
+  /**
+   * @return the number of lookups that found their key.
+   */
+  public long getHits() {
+    return my_hits.sum();
+  }
+
+  /**
+   * @return the number of lookups that did not find their key.
+   */
+  public long getMisses() {
+    return my_misses.sum();
+  }
+
+  /**
+   * @return the number of entries evicted to make room.
+   */
+  public long getEvictions() {
+    return my_evictions.sum();
+  }
+
+  /**
+   * @return the fraction of lookups that found their key, 0 if there were none.
+   */
+  public double getHitRate() {
+    final long hits = getHits();
+    final long lookups = hits + getMisses();
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  /**
+   * Returns a one-line summary of the counts.
+   *
+   * @return the capacity, hits, misses, hit rate and evictions
+   */
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT, "capacity %d, hits %d, misses %d, hit rate %.1f%%, " +
+                         "evictions %d", getCapacity(), getHits(), getMisses(),
+                         getHitRate() * 100, getEvictions());
+  }
+
+  /**
+   * Chooses the entry of a full bucket to replace by advancing its clock hand past
+   * the entries read since it last went by, clearing their marks.
+   *
+   * @param the_bucket the bucket, whose lock is held
+   * @return the index of the entry to replace
+   */
+  private int evict(final int the_bucket) {
+    final int base = the_bucket * my_ways;
+    int hand = my_hands[the_bucket];
+    while (my_marks[base + hand] == REFERENCED) {
+      my_marks[base + hand] = UNREFERENCED;
+      hand = (hand + 1) % my_ways;
+    }
+    my_hands[the_bucket] = (byte) ((hand + 1) % my_ways);
+    my_evictions.increment();
+    return base + hand;
+  }
+
+  /**
+   * @param the_key the hash of a position
+   * @return the bucket of the key.
+   */
+  private int bucketOf(final long the_key) {
+    return (int) (the_key ^ the_key >>> 32) & my_bucket_mask;
+  }
+}
@@ -0,0 +1,277 @@
+/*
+ * TCSS 305 - Spring 2012
+ */
+
+package ai;
+
+import java.util.Arrays;
+
+import controller.ReadableBoard;
+import controller.Zobrist;
+import model.PieceShape;
+import model.PieceState;
+
+/**
+ * A private copy of a board's frozen stack that a search can lock pieces into
+ * and clear lines from without touching the board. Rows are held as occupancy
+ * masks only; a search has no use for the block colors. A field keeps a hash of
+ * its occupancy up to date as pieces lock and lines clear, in the way a Board
+ * keeps its Zobrist hash, so that positions can be looked up in a cache.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+final class Field {
+
+  /** The number of rows above the board that pieces can occupy. */
+  private static final int EXTRA_ROWS = 4;
+
+  /** The width of the field. */
+  private int my_width;
+
+  /** The height of the board; a block locked above it ends the game. */
+  private int my_height;
+
+  /** The row mask of a completely filled row. */
+  private long my_full_row;
+
+  /** The occupancy masks of the rows. */
+  private long[] my_rows;
+
+  /** The number of rows up to and including the highest occupied row. */
+  private int my_stack_height;
+
+  /** Whether a piece locked above the board, ending the game. */
+  private boolean my_over;
+
+  /** The hash of the occupancy, the sum of the row keys times the row weights. */
+  private long my_hash;
+
+  /**
+   * Copies the frozen stack of a board.
+   *
+   * @param the_board the board
+   */
+  Field(final ReadableBoard the_board) {
+    load(the_board);
+  }
+
+  /**
+   * Copies another field.
+   *
+   * @param the_other the field to copy
+   */
+  Field(final Field the_other) {
+    my_rows = new long[the_other.my_rows.length];
+    copy(the_other);
+  }
+
+  /**
+   * Replaces the contents of this field with a copy of another field, reusing the
+   * rows when they are large enough.
+   *
+   * @param the_other the field to copy
+   */
+  void copy(final Field the_other) {
+    my_width = the_other.my_width;
+    my_height = the_other.my_height;
+    my_full_row = the_other.my_full_row;
+    if (my_rows == null || my_rows.length != the_other.my_rows.length) {
+      my_rows = the_other.my_rows.clone();
+    } else {
+      System.arraycopy(the_other.my_rows, 0, my_rows, 0, my_rows.length);
+    }
+    my_stack_height = the_other.my_stack_height;
+    my_over = the_other.my_over;
+    my_hash = the_other.my_hash;
+  }
+
+  /**
+   * Replaces the contents of this field with a copy of a board's frozen stack,
+   * reusing the rows when they are large enough.
+   *
+   * @param the_board the board
+   */
+  void load(final ReadableBoard the_board) {
+    my_width = the_board.getWidth();
+    my_height = the_board.getHeight();
+    my_full_row = my_width == Long.SIZE ? -1L : (1L << my_width) - 1;
+    my_stack_height = Math.min(the_board.getStackHeight(), my_height + EXTRA_ROWS);
+    if (my_rows == null || my_rows.length != my_height + EXTRA_ROWS) {
+      my_rows = new long[my_height + EXTRA_ROWS];
+    } else {
+      Arrays.fill(my_rows, 0L);
+    }
+    my_hash = 0L;
+    for (int row = 0; row < my_stack_height; row++) {
+      my_rows[row] = the_board.getRowMask(row);
+      my_hash += Zobrist.rowKey(my_rows[row]) * Zobrist.rowWeight(row);
+    }
+    my_over = !the_board.isRunning();
+  }
+
+  /**
+   * @return the width of the field.
+   */
+  int getWidth() {
+    return my_width;
+  }
+
+  /**
+   * @return the number of rows a piece can occupy.
+   */
+  int getRowCount() {
+    return my_rows.length;
+  }
+
+  /**
+   * @return the number of rows up to and including the highest occupied row.
+   */
+  int getStackHeight() {
+    return my_stack_height;
+  }
+
+  /**
+   * @param the_y the row
+   * @return the occupancy mask of the row.
+   */
+  long getRowMask(final int the_y) {
+    return my_rows[the_y];
+  }
+
+  /**
+   * @return the mask of a completely filled row.
+   */
+  long getFullRow() {
+    return my_full_row;
+  }
+
+  /**
+   * @return the hash of the occupancy of the field.
+   */
+  long getHash() {
+    return my_hash;
+  }
+
+  /**
+   * @return whether a piece locked above the board, ending the game.
+   */
+  boolean isOver() {
+    return my_over;
+  }
+
+  /**
+   * Evaluates if a piece with the given state would stay inside the walls and
+   * above the floor without overlapping an occupied position.
+   *
+   * @param the_state the packed state to test
+   * @return true if the piece fits
+   */
+  boolean fits(final int the_state) {
+    final PieceShape shape = PieceState.getShape(the_state);
+    final int rotation = PieceState.getRotation(the_state);
+    final int x = PieceState.getX(the_state);
+    final int y = PieceState.getY(the_state);
+    boolean result = x >= 0 && y >= 0 && x + shape.getWidth(rotation) <= my_width;
+    final int rows = Math.min(shape.getHeight(rotation), my_rows.length - y);
+
+    for (int row = 0; result && row < rows; row++) {
+      result = (my_rows[y + row] & (long) shape.getRowMask(rotation, row) << x) == 0;
+    }
+    return result;
+  }
+
+  /**
+   * Computes the height of every column.
+   *
+   * @param the_heights receives the height of each column
+   * @return the number of holes, empty positions below the top of their column
+   */
+  int scan(final int[] the_heights) {
+    Arrays.fill(the_heights, 0, my_width, 0);
+    long covered = 0L;
+    int holes = 0;
+    for (int row = my_stack_height - 1; row >= 0; row--) {
+      holes += Long.bitCount(covered & ~my_rows[row]);
+      long tops = my_rows[row] & ~covered;
+      while (tops != 0) {
+        the_heights[Long.numberOfTrailingZeros(tops)] = row + 1;
+        tops &= tops - 1;
+      }
+      covered |= my_rows[row];
+    }
+    return holes;
+  }
+
+  /**
+   * Returns the row a piece lands on when dropped straight down.
+   *
+   * @param the_state the packed state of the piece, which must fit
+   * @param the_heights the height of every column, from scan
+   * @return the y-coordinate of the piece once it has landed
+   */
+  int landingRow(final int the_state, final int[] the_heights) {
+    final PieceShape shape = PieceState.getShape(the_state);
+    final int rotation = PieceState.getRotation(the_state);
+    final int x = PieceState.getX(the_state);
+    final int y = PieceState.getY(the_state);
+    boolean above = true;
+    int result = 0;
+
+    for (int column = 0; above && column < shape.getWidth(rotation); column++) {
+      final int bottom = shape.getBottom(rotation, column);
+      above = y + bottom >= the_heights[x + column];
+      result = Math.max(result, the_heights[x + column] - bottom);
+    }
+    if (!above) { // under an overhang
+      result = y;
+      while (fits(PieceState.translate(the_state, 0, result - 1 - y))) {
+        result--;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adds the blocks of a piece to the field and clears the rows it fills.
+   *
+   * @param the_state the packed state of the piece
+   * @return the number of rows cleared
+   */
+  int lock(final int the_state) {
+    final PieceShape shape = PieceState.getShape(the_state);
+    final int rotation = PieceState.getRotation(the_state);
+    final int x = PieceState.getX(the_state);
+    final int y = PieceState.getY(the_state);
+    int cleared = 0;
+
+    for (int row = 0; row < shape.getHeight(rotation); row++) {
+      if (y + row > my_height || y + row >= my_rows.length) {
+        my_over = true;
+      } else {
+        final long mask = my_rows[y + row] | (long) shape.getRowMask(rotation, row) << x;
+        my_hash += (Zobrist.rowKey(mask) - Zobrist.rowKey(my_rows[y + row])) *
+                   Zobrist.rowWeight(y + row);
+        my_rows[y + row] = mask;
+        my_stack_height = Math.max(my_stack_height, y + row + 1);
+      }
+    }
+    int kept = 0;
+    for (int row = 0; row < my_stack_height; row++) {
+      if (my_rows[row] == my_full_row) {
+        my_hash -= Zobrist.rowKey(my_full_row) * Zobrist.rowWeight(row);
+        cleared++;
+      } else {
+        if (kept != row) {
+          my_hash += Zobrist.rowKey(my_rows[row]) *
+                     (Zobrist.rowWeight(kept) - Zobrist.rowWeight(row));
+          my_rows[kept] = my_rows[row];
+        }
+        kept++;
+      }
+    }
+    Arrays.fill(my_rows, kept, my_stack_height, 0L);
+    my_stack_height = kept;
+    return cleared;
+  }
+}
@@ -0,0 +1,576 @@
+/*
+ * TCSS 305 - Spring 2012
+ */
+
+package ai;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import controller.Board;
+import model.UniformPieceGenerator;
+
+/**
+ * Evolves the weights of a heuristic by a genetic algorithm. Every generation,
+ * each candidate weight vector plays the same seeded games with a beam search,
+ * and its fitness is the total of the lines it cleared or of the pieces it
+ * placed. The worst part of the population is then replaced by offspring: two
+ * parents are picked by tournament from a random sample, their weights averaged
+ * in proportion to their fitness, and the child is sometimes mutated. Weight
+ * vectors are kept at unit length, since only their direction changes which
+ * placement a search prefers.
+ *
+ * The games of a generation are fork-join tasks on one pool, which the
+ * searches share, so every core plays games and no thread waits on another's
+ * search. The searches have no time limit, so a run is reproducible whatever
+ * the number of threads. After every generation the population is written to a
+ * checkpoint file, and a run given an existing checkpoint resumes from it. The
+ * games played per second are printed every second while a generation runs.
+ *
+ * Usage: GeneticTuner [population] [generations] [games] [max pieces]
+ *                     [lines|survival] [checkpoint file] [threads] [seed]
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class GeneticTuner {
+
+  /** The default number of candidates. */
+  private static final int POPULATION = 50;
+
+  /** The default number of generations. */
+  private static final int GENERATIONS = 20;
+
+  /** The default number of games each candidate plays in a generation. */
+  private static final int GAMES = 10;
+
+  /** The default cap on the pieces placed in one game. */
+  private static final int MAX_PIECES = 500;
+
+  /** The default checkpoint file. */
+  private static final String CHECKPOINT = "tuner.txt";
+
+  /** The default base seed. */
+  private static final long SEED = 305;
+
+  /** The width of the boards played on. */
+  private static final int WIDTH = 10;
+
+  /** The height of the boards played on. */
+  private static final int HEIGHT = 20;
+
+  /** The beam of the searches playing the games, narrow to keep games quick. */
+  private static final int BEAM = 4;
+
+  /** The time budget of a decision in days, which no decision reaches. */
+  private static final long BUDGET_DAYS = 1;
+
+  /** The fraction of the population sampled for a tournament. */
+  private static final double TOURNAMENT = 0.1;
+
+  /** The fraction of the population replaced every generation. */
+  private static final double REPLACED = 0.3;
+
+  /** The chance that a child is mutated. */
+  private static final double MUTATION_RATE = 0.05;
+
+  /** The largest change a mutation makes to a weight. */
+  private static final double MUTATION = 0.2;
+
+  /** The multiplier spreading game and generation numbers over the seed space. */
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  /** The number of nanoseconds in a second. */
+  private static final double NANOS = 1e9;
+
+  /** The first line of a checkpoint file. */
+  private static final String HEADER = "# GeneticTuner checkpoint";
+
+  /**
+   * What a candidate is rewarded for in a game.
+   */
+  public enum Fitness {
+    /** The lines cleared before the game ended or the cap was reached. */
+    LINES {
+      @Override
+      long score(final int the_pieces, final int the_lines) {
+        return the_lines;
+      }
+    },
+
+    /** The pieces placed before the game ended or the cap was reached. */
+    SURVIVAL {
+      @Override
+      long score(final int the_pieces, final int the_lines) {
+        return the_pieces;
+      }
+    };
+
+    /**
+     * Scores a game.
+     *
+     * @param the_pieces the pieces placed
+     * @param the_lines the lines cleared
+     * @return the fitness earned
+     */
+    abstract long score(int the_pieces, int the_lines);
+  }
+
+  /**
+   * A weight vector and the fitness it earned in the last generation.
+   */
+  private static final class Candidate {
+    /** The weights, of unit length. */
+    private final double[] my_weights;
+    /** The fitness, -1 until the candidate has played. */
+    private long my_fitness = -1;
+
+    /**
+     * Creates a candidate.
+     *
+     * @param the_weights the weights, which are normalized in place
+     */
+    Candidate(final double[] the_weights) {
+      my_weights = normalize(the_weights);
+    }
+  }
+
+  /**
+   * Orders candidates from the fittest down.
+   */
+  private static final class ByFitness implements Comparator<Candidate> {
+    @Override
+    public int compare(final Candidate the_first, final Candidate the_second) {
+      return Long.compare(the_second.my_fitness, the_first.my_fitness);
+    }
+  }
+
+  /**
+   * Plays one game for a candidate.
+   */
+  private static final class Game extends RecursiveAction {
+    /** The serialization version. */
+    private static final long serialVersionUID = 1L;
+    /** The search choosing the placements. */
+    private final BeamSearch my_search;
+    /** The seed of the game. */
+    private final long my_seed;
+    /** The cap on pieces placed. */
+    private final int my_max_pieces;
+    /** What the game is scored by. */
+    private final Fitness my_fitness;
+    /** The counter of games played. */
+    private final LongAdder my_played;
+    /** The fitness earned, set when the game ends. */
+    private long my_result;
+
+    /**
+     * Creates a game.
+     *
+     * @param the_search the search choosing the placements
+     * @param the_seed the seed of the game
+     * @param the_max_pieces the cap on pieces placed
+     * @param the_fitness what the game is scored by
+     * @param the_played the counter of games played
+     */
+    Game(final BeamSearch the_search, final long the_seed, final int the_max_pieces,
+         final Fitness the_fitness, final LongAdder the_played) {
+      my_search = the_search;
+      my_seed = the_seed;
+      my_max_pieces = the_max_pieces;
+      my_fitness = the_fitness;
+      my_played = the_played;
+    }
+
+    @Override
+    protected void compute() {
+      final Board board = new Board(WIDTH, HEIGHT, new UniformPieceGenerator(my_seed));
+      int placed = 0;
+      while (placed < my_max_pieces && board.isRunning()) {
+        final Placement placement = my_search.search(board, BUDGET_DAYS, TimeUnit.DAYS);
+        if (placement == null || !placement.play(board)) {
+          board.drop();
+        }
+        placed++;
+      }
+      my_result = my_fitness.score(placed, board.getTotalLines());
+      my_played.increment();
+    }
+  }
+
+  /**
+   * Prints the games played per second since it last ran.
+   */
+  private static final class Reporter implements Runnable {
+    /** The counter of games played. */
+    private final LongAdder my_played;
+    /** The count when the reporter last ran. */
+    private long my_last_count;
+    /** The time when the reporter last ran. */
+    private long my_last_time = System.nanoTime();
+
+    /**
+     * Creates a reporter.
+     *
+     * @param the_played the counter of games played
+     */
+    Reporter(final LongAdder the_played) {
+      my_played = the_played;
+    }
+
+    @Override
+    public void run() {
+      final long count = my_played.sum();
+      final long now = System.nanoTime();
+      System.out.printf(Locale.ROOT, "  games %d, %.1f games per second%n", count,
+                        (count - my_last_count) * NANOS / (now - my_last_time));
+      my_last_count = count;
+      my_last_time = now;
+    }
+  }
+
+  /** The number of games each candidate plays in a generation. */
+  private final int my_games;
+
+  /** The cap on the pieces placed in one game. */
+  private final int my_max_pieces;
+
+  /** What the candidates are rewarded for. */
+  private final Fitness my_fitness;
+
+  /** The base seed of the games and of the breeding. */
+  private final long my_seed;
+
+  /** The pool playing the games and expanding their searches. */
+  private final ForkJoinPool my_pool;
+
+  /** The counter of games played. */
+  private final LongAdder my_played = new LongAdder();
+
+  /** The candidates. */
+  private final List<Candidate> my_population = new ArrayList<Candidate>();
+
+  /** The number of generations evaluated so far. */
+  private int my_generation;
+
+  /** The mean fitness of the last generation evaluated. */
+  private double my_mean_fitness;
+
+  /**
+   * Creates a tuner with a population of the default weights and random ones.
+   *
+   * @param the_population the number of candidates, at least 2
+   * @param the_games the number of games each candidate plays in a generation
+   * @param the_max_pieces the cap on the pieces placed in one game
+   * @param the_fitness what the candidates are rewarded for
+   * @param the_seed the base seed of the games and of the breeding
+   * @param the_pool the pool playing the games
+   * @throws IllegalArgumentException if the_population is less than 2
+   */
+  public GeneticTuner(final int the_population, final int the_games,
+                      final int the_max_pieces, final Fitness the_fitness,
+                      final long the_seed, final ForkJoinPool the_pool)
+    throws IllegalArgumentException {
+    if (the_population < 2) {
+      throw new IllegalArgumentException("population: " + the_population);
+    }
+    my_games = the_games;
+    my_max_pieces = the_max_pieces;
+    my_fitness = the_fitness;
+    my_seed = the_seed;
+    my_pool = the_pool;
+    final Random random = new Random(the_seed);
+    // the default weights start in the population, so tuning can only improve on them
+    my_population.add(new Candidate(Heuristic.DEFAULT.getWeights()));
+    for (int i = 1; i < the_population; i++) {
+      final double[] weights = new double[Heuristic.WEIGHTS];
+      for (int w = 0; w < weights.length; w++) {
+        weights[w] = random.nextDouble() - 0.5;
+      }
+      my_population.add(new Candidate(weights));
+    }
+  }
+
+  /**
+   * @return the number of generations evaluated so far.
+   */
+  public int getGeneration() {
+    return my_generation;
+  }
+
+  /**
+   * @return the total number of games played.
+   */
+  public long getGamesPlayed() {
+    return my_played.sum();
+  }
+
+  /**
+   * @return the heuristic of the fittest candidate of the last generation, or of
+   *         the first candidate if no generation has been evaluated.
+   */
+  public Heuristic getBest() {
+    return new Heuristic(my_population.get(0).my_weights.clone());
+  }
+
+  /**
+   * @return the fitness of the fittest candidate of the last generation, -1 if no
+   *         generation has been evaluated.
+   */
+  public long getBestFitness() {
+    return my_population.get(0).my_fitness;
+  }
+
+  /**
+   * @return the mean fitness of the last generation.
+   */
+  public double getMeanFitness() {
+    return my_mean_fitness;
+  }
+
+  /**
+   * Evaluates the current population on the games of this generation, sorts it
+   * from the fittest down and replaces the worst candidates by offspring of the
+   * others. The offspring are bred from a random source seeded by the generation,
+   * so a resumed run breeds as an uninterrupted one would.
+   */
+  public void step() {
+    evaluate();
+    Collections.sort(my_population, new ByFitness());
+    long total = 0;
+    for (Candidate candidate : my_population) {
+      total += candidate.my_fitness;
+    }
+    my_mean_fitness = (double) total / my_population.size();
+    final Random random = new Random(my_seed + (my_generation + 1) * GOLDEN_GAMMA);
+    final int size = my_population.size();
+    final int replaced = Math.max(1, (int) (size * REPLACED));
+    final List<Candidate> offspring = new ArrayList<Candidate>(replaced);
+    for (int i = 0; i < replaced; i++) {
+      offspring.add(breed(random));
+    }
+    for (int i = 0; i < replaced; i++) {
+      my_population.set(size - replaced + i, offspring.get(i));
+    }
+    my_generation++;
+  }
+
+  /**
+   * Writes the population to a checkpoint file. The file is written beside the
+   * target and then moved over it, so a run stopped while writing leaves the
+   * last checkpoint whole.
+   *
+   * @param the_path the checkpoint file
+   * @throws IOException if the file cannot be written
+   */
+  public void save(final Path the_path) throws IOException {
+    final List<String> lines = new ArrayList<String>();
+    lines.add(HEADER);
+    lines.add("generation " + my_generation);
+    for (Candidate candidate : my_population) {
+      final StringBuilder line = new StringBuilder("candidate ");
+      line.append(candidate.my_fitness);
+      for (double weight : candidate.my_weights) {
+        line.append(' ').append(weight);
+      }
+      lines.add(line.toString());
+    }
+    final Path parent = the_path.toAbsolutePath().getParent();
+    final Path temp = Files.createTempFile(parent, the_path.getFileName().toString(), ".tmp");
+    Files.write(temp, lines, StandardCharsets.UTF_8);
+    Files.move(temp, the_path, StandardCopyOption.ATOMIC_MOVE,
+               StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Replaces the population by the one in a checkpoint file.
+   *
+   * @param the_path the checkpoint file
+   * @throws IOException if the file cannot be read or is not a checkpoint
+   */
+  public void load(final Path the_path) throws IOException {
+    final List<String> lines = Files.readAllLines(the_path, StandardCharsets.UTF_8);
+    final List<Candidate> population = new ArrayList<Candidate>();
+    int generation = -1;
+    try {
+      for (String line : lines) {
+        final String[] fields = line.trim().split("\\s+");
+        if ("generation".equals(fields[0])) {
+          generation = Integer.parseInt(fields[1]);
+        } else if ("candidate".equals(fields[0])) {
+          final double[] weights = new double[Heuristic.WEIGHTS];
+          for (int w = 0; w < weights.length; w++) {
+            weights[w] = Double.parseDouble(fields[2 + w]);
+          }
+          final Candidate candidate = new Candidate(weights);
+          candidate.my_fitness = Long.parseLong(fields[1]);
+          population.add(candidate);
+        }
+      }
+    } catch (final NumberFormatException | ArrayIndexOutOfBoundsException e) {
+      throw new IOException("malformed checkpoint " + the_path, e);
+    }
+    if (lines.isEmpty() || !HEADER.equals(lines.get(0)) || generation < 0 ||
+        population.size() < 2) {
+      throw new IOException("not a checkpoint: " + the_path);
+    }
+    my_population.clear();
+    my_population.addAll(population);
+    my_generation = generation;
+  }
+
+  /**
+   * Plays the games of the current generation for every candidate, all at once
+   * on the pool. Every candidate plays the same seeds, so their fitnesses can be
+   * compared; the seeds change from one generation to the next.
+   */
+  private void evaluate() {
+    final Game[][] games = new Game[my_population.size()][my_games];
+    for (int c = 0; c < games.length; c++) {
+      final BeamSearch search =
+          new BeamSearch(new Heuristic(my_population.get(c).my_weights), BEAM, my_pool);
+      for (int g = 0; g < my_games; g++) {
+        final long seed = my_seed + ((long) my_generation * my_games + g) * GOLDEN_GAMMA;
+        games[c][g] = new Game(search, seed, my_max_pieces, my_fitness, my_played);
+        my_pool.execute(games[c][g]);
+      }
+    }
+    for (int c = 0; c < games.length; c++) {
+      long fitness = 0;
+      for (Game game : games[c]) {
+        game.join();
+        fitness += game.my_result;
+      }
+      my_population.get(c).my_fitness = fitness;
+    }
+  }
+
+  /**
+   * Breeds a child from two parents chosen by tournament: the weights of the
+   * parents averaged in proportion to their fitness, with a small chance that
+   * one weight is then moved at random.
+   *
+   * @param the_random the source of random choices
+   * @return the child
+   */
+  private Candidate breed(final Random the_random) {
+    final int size = my_population.size();
+    final int sample = Math.max(2, (int) (size * TOURNAMENT));
+    int first = -1;
+    int second = -1;
+    for (int i = 0; i < sample; i++) {
+      // the population is sorted, so the lowest index drawn is the fittest
+      final int drawn = the_random.nextInt(size);
+      if (first < 0 || drawn < first) {
+        second = first;
+        first = drawn;
+      } else if (drawn != first && (second < 0 || drawn < second)) {
+        second = drawn;
+      }
+    }
+    if (second < 0) {
+      second = (first + 1) % size;
+    }
+    final Candidate mother = my_population.get(first);
+    final Candidate father = my_population.get(second);
+    // one is added so that parents that earned nothing still count
+    final double mother_share = mother.my_fitness + 1;
+    final double father_share = father.my_fitness + 1;
+    final double[] weights = new double[Heuristic.WEIGHTS];
+    for (int w = 0; w < weights.length; w++) {
+      weights[w] = mother.my_weights[w] * mother_share + father.my_weights[w] * father_share;
+    }
+    if (the_random.nextDouble() < MUTATION_RATE) {
+      weights[the_random.nextInt(weights.length)] +=
+          (the_random.nextDouble() * 2 - 1) * MUTATION;
+    }
+    return new Candidate(weights);
+  }
+
+  /**
+   * Scales a vector to unit length in place; a zero vector is left alone.
+   *
+   * @param the_weights the vector
+   * @return the vector
+   */
+  private static double[] normalize(final double[] the_weights) {
+    double length = 0;
+    for (double weight : the_weights) {
+      length += weight * weight;
+    }
+    length = Math.sqrt(length);
+    if (length > 0) {
+      for (int w = 0; w < the_weights.length; w++) {
+        the_weights[w] /= length;
+      }
+    }
+    return the_weights;
+  }
+
+  /**
+   * Runs the tuner, resuming from the checkpoint file if it exists, and prints the
+   * fittest weights of every generation.
+   *
+   * @param the_args the optional population, number of generations to reach, games
+   *          per candidate, cap on pieces per game, fitness, checkpoint file,
+   *          number of threads and seed.
+   * @throws IOException if the checkpoint cannot be read or written
+   */
+  public static void main(final String[] the_args) throws IOException {
+    final int population = the_args.length > 0 ? Integer.parseInt(the_args[0]) : POPULATION;
+    final int generations = the_args.length > 1 ? Integer.parseInt(the_args[1]) : GENERATIONS;
+    final int games = the_args.length > 2 ? Integer.parseInt(the_args[2]) : GAMES;
+    final int max_pieces = the_args.length > 3 ? Integer.parseInt(the_args[3]) : MAX_PIECES;
+    final Fitness fitness = the_args.length > 4
+        ? Fitness.valueOf(the_args[4].toUpperCase(Locale.ROOT)) : Fitness.LINES;
+    final Path checkpoint = Paths.get(the_args.length > 5 ? the_args[5] : CHECKPOINT);
+    final int threads = the_args.length > 6 ? Integer.parseInt(the_args[6])
+        : Runtime.getRuntime().availableProcessors();
+    final long seed = the_args.length > 7 ? Long.parseLong(the_args[7]) : SEED;
+
+    final ForkJoinPool pool = new ForkJoinPool(threads);
+    final GeneticTuner tuner =
+        new GeneticTuner(population, games, max_pieces, fitness, seed, pool);
+    if (Files.exists(checkpoint)) {
+      tuner.load(checkpoint);
+      System.out.printf("resumed at generation %d from %s%n", tuner.getGeneration(),
+                        checkpoint);
+    }
+    final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+    reporter.scheduleAtFixedRate(new Reporter(tuner.my_played), 1, 1, TimeUnit.SECONDS);
+    final long start = System.nanoTime();
+    try {
+      while (tuner.getGeneration() < generations) {
+        tuner.step();
+        final Heuristic best = tuner.getBest();
+        System.out.printf(Locale.ROOT, "generation %d: best %d, mean %.1f, %s%n",
+                          tuner.getGeneration(), tuner.getBestFitness(),
+                          tuner.getMeanFitness(), best);
+        tuner.save(checkpoint);
+      }
+    } finally {
+      reporter.shutdownNow();
+      pool.shutdown();
+    }
+    final double seconds = (System.nanoTime() - start) / NANOS;
+    System.out.printf(Locale.ROOT, "%d games on %d threads in %.1f s, %.1f games per second%n",
+                      tuner.getGamesPlayed(), threads, seconds,
+                      tuner.getGamesPlayed() / seconds);
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * TCSS 305 - Spring 2012
+ */
+
+package ai;
+
+import java.util.Locale;
+
+/**
+ * Scores a position by a weighted sum of its features: the aggregate height of
+ * the columns, the lines cleared on the way to it, the holes, the bumpiness (the
+ * sum of the height differences of neighboring columns) and the wells (how far
+ * each column lies below both of its neighbors, the walls counting as full).
+ * Higher scores are better; a heuristic is immutable and may be shared between
+ * threads.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class Heuristic {
+
+  /** Weights that clear lines steadily on a 10x20 board. */
+  public static final Heuristic DEFAULT =
+      new Heuristic(-0.510066, 0.760666, -0.35663, -0.184483, -0.1);
+
+  /** The score of a position in which the game has ended. */
+  public static final double LOSS = -1e9;
+
+  /** The number of weights, in the order height, lines, holes, bumpiness, wells. */
+  public static final int WEIGHTS = 5;
+
+  /** The weight of the aggregate height. */
+  private final double my_height;
+
+  /** The weight of the lines cleared. */
+  private final double my_lines;
+
+  /** The weight of the holes. */
+  private final double my_holes;
+
+  /** The weight of the bumpiness. */
+  private final double my_bumpiness;
+
+  /** The weight of the wells. */
+  private final double my_wells;
+
+  /**
+   * Creates a heuristic with the given weights; penalties have negative weights.
+   *
+   * @param the_height the weight of the aggregate height
+   * @param the_lines the weight of the lines cleared
+   * @param the_holes the weight of the holes
+   * @param the_bumpiness the weight of the bumpiness
+   * @param the_wells the weight of the wells
+   */
+  public Heuristic(final double the_height, final double the_lines, final double the_holes,
+                   final double the_bumpiness, final double the_wells) {
+    my_height = the_height;
+    my_lines = the_lines;
+    my_holes = the_holes;
+    my_bumpiness = the_bumpiness;
+    my_wells = the_wells;
+  }
+
+  /**
+   * Creates a heuristic from a vector of weights.
+   *
+   * @param the_weights the weights in the order height, lines, holes, bumpiness
+   *          and wells
+   * @throws IllegalArgumentException if there are not WEIGHTS weights
+   */
+  public Heuristic(final double[] the_weights) throws IllegalArgumentException {
+    this(weight(the_weights, 0), weight(the_weights, 1), weight(the_weights, 2),
+         weight(the_weights, 3), weight(the_weights, 4));
+  }
+
+  /**
+   * Returns one weight of a vector after checking the vector's length.
+   *
+   * @param the_weights the weights
+   * @param the_index the index of the weight
+   * @return the weight
+   * @throws IllegalArgumentException if there are not WEIGHTS weights
+   */
+  private static double weight(final double[] the_weights, final int the_index)
+    throws IllegalArgumentException {
+    if (the_weights.length != WEIGHTS) {
+      throw new IllegalArgumentException("weights: " + the_weights.length);
+    }
+    return the_weights[the_index];
+  }
+
+  /**
+   * @return the weights in the order height, lines, holes, bumpiness and wells.
+   */
+  public double[] getWeights() {
+    return new double[] {my_height, my_lines, my_holes, my_bumpiness, my_wells};
+  }
+
+  /**
+   * Returns the part of a score that comes from lines cleared; a score is the
+   * score of the position with no lines cleared plus this.
+   *
+   * @param the_lines the lines cleared
+   * @return the weighted lines
+   */
+  double scoreLines(final int the_lines) {
+    return my_lines * the_lines;
+  }
+
+  /**
+   * Scores a position.
+   *
+   * @param the_field the position
+   * @param the_lines the lines cleared on the way to it
+   * @param the_heights scratch space for the column heights, at least as long as
+   *          the field is wide
+   * @return the score, LOSS if the game has ended
+   */
+  double evaluate(final Field the_field, final int the_lines, final int[] the_heights) {
+    double result = LOSS;
+    if (!the_field.isOver()) {
+      final int width = the_field.getWidth();
+      final int holes = the_field.scan(the_heights);
+      int height = 0;
+      int bumpiness = 0;
+      int wells = 0;
+      for (int x = 0; x < width; x++) {
+        final int left = x == 0 ? Integer.MAX_VALUE : the_heights[x - 1];
+        final int right = x == width - 1 ? Integer.MAX_VALUE : the_heights[x + 1];
+        height += the_heights[x];
+        wells += Math.max(0, Math.min(left, right) - the_heights[x]);
+        if (x > 0) {
+          bumpiness += Math.abs(the_heights[x] - left);
+        }
+      }
+      result = my_height * height + my_lines * the_lines + my_holes * holes +
+               my_bumpiness * bumpiness + my_wells * wells;
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT, "height %.4f lines %.4f holes %.4f bumpiness %.4f " +
+                         "wells %.4f", my_height, my_lines, my_holes, my_bumpiness, my_wells);
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * TCSS 305 - Spring 2012
+ */
+
+package ai;
+
+import java.util.Collections;
+import java.util.List;
+
+import controller.Board;
+import controller.Input;
+import model.PieceState;
+
+/**
+ * Where a search decided to put the current piece, together with the inputs
+ * that take the piece there from where it was when the search started.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class Placement {
+
+  /** The packed state of the piece when the search started. */
+  private final int my_start;
+
+  /** The packed state of the piece where it locks. */
+  private final int my_state;
+
+  /** The inputs that take the piece there, ending with a hard drop. */
+  private final List<Input> my_inputs;
+
+  /** The score of the best position the search reached through this placement. */
+  private final double my_score;
+
+  /**
+   * Creates a placement.
+   *
+   * @param the_start the packed state of the piece when the search started
+   * @param the_state the packed state of the piece where it locks
+   * @param the_inputs the inputs that take the piece there
+   * @param the_score the score of the best position reached through it
+   */
+  Placement(final int the_start, final int the_state, final List<Input> the_inputs,
+            final double the_score) {
+    my_start = the_start;
+    my_state = the_state;
+    my_inputs = Collections.unmodifiableList(the_inputs);
+    my_score = the_score;
+  }
+
+  /**
+   * @return the packed state of the piece when the search started, where the
+   *         inputs start from.
+   */
+  public int getStartState() {
+    return my_start;
+  }
+
+  /**
+   * @return the packed state of the piece where it locks.
+   */
+  public int getState() {
+    return my_state;
+  }
+
+  /**
+   * @return the inputs that take the piece to the placement, ending with a hard
+   *         drop.
+   */
+  public List<Input> getInputs() {
+    return my_inputs;
+  }
+
+  /**
+   * @return the score of the best position the search reached through this
+   *         placement.
+   */
+  public double getScore() {
+    return my_score;
+  }
+
+  /**
+   * Applies the inputs to a board, stopping at the first one that fails. The
+   * board must be in the position the placement was searched from.
+   *
+   * @param the_board the board
+   * @return true if every input was applied
+   */
+  public boolean play(final Board the_board) {
+    boolean result = true;
+    for (int i = 0; result && i < my_inputs.size(); i++) {
+      result = my_inputs.get(i).apply(the_board);
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return PieceState.getBlock(my_state) + " rotation " + PieceState.getRotation(my_state) +
+           " at (" + PieceState.getX(my_state) + ", " + PieceState.getY(my_state) + ") " +
+           my_inputs;
+  }
+}
@@ -0,0 +1,349 @@
+/*
+ * TCSS 305 - Spring 2012
+ */
+
+package ai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import controller.Board;
+import controller.Input;
+import controller.ReadableBoard;
+import model.PieceShape;
+import model.PieceState;
+import model.UniformPieceGenerator;
+
+/**
+ * Finds every position in which a piece can lock, by a breadth-first search over
+ * the (rotation, x, y) states the piece reaches with moveLeft, moveRight, rotate
+ * and moveDown, so that tucks and spins under overhangs are found along with
+ * the placements reached by dropping from above.
+ *
+ * Above the stack every row is empty, so the piece is first taken straight down
+ * to the top of the stack and searched from there; its sideways moves and
+ * rotations at that height are then replayed before the descent. The states are
+ * grouped in layers of one rotation and row, each a long with bit x for column
+ * x: one mask per layer holds the columns at which the piece fits, computed a
+ * row at a time, and another the columns visited. The masks, queue and paths
+ * are reused from one call to the next, so an enumeration allocates nothing once
+ * the buffers are large enough. An enumerator is not safe for use by several
+ * threads at once.
+ *
+ * Usage: PlacementEnumerator [seconds] measures enumerations per second over
+ * the positions of a bot's game.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class PlacementEnumerator {
+
+  /** The number of rotational states a piece can have. */
+  private static final int ROTATIONS = 4;
+
+  /** The number of moves leading out of a state. */
+  private static final int MOVES = 4;
+
+  /** The inputs of the moves, in the order they are tried. */
+  private static final Input[] MOVE_INPUTS =
+      {Input.LEFT, Input.RIGHT, Input.ROTATE, Input.SOFT_DROP};
+
+  /** The change in x of each move. */
+  private static final int[] MOVE_DX = {-1, 1, 0, 0};
+
+  /** The change in y of each move. */
+  private static final int[] MOVE_DY = {0, 0, 0, -1};
+
+  /** The index of the rotation among the moves. */
+  private static final int ROTATE = 2;
+
+  /** The index of the descent among the moves. */
+  private static final int DOWN = 3;
+
+  /** The position of the layer in a state index; the low bits hold x. */
+  private static final int LAYER_SHIFT = 6;
+
+  /** The parent of a state the search started from. */
+  private static final int NO_PARENT = -1;
+
+  /** The number of positions recorded by the measurement run. */
+  private static final int POSITIONS = 1000;
+
+  /** The default length of the measurement run in seconds. */
+  private static final int SECONDS = 3;
+
+  /** The number of nanoseconds in a second. */
+  private static final double NANOS = 1e9;
+
+  /** The width of the measured board. */
+  private static final int WIDTH = 10;
+
+  /** The height of the measured board. */
+  private static final int HEIGHT = 20;
+
+  /** The field searched when enumerating on a board, null until the first. */
+  private Field my_field;
+
+  /** The visited states; bit x of a layer (rotation, y) is the state (rotation, x, y). */
+  private long[] my_visited = new long[0];
+
+  /** The states in which the piece fits, by layer like the visited states. */
+  private long[] my_fits = new long[0];
+
+  /** The index of the state each state was reached from. */
+  private int[] my_parents = new int[0];
+
+  /** The move by which each state was reached. */
+  private byte[] my_moves = new byte[0];
+
+  /** The packed states waiting to be searched, then the states searched. */
+  private int[] my_queue = new int[0];
+
+  /** The packed states in which the piece can lock. */
+  private int[] my_landings = new int[0];
+
+  /** The number of landing states found by the last enumeration. */
+  private int my_count;
+
+  /** The number of rows of the last field searched. */
+  private int my_rows;
+
+  /** The packed state the piece started from in the last enumeration. */
+  private int my_start;
+
+  /** The packed state the piece reached at the top of the stack. */
+  private int my_seed;
+
+  /**
+   * Finds every position in which a piece can lock on a board.
+   *
+   * @param the_board the board
+   * @param the_piece the packed state the piece starts from, such as the board's
+   *          current piece
+   * @return the number of positions found
+   */
+  public int enumerate(final ReadableBoard the_board, final int the_piece) {
+    if (my_field == null) {
+      my_field = new Field(the_board);
+    } else {
+      my_field.load(the_board);
+    }
+    return enumerate(my_field, the_piece);
+  }
+
+  /**
+   * Finds every position in which a piece can lock in a field.
+   *
+   * @param the_field the field; it must not change until the results are read
+   * @param the_piece the packed state the piece starts from
+   * @return the number of positions found
+   */
+  int enumerate(final Field the_field, final int the_piece) {
+    my_count = 0;
+    my_start = the_piece;
+    if (!the_field.isOver() && the_field.fits(the_piece)) {
+      final PieceShape shape = PieceState.getShape(the_piece);
+      final int top = Math.min(PieceState.getY(the_piece), the_field.getStackHeight());
+      my_seed = PieceState.translate(the_piece, 0, top - PieceState.getY(the_piece));
+      prepare(the_field, shape.getRotationCount(), top);
+      computeFits(the_field, shape, top);
+      search(shape, top);
+    }
+    return my_count;
+  }
+
+  /**
+   * @return the number of positions found by the last enumeration.
+   */
+  public int getCount() {
+    return my_count;
+  }
+
+  /**
+   * @param the_index the index of a position, less than getCount()
+   * @return the packed state in which the piece locks at the position.
+   */
+  public int getState(final int the_index) {
+    return my_landings[the_index];
+  }
+
+  /**
+   * Returns the shortest inputs found that take the piece from its starting state
+   * to a position and lock it there. Sideways moves and rotations are made before
+   * the piece descends when the rows above the stack allow it, and a final
+   * descent is made by a hard drop.
+   *
+   * @param the_index the index of a position, less than getCount()
+   * @return the inputs, ending with a hard drop
+   */
+  public List<Input> getPath(final int the_index) {
+    final List<Input> result = new ArrayList<Input>();
+    for (int index = indexOf(my_landings[the_index]); my_parents[index] != NO_PARENT;
+         index = my_parents[index]) {
+      result.add(MOVE_INPUTS[my_moves[index]]);
+    }
+    // moves were collected from the landing back to the top of the stack
+    final List<Input> forward = new ArrayList<Input>(result.size() + 1);
+    int i = result.size() - 1;
+    while (i >= 0 && result.get(i) != Input.SOFT_DROP) {
+      forward.add(result.get(i));
+      i--;
+    }
+    for (int row = PieceState.getY(my_seed); row < PieceState.getY(my_start); row++) {
+      forward.add(Input.SOFT_DROP);
+    }
+    for (; i >= 0; i--) {
+      forward.add(result.get(i));
+    }
+    while (!forward.isEmpty() && forward.get(forward.size() - 1) == Input.SOFT_DROP) {
+      forward.remove(forward.size() - 1);
+    }
+    forward.add(Input.HARD_DROP);
+    return forward;
+  }
+
+  /**
+   * Makes the buffers large enough for a field and clears the visited states of
+   * the rows to be searched.
+   *
+   * @param the_field the field
+   * @param the_rotations the number of rotational states of the piece
+   * @param the_top the highest row to be searched
+   */
+  private void prepare(final Field the_field, final int the_rotations, final int the_top) {
+    my_rows = the_field.getRowCount();
+    final int layers = ROTATIONS * my_rows;
+    if (my_visited.length < layers) {
+      my_visited = new long[layers];
+      my_fits = new long[layers];
+      my_parents = new int[layers * Long.SIZE];
+      my_moves = new byte[layers * Long.SIZE];
+      my_queue = new int[layers * Long.SIZE];
+      my_landings = new int[layers * Long.SIZE];
+    }
+    for (int rotation = 0; rotation < the_rotations; rotation++) {
+      Arrays.fill(my_visited, rotation * my_rows, rotation * my_rows + the_top + 1, 0L);
+    }
+  }
+
+  /**
+   * Computes, for every rotation and every row up to the given one, the mask of
+   * the x-coordinates at which the piece fits.
+   *
+   * @param the_field the field
+   * @param the_shape the shape of the piece
+   * @param the_top the highest row to be searched
+   */
+  private void computeFits(final Field the_field, final PieceShape the_shape,
+                           final int the_top) {
+    final int width = the_field.getWidth();
+    for (int rotation = 0; rotation < the_shape.getRotationCount(); rotation++) {
+      final int positions = width - the_shape.getWidth(rotation) + 1;
+      final long inside = positions == Long.SIZE ? -1L : (1L << positions) - 1;
+      final int height = the_shape.getHeight(rotation);
+      for (int y = 0; y <= the_top; y++) {
+        long blocked = 0L;
+        for (int row = 0; row < height && y + row < my_rows; row++) {
+          final long occupied = the_field.getRowMask(y + row);
+          for (int cells = the_shape.getRowMask(rotation, row); cells != 0;
+               cells &= cells - 1) {
+            blocked |= occupied >>> Integer.numberOfTrailingZeros(cells);
+          }
+        }
+        my_fits[rotation * my_rows + y] = inside & ~blocked;
+      }
+    }
+  }
+
+  /**
+   * Searches the states reachable from the seed, recording those that cannot
+   * move down.
+   *
+   * @param the_shape the shape of the piece
+   * @param the_top the row of the seed
+   */
+  private void search(final PieceShape the_shape, final int the_top) {
+    final int rotations = the_shape.getRotationCount();
+    int head = 0;
+    int tail = 0;
+    final int seed = indexOf(my_seed);
+    my_visited[seed >>> LAYER_SHIFT] |= 1L << seed;
+    my_parents[seed] = NO_PARENT;
+    my_queue[tail++] = seed;
+
+    while (head < tail) {
+      final int index = my_queue[head++];
+      final int layer = index >>> LAYER_SHIFT;
+      final int rotation = layer / my_rows;
+      final int y = layer - rotation * my_rows;
+      final int x = index & Long.SIZE - 1;
+      for (int move = 0; move < MOVES; move++) {
+        int next = -1;
+        if (move == ROTATE) {
+          next = ((rotation + 1) % rotations * my_rows + y) << LAYER_SHIFT | x;
+        } else if (move != DOWN || y > 0) {
+          next = index + (MOVE_DY[move] << LAYER_SHIFT) + MOVE_DX[move];
+        }
+        final int next_x = x + MOVE_DX[move];
+        final int next_layer = next >>> LAYER_SHIFT;
+        final long bit = 1L << next;
+        final boolean fits = next >= 0 && next_x >= 0 && next_x < Long.SIZE &&
+                             (my_fits[next_layer] & bit) != 0;
+        if (fits) {
+          if ((my_visited[next_layer] & bit) == 0) {
+            my_visited[next_layer] |= bit;
+            my_parents[next] = index;
+            my_moves[next] = (byte) move;
+            my_queue[tail++] = next;
+          }
+        } else if (move == DOWN) {
+          my_landings[my_count++] = PieceState.pack(the_shape.getBlock(), rotation, x, y);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param the_state a packed state inside the field
+   * @return the index of the state in the buffers.
+   */
+  private int indexOf(final int the_state) {
+    return (PieceState.getRotation(the_state) * my_rows + PieceState.getY(the_state)) <<
+           LAYER_SHIFT | PieceState.getX(the_state);
+  }
+
+  /**
+   * Measures the enumerations per second over the positions of a bot's game.
+   *
+   * @param the_args the optional length of the run in seconds.
+   */
+  public static void main(final String[] the_args) {
+    final int seconds = the_args.length > 0 ? Integer.parseInt(the_args[0]) : SECONDS;
+    final Board board = new Board(WIDTH, HEIGHT, new UniformPieceGenerator(POSITIONS));
+    final BeamSearch bot = new BeamSearch();
+    final List<Field> fields = new ArrayList<Field>();
+    final List<Integer> pieces = new ArrayList<Integer>();
+    while (fields.size() < POSITIONS && board.isRunning()) {
+      fields.add(new Field(board));
+      pieces.add(board.getCurrentPieceState());
+      bot.search(board, 0, TimeUnit.MILLISECONDS).play(board);
+    }
+
+    final PlacementEnumerator enumerator = new PlacementEnumerator();
+    final long end = System.nanoTime() + (long) (seconds * NANOS);
+    final long start = System.nanoTime();
+    long runs = 0;
+    long found = 0;
+    while (System.nanoTime() - end < 0) {
+      for (int i = 0; i < fields.size(); i++) {
+        found += enumerator.enumerate(fields.get(i), pieces.get(i));
+      }
+      runs += fields.size();
+    }
+    final double elapsed = (System.nanoTime() - start) / NANOS;
+    System.out.printf("%d enumerations in %.2f s, %.0f per second, %.1f positions each%n",
+                      runs, elapsed, runs / elapsed, (double) found / runs);
+  }
+}
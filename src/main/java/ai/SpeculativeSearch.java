@@ -0,0 +1,358 @@
+/*
+ * TCSS 305 - Spring 2012
+ */
+
+package ai;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import controller.Board;
+import controller.BoardEvent;
+import controller.BoardListener;
+import controller.BoardSnapshot;
+import controller.LatencyHistogram;
+import controller.ReadableBoard;
+import controller.Zobrist;
+import model.PieceState;
+import model.UniformPieceGenerator;
+
+/**
+ * Searches for the placement of a piece while it falls, so that the decision is
+ * ready when it is asked for. Attached to a board, it starts a search in the
+ * background every time a new current piece appears, from a snapshot of the
+ * board with the new piece and its preview; a search still running for an
+ * earlier piece is cancelled if it has not started and otherwise left to run out
+ * its budget, its result unused.
+ *
+ * Asked for a decision, it checks the speculation against the board: the frozen
+ * stack, the next piece and the number of pieces locked must be the same and
+ * the current piece of the same type, which takes a few comparisons of hashes
+ * and counts. Gravity may have moved the piece in the meantime, so the inputs of
+ * a valid speculation are recomputed from where the piece is; only if the piece
+ * can no longer reach its placement, or the board changed, is the board searched
+ * again in the foreground.
+ *
+ * Usage: SpeculativeSearch [pieces] [fall frames] [budget ms] [seed] plays a game
+ * headless in which each piece falls for a number of 60 Hz frames before the bot
+ * decides, once with speculation and once without, and prints the times taken by
+ * the decisions.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class SpeculativeSearch implements BoardListener {
+
+  /** The default number of pieces placed by the measurement run. */
+  private static final int PIECES = 200;
+
+  /** The default number of frames a piece falls before the bot decides. */
+  private static final int FALL_FRAMES = 2;
+
+  /** The default time budget of a decision in milliseconds. */
+  private static final int BUDGET_MS = 10;
+
+  /** The default seed of the measurement run. */
+  private static final long SEED = 305;
+
+  /** The length of a frame in milliseconds. */
+  private static final long FRAME_MS = 16;
+
+  /** The width of the measured board. */
+  private static final int WIDTH = 10;
+
+  /** The height of the measured board. */
+  private static final int HEIGHT = 20;
+
+  /** The search run in the background and in the foreground. */
+  private final BeamSearch my_search;
+
+  /** The threads running the speculative searches. */
+  private final ExecutorService my_executor;
+
+  /** The time budget of a speculative search. */
+  private final long my_budget;
+
+  /** The unit of my_budget. */
+  private final TimeUnit my_unit;
+
+  /** The number of decisions taken from a speculation. */
+  private final LongAdder my_hits = new LongAdder();
+
+  /** The number of decisions searched in the foreground. */
+  private final LongAdder my_misses = new LongAdder();
+
+  /** The board attached to, or null. */
+  private Board my_board;
+
+  /** The latest speculation, or null. */
+  private volatile Speculation my_speculation;
+
+  /**
+   * Searches a snapshot of a board in the background.
+   */
+  private final class Job implements Callable<Placement> {
+    /** The position searched. */
+    private final BoardSnapshot my_snapshot;
+
+    /**
+     * Creates a job.
+     *
+     * @param the_snapshot the position to search
+     */
+    Job(final BoardSnapshot the_snapshot) {
+      my_snapshot = the_snapshot;
+    }
+
+    @Override
+    public Placement call() {
+      return my_search.search(my_snapshot, my_budget, my_unit);
+    }
+  }
+
+  /**
+   * A search started in the background, and the position it was started from.
+   */
+  private static final class Speculation extends FutureTask<Placement> {
+    /** The lock count of the position. */
+    private final int my_lock_count;
+    /** The hash of the position without its current piece. */
+    private final long my_key;
+    /** The packed state of the current piece when the search started. */
+    private final int my_piece;
+
+    /**
+     * Creates a speculation.
+     *
+     * @param the_job the search
+     */
+    Speculation(final Job the_job) {
+      super(the_job);
+      my_lock_count = the_job.my_snapshot.getLockCount();
+      my_key = keyOf(the_job.my_snapshot);
+      my_piece = the_job.my_snapshot.getCurrentPieceState();
+    }
+
+    /**
+     * Checks whether the search was started from a board in its present position,
+     * except for where the current piece is.
+     *
+     * @param the_board the board
+     * @return true if the result of the search applies to the board
+     */
+    boolean matches(final ReadableBoard the_board) {
+      return the_board.getLockCount() == my_lock_count && keyOf(the_board) == my_key &&
+             PieceState.getBlock(the_board.getCurrentPieceState()) ==
+             PieceState.getBlock(my_piece);
+    }
+  }
+
+  /**
+   * Creates a speculative search.
+   *
+   * @param the_search the search run in the background and in the foreground
+   * @param the_executor the threads running the speculative searches
+   * @param the_budget the time budget of a speculative search
+   * @param the_unit the unit of the_budget
+   */
+  public SpeculativeSearch(final BeamSearch the_search, final ExecutorService the_executor,
+                           final long the_budget, final TimeUnit the_unit) {
+    my_search = the_search;
+    my_executor = the_executor;
+    my_budget = the_budget;
+    my_unit = the_unit;
+  }
+
+  /**
+   * Starts speculating on the pieces of a board, which from now on publishes
+   * snapshots. Must be called on the thread that updates the board.
+   *
+   * @param the_board the board
+   */
+  public void attach(final Board the_board) {
+    detach();
+    my_board = the_board;
+    the_board.setPublishing(true);
+    the_board.addBoardListener(this, BoardEvent.PIECE_LOCKED | BoardEvent.GAME_OVER);
+    speculate(the_board.getSnapshot());
+  }
+
+  /**
+   * Stops speculating on the board attached to, if any.
+   */
+  public void detach() {
+    if (my_board != null) {
+      my_board.removeBoardListener(this);
+      my_board = null;
+    }
+    cancel();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * A new current piece starts a speculation; the end of the game cancels it.
+   */
+  @Override
+  public void boardChanged(final ReadableBoard the_board, final int the_events) {
+    if (the_board.isRunning()) {
+      speculate(my_board.getSnapshot());
+    } else {
+      cancel();
+    }
+  }
+
+  /**
+   * Chooses where to put the current piece of a board, from the speculation on
+   * it if there is a valid one, waiting for it to finish if need be. The board
+   * is only read.
+   *
+   * @param the_board the board
+   * @param the_budget the time allowed for a speculation to finish, and else for
+   *          the deeper levels of a search
+   * @param the_unit the unit of the_budget
+   * @return the best placement found, null if the current piece has none
+   */
+  public Placement decide(final ReadableBoard the_board, final long the_budget,
+                          final TimeUnit the_unit) {
+    final Speculation speculation = my_speculation;
+    Placement result = null;
+    if (speculation != null && speculation.matches(the_board)) {
+      try {
+        final Placement planned = speculation.get(the_budget, the_unit);
+        if (planned != null) {
+          result = my_search.reroute(the_board, planned);
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (final ExecutionException | TimeoutException e) {
+        speculation.cancel(false); // searched again below
+      }
+    }
+    if (result == null) {
+      my_misses.increment();
+      result = my_search.search(the_board, the_budget, the_unit);
+    } else {
+      my_hits.increment();
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of decisions taken from a speculation.
+   */
+  public long getHits() {
+    return my_hits.sum();
+  }
+
+  /**
+   * @return the number of decisions searched in the foreground.
+   */
+  public long getMisses() {
+    return my_misses.sum();
+  }
+
+  /**
+   * Returns a one-line summary of the counts.
+   *
+   * @return the decisions taken from speculations and searched in the foreground
+   */
+  @Override
+  public String toString() {
+    return "speculated " + getHits() + ", searched " + getMisses();
+  }
+
+  /**
+   * Replaces the latest speculation by a search of a position.
+   *
+   * @param the_snapshot the position
+   */
+  private void speculate(final BoardSnapshot the_snapshot) {
+    cancel();
+    final Speculation speculation = new Speculation(new Job(the_snapshot));
+    my_speculation = speculation;
+    my_executor.execute(speculation);
+  }
+
+  /**
+   * Cancels the latest speculation if it has not started.
+   */
+  private void cancel() {
+    final Speculation speculation = my_speculation;
+    if (speculation != null) {
+      speculation.cancel(false);
+      my_speculation = null;
+    }
+  }
+
+  /**
+   * Returns the hash of a position without its current piece: its frozen stack
+   * and next piece.
+   *
+   * @param the_board the position
+   * @return the hash
+   */
+  private static long keyOf(final ReadableBoard the_board) {
+    return the_board.getHash() ^ Zobrist.currentPieceKey(the_board.getCurrentPieceState());
+  }
+
+  /**
+   * Plays the measurement game once with speculation and once without and
+   * prints the decision times.
+   *
+   * @param the_args the optional number of pieces, frames of fall, budget in
+   *          milliseconds and seed.
+   * @throws InterruptedException if interrupted while a piece falls
+   */
+  public static void main(final String[] the_args) throws InterruptedException {
+    final int pieces = the_args.length > 0 ? Integer.parseInt(the_args[0]) : PIECES;
+    final int frames = the_args.length > 1 ? Integer.parseInt(the_args[1]) : FALL_FRAMES;
+    final int budget = the_args.length > 2 ? Integer.parseInt(the_args[2]) : BUDGET_MS;
+    final long seed = the_args.length > 3 ? Long.parseLong(the_args[3]) : SEED;
+    final BeamSearch search =
+        new BeamSearch(Heuristic.DEFAULT, BeamSearch.DEFAULT_BEAM, ForkJoinPool.commonPool());
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      for (int run = 0; run < 2; run++) {
+        final boolean speculating = run == 0;
+        final Board board = new Board(WIDTH, HEIGHT, new UniformPieceGenerator(seed));
+        final SpeculativeSearch bot =
+            new SpeculativeSearch(search, executor, budget, TimeUnit.MILLISECONDS);
+        if (speculating) {
+          bot.attach(board);
+        }
+        final LatencyHistogram decisions = new LatencyHistogram();
+        int placed = 0;
+        while (placed < pieces && board.isRunning()) {
+          final int locks = board.getLockCount();
+          for (int frame = 0; frame < frames && board.getLockCount() == locks; frame++) {
+            Thread.sleep(FRAME_MS);
+            board.step();
+          }
+          if (board.getLockCount() == locks && board.isRunning()) {
+            final long start = System.nanoTime();
+            final Placement placement = bot.decide(board, budget, TimeUnit.MILLISECONDS);
+            decisions.record(System.nanoTime() - start);
+            if (placement == null || !placement.play(board)) {
+              board.drop();
+            }
+          }
+          placed++;
+        }
+        bot.detach();
+        System.out.printf("%s: %d pieces, %d lines, %s%n", speculating ? "speculative"
+            : "foreground", placed, board.getTotalLines(), bot);
+        System.out.printf("decision time %s%n", decisions);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,350 @@
+/*
+ * TCSS 305 - Spring 2012
+ * Tetris Project
+ */
+
+package controller;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ai.BeamSearch;
+import ai.Heuristic;
+import ai.Placement;
+import model.BagPieceGenerator;
+import model.PieceGenerator;
+import model.UniformPieceGenerator;
+import view.GameInformationHolder;
+
+/**
+ * Plays many Tetris games without a GUI, spread over a pool of threads, and
+ * prints aggregate results. Every game is played from its own seed, derived from
+ * the base seed and the game number, which seeds both the board's piece generator
+ * and the input policy, so a batch is reproducible whatever the number of threads.
+ * The bot searches every decision in full, without a time budget or a cache
+ * shared between games, for the same reason.
+ *
+ * Usage: BatchSimulator [games] [threads] [max pieces] [seed]
+ *                       [random|scripted|bot] [uniform|bag]
+ *
+ * @author Aaron Nelson
+ * @version 6/1/2012
+ */
+public final class BatchSimulator {
+
+  /** The default number of games. */
+  private static final int GAMES = 10000;
+
+  /** The default cap on the pieces placed in one game. */
+  private static final int MAX_PIECES = 1000;
+
+  /** The default base seed. */
+  private static final long SEED = 305;
+
+  /** The width of the simulated boards. */
+  private static final int WIDTH = 10;
+
+  /** The height of the simulated boards. */
+  private static final int HEIGHT = 20;
+
+  /** The number of rotations tried by the policies. */
+  private static final int ROTATIONS = 4;
+
+  /** The multiplier spreading game numbers over the seed space. */
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  /** The number of nanoseconds in a second. */
+  private static final double NANOS = 1e9;
+
+  /** The time budget of a bot decision in days, which no decision reaches. */
+  private static final long BOT_BUDGET_DAYS = 1;
+
+  /** The search shared by the games played by bots, which keeps no state between them. */
+  private static final BeamSearch BOT_SEARCH =
+      new BeamSearch(Heuristic.DEFAULT, BeamSearch.DEFAULT_BEAM, ForkJoinPool.commonPool());
+
+  /**
+   * Chooses the inputs for each piece of a simulated game.
+   */
+  public enum Policy {
+    /** Rotates and shifts every piece at random, then drops it. */
+    RANDOM {
+      @Override
+      void placePiece(final Board the_board, final Random the_random, final int the_piece) {
+        place(the_board, the_random.nextInt(ROTATIONS),
+              the_random.nextInt(the_board.getWidth()) - the_board.getWidth() / 2);
+      }
+    },
+
+    /** Sweeps the pieces across the board in a fixed pattern, then drops them. */
+    SCRIPTED {
+      @Override
+      void placePiece(final Board the_board, final Random the_random, final int the_piece) {
+        place(the_board, the_piece % ROTATIONS,
+              the_piece % the_board.getWidth() - the_board.getWidth() / 2);
+      }
+    },
+
+    /** Places every piece where a beam search puts it. */
+    BOT {
+      @Override
+      void placePiece(final Board the_board, final Random the_random, final int the_piece) {
+        final Placement placement =
+            BOT_SEARCH.search(the_board, BOT_BUDGET_DAYS, TimeUnit.DAYS);
+        if (placement == null || !placement.play(the_board)) {
+          the_board.drop();
+        }
+      }
+    };
+
+    /**
+     * Places the current piece of the board.
+     *
+     * @param the_board the board
+     * @param the_random the game's source of random choices
+     * @param the_piece the number of pieces placed so far in the game
+     */
+    abstract void placePiece(Board the_board, Random the_random, int the_piece);
+
+    /**
+     * Rotates and shifts the current piece, then drops it.
+     *
+     * @param the_board the board
+     * @param the_rotations the number of rotations
+     * @param the_shift the number of columns to move, negative for left
+     */
+    private static void place(final Board the_board, final int the_rotations,
+                              final int the_shift) {
+      for (int i = 0; i < the_rotations; i++) {
+        the_board.rotate();
+      }
+      for (int i = the_shift; i < 0; i++) {
+        the_board.moveLeft();
+      }
+      for (int i = the_shift; i > 0; i--) {
+        the_board.moveRight();
+      }
+      the_board.drop();
+    }
+  }
+
+  /**
+   * Chooses the piece generator of each simulated game.
+   */
+  public enum Pieces {
+    /** Every piece type is equally likely. */
+    UNIFORM {
+      @Override
+      PieceGenerator create(final long the_seed) {
+        return new UniformPieceGenerator(the_seed);
+      }
+    },
+
+    /** The pieces are dealt from shuffled bags of seven. */
+    BAG {
+      @Override
+      PieceGenerator create(final long the_seed) {
+        return new BagPieceGenerator(the_seed);
+      }
+    };
+
+    /**
+     * Creates the generator of a game.
+     *
+     * @param the_seed the seed of the game
+     * @return the generator
+     */
+    abstract PieceGenerator create(long the_seed);
+  }
+
+  /**
+   * The totals of the games played by one worker.
+   */
+  private static final class Totals {
+    /** The number of games. */
+    private long my_games;
+    /** The number of pieces placed. */
+    private long my_pieces;
+    /** The number of lines cleared. */
+    private long my_lines;
+    /** The sum of the final scores. */
+    private long my_score;
+    /** The best final score. */
+    private long my_best_score;
+
+    /**
+     * Adds the totals of another worker.
+     *
+     * @param the_other the other totals
+     */
+    void add(final Totals the_other) {
+      my_games += the_other.my_games;
+      my_pieces += the_other.my_pieces;
+      my_lines += the_other.my_lines;
+      my_score += the_other.my_score;
+      my_best_score = Math.max(my_best_score, the_other.my_best_score);
+    }
+  }
+
+  /**
+   * Plays games, taking the next game number from a shared counter until the batch
+   * is done.
+   */
+  private static final class Worker implements Callable<Totals> {
+    /** The number of the next game to play. */
+    private final AtomicInteger my_next_game;
+    /** The number of games in the batch. */
+    private final int my_games;
+    /** The cap on pieces placed in one game. */
+    private final int my_max_pieces;
+    /** The base seed. */
+    private final long my_seed;
+    /** The input policy. */
+    private final Policy my_policy;
+    /** The piece generator. */
+    private final Pieces my_pieces;
+
+    /**
+     * Creates a worker.
+     *
+     * @param the_next_game the shared game counter
+     * @param the_games the number of games in the batch
+     * @param the_max_pieces the cap on pieces placed in one game
+     * @param the_seed the base seed
+     * @param the_policy the input policy
+     * @param the_pieces the piece generator
+     */
+    Worker(final AtomicInteger the_next_game, final int the_games, final int the_max_pieces,
+           final long the_seed, final Policy the_policy, final Pieces the_pieces) {
+      my_next_game = the_next_game;
+      my_games = the_games;
+      my_max_pieces = the_max_pieces;
+      my_seed = the_seed;
+      my_policy = the_policy;
+      my_pieces = the_pieces;
+    }
+
+    @Override
+    public Totals call() {
+      final Totals totals = new Totals();
+      for (int game = my_next_game.getAndIncrement(); game < my_games;
+           game = my_next_game.getAndIncrement()) {
+        play(my_seed + game * GOLDEN_GAMMA, my_max_pieces, my_policy, my_pieces, totals);
+      }
+      return totals;
+    }
+  }
+
+  /**
+   * Prevents instantiation.
+   */
+  private BatchSimulator() {
+    // nothing to do
+  }
+
+  /**
+   * Runs a batch and prints the results.
+   *
+   * @param the_args the optional number of games, threads, cap on pieces per game,
+   *   base seed, policy and piece generator.
+   * @throws Exception if a worker fails
+   */
+  public static void main(final String[] the_args) throws Exception {
+    final int games = the_args.length > 0 ? Integer.parseInt(the_args[0]) : GAMES;
+    final int threads = the_args.length > 1 ? Integer.parseInt(the_args[1])
+        : Runtime.getRuntime().availableProcessors();
+    final int max_pieces = the_args.length > 2 ? Integer.parseInt(the_args[2]) : MAX_PIECES;
+    final long seed = the_args.length > 3 ? Long.parseLong(the_args[3]) : SEED;
+    final Policy policy = the_args.length > 4
+        ? Policy.valueOf(the_args[4].toUpperCase(Locale.ROOT)) : Policy.RANDOM;
+    final Pieces pieces = the_args.length > 5
+        ? Pieces.valueOf(the_args[5].toUpperCase(Locale.ROOT)) : Pieces.UNIFORM;
+
+    final long start = System.nanoTime();
+    final Totals totals = run(games, threads, max_pieces, seed, policy, pieces);
+    final double seconds = (System.nanoTime() - start) / NANOS;
+
+    System.out.printf("policy %s, pieces %s, %d games on %d threads in %.2f s%n",
+                      policy, pieces, totals.my_games, threads, seconds);
+    System.out.printf("games per second %.1f, pieces per second %.0f%n",
+                      totals.my_games / seconds, totals.my_pieces / seconds);
+    System.out.printf("pieces %d (%.1f per game), lines %d (%.2f per game)%n",
+                      totals.my_pieces, (double) totals.my_pieces / totals.my_games,
+                      totals.my_lines, (double) totals.my_lines / totals.my_games);
+    System.out.printf("score mean %.1f, best %d%n",
+                      (double) totals.my_score / totals.my_games, totals.my_best_score);
+  }
+
+  /**
+   * Plays a batch of games on a pool of threads.
+   *
+   * @param the_games the number of games
+   * @param the_threads the number of threads
+   * @param the_max_pieces the cap on pieces placed in one game
+   * @param the_seed the base seed
+   * @param the_policy the input policy
+   * @param the_pieces the piece generator
+   * @return the totals of all games
+   * @throws Exception if a worker fails
+   */
+  private static Totals run(final int the_games, final int the_threads,
+                            final int the_max_pieces, final long the_seed,
+                            final Policy the_policy, final Pieces the_pieces)
+    throws Exception {
+    final ExecutorService pool = Executors.newFixedThreadPool(the_threads);
+    final AtomicInteger next_game = new AtomicInteger();
+    final List<Future<Totals>> workers = new LinkedList<Future<Totals>>();
+
+    for (int i = 0; i < the_threads; i++) {
+      workers.add(pool.submit(new Worker(next_game, the_games, the_max_pieces, the_seed,
+                                         the_policy, the_pieces)));
+    }
+    final Totals result = new Totals();
+    try {
+      for (Future<Totals> worker : workers) {
+        result.add(worker.get());
+      }
+    } finally {
+      pool.shutdown();
+    }
+    return result;
+  }
+
+  /**
+   * Plays one game until it ends or the cap on pieces is reached.
+   *
+   * @param the_seed the seed of the game
+   * @param the_max_pieces the cap on pieces placed
+   * @param the_policy the input policy
+   * @param the_pieces the piece generator
+   * @param the_totals the totals to add the game to
+   */
+  private static void play(final long the_seed, final int the_max_pieces,
+                           final Policy the_policy, final Pieces the_pieces,
+                           final Totals the_totals) {
+    final Random random = new Random(the_seed);
+    final Board board = new Board(WIDTH, HEIGHT, the_pieces.create(the_seed));
+    final GameInformationHolder holder = board.getGameInformation();
+
+    int placed = 0;
+    // GameInformationHolder reports true while the game is still going
+    while (placed < the_max_pieces && holder.isGameOver()) {
+      the_policy.placePiece(board, random, placed);
+      placed++;
+    }
+    the_totals.my_games++;
+    the_totals.my_pieces += placed;
+    the_totals.my_lines += holder.getTotalLines();
+    the_totals.my_score += holder.getScore();
+    the_totals.my_best_score = Math.max(the_totals.my_best_score, holder.getScore());
+  }
+}
@@ -4,30 +4,34 @@
 
 package controller;
 
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Observable;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 
-import model.AbstractPiece;
+import model.AbstractPieceGenerator;
 import model.Block;
-import model.IPiece;
-import model.JPiece;
-import model.LPiece;
-import model.OPiece;
+import model.ListPieceGenerator;
 import model.Piece;
-import model.SPiece;
-import model.TPiece;
-import model.ZPiece;
+import model.PieceGenerator;
+import model.PieceShape;
+import model.PieceState;
+import model.UniformPieceGenerator;
 import view.GameInformationHolder;
 
 /**
  * A representation of a Tetris game board.
  * 
+ * Changes are reported to BoardListeners as masks of BoardEvent kinds. Each
+ * public operation reports its changes in a single dispatch, and a caller can
+ * merge several operations, such as one tick of a game loop, into a single
+ * dispatch by bracketing them with beginUpdate and endUpdate.
+ * 
  * @author Alan Fowler
  * @version Spring 201287
  */
-public class Board extends Observable {
+public class Board implements ReadableBoard {
 
   // constants
 
@@ -58,17 +62,37 @@ public class Board extends Observable {
   /** The representation of the current piece's position in string output. */
   private static final String CURRENT_PIECE = "*";
 
-  /** The random number generator used for choosing new pieces. */
-  private static final Random RANDOM = new Random();
-
   /** The minimum size of a board. */
   private static final int MIN_SIZE = 5;
 
-  /** The number of rotations to return a piece to initial state. */
-  private static final int NUM_ROTATIONS = 4;
+  /** The maximum width of a board; each row is stored in one long. */
+  private static final int MAX_WIDTH = Long.SIZE;
+
+  /** The block types, indexed by the ordinals stored in the color plane. */
+  private static final Block[] BLOCK_TYPES = Block.values();
+
+  /** The changes reported when a game is set up; everything but the game's end. */
+  private static final int NEW_GAME = BoardEvent.ALL & ~BoardEvent.GAME_OVER;
 
   /** The number of extra rows above the board to display in String output. */
   private static final int EXTRA_ROWS = 4;
+
+  /** The maximum height of a board; pieces spawn above it. */
+  private static final int MAX_HEIGHT = PieceState.MAX_Y - EXTRA_ROWS;
+
+  /** The number of bits of a block in a written state, enough for every type. */
+  private static final int CELL_BITS = 3;
+
+  /** The mask of the bits of a block in a written state. */
+  private static final int CELL_MASK = (1 << CELL_BITS) - 1;
+
+  /**
+   * The number of bytes of a written state before its blocks: the stack height,
+   * eight ints of pieces, counts and statistics, the running flag and the
+   * generator's position.
+   */
+  private static final int STATE_FIELDS_SIZE =
+      Short.BYTES + 8 * Integer.BYTES + 1 + Long.BYTES;
   
 
 
@@ -85,29 +109,141 @@ public class Board extends Observable {
   private int my_height;
 
   /**
-   * The current state of the board.
+   * The occupancy of each row of the board; bit x of my_rows[y] is set when
+   * the position (x, y) holds a frozen block.
+   */
+  private long[] my_rows;
+
+  /**
+   * The block type of each position, stored row by row as Block ordinals.
    */
-  private final List<Block[]> my_blocks;
+  private byte[] my_cells;
 
   /**
-   * The piece currently being moved around the board.
+   * The Zobrist hash of the blocks of each row.
    */
-  private Piece my_current_piece;
+  private long[] my_row_hashes;
+
+  /**
+   * The Zobrist hash of the frozen grid, the weighted sum of the row hashes.
+   */
+  private long my_grid_hash;
+
+  /**
+   * The row mask of a completely filled row.
+   */
+  private long my_full_row;
+
+  /**
+   * The number of rows from the floor up to and including the highest row
+   * that holds a frozen block.
+   */
+  private int my_stack_height;
+
+  /**
+   * The height and holes of every column, kept up to date as blocks freeze and
+   * lines clear.
+   */
+  private Skyline my_skyline;
+
+  /**
+   * The packed state of the piece currently being moved around the board.
+   */
+  private int my_current_piece;
   
   /**
-   * The piece that will be used next.
+   * The packed state of the piece most recently frozen into the stack.
    */
-  private Piece my_next_piece;
+  private int my_locked_piece;
 
   /**
-   * The predetermined list of pieces to be used by the board.
+   * The number of pieces frozen in the current game.
    */
-  private List<Piece> my_pieces;
+  private int my_lock_count;
+
+  /**
+   * The rows cleared by the most recent freeze, bit i standing for row i of the
+   * frozen piece as it froze.
+   */
+  private int my_cleared_rows;
+
+  /**
+   * The packed state of the piece that will be used next.
+   */
+  private int my_next_piece;
+
+  /**
+   * The source of the pieces used by the board.
+   */
+  private PieceGenerator my_generator;
   /**
    * A field that holds data about a game such as difficulty level, score, and next piece.
    */
   private GameInformationHolder my_holder;
 
+  /**
+   * The listeners of this board. The array is replaced rather than modified when
+   * listeners are added or removed, so a dispatch can walk it without copying.
+   */
+  private volatile Subscription[] my_subscriptions = new Subscription[0];
+
+  /**
+   * The latest published snapshot, or null if none was published.
+   */
+  private final AtomicReference<BoardSnapshot> my_snapshot =
+      new AtomicReference<BoardSnapshot>();
+
+  /**
+   * Whether a snapshot is published with every dispatch.
+   */
+  private boolean my_publishing;
+
+  /**
+   * The lowest row changed since the last snapshot.
+   */
+  private int my_dirty_from;
+
+  /**
+   * One past the highest row changed since the last snapshot.
+   */
+  private int my_dirty_to;
+
+  /**
+   * The number of beginUpdate calls not yet matched by endUpdate.
+   */
+  private int my_update_depth;
+
+  /**
+   * The kinds of change made since the last dispatch.
+   */
+  private int my_pending_events;
+
+  /**
+   * The metrics the board records into, or null.
+   */
+  private EngineMetrics my_metrics;
+
+  /**
+   * A listener and the kinds of change it subscribed to.
+   */
+  private static final class Subscription {
+    /** The listener. */
+    private final BoardListener my_listener;
+    /** The kinds of change, as a mask of BoardEvent bits. */
+    private final int my_events;
+
+    /**
+     * Creates a subscription.
+     * 
+     * @param the_listener the listener
+     * @param the_events the kinds of change
+     */
+    Subscription(final BoardListener the_listener, final int the_events) {
+      my_listener = the_listener;
+      my_events = the_events;
+    }
+  }
+
   /**
    * Constructs a Board using the specified dimensions.
    * 
@@ -115,25 +251,54 @@ public class Board extends Observable {
    * @param the_height the width to assign
    * @param the_pieces the sequence of pieces to use;
    *   null or empty list indicates a random game
-   * @throws IllegalArgumentException if the_width or the_height is less than MIN_SIZE
+   * @throws IllegalArgumentException if the_width or the_height is less than MIN_SIZE,
+   *   the_width is greater than MAX_WIDTH or the_height is greater than MAX_HEIGHT
    */
   public Board(final int the_width, final int the_height, final List<Piece> the_pieces)
     throws IllegalArgumentException {
     
-    super();
-    if (the_width < MIN_SIZE || the_height < MIN_SIZE) {
+    this(the_width, the_height, generatorFor(the_pieces));
+  }
+
+  /**
+   * Constructs a Board using the specified dimensions and source of pieces.
+   * 
+   * @param the_width the width to assign
+   * @param the_height the height to assign
+   * @param the_generator the source of the pieces for this board
+   * @throws IllegalArgumentException if the_width or the_height is less than MIN_SIZE,
+   *   the_width is greater than MAX_WIDTH or the_height is greater than MAX_HEIGHT
+   */
+  public Board(final int the_width, final int the_height, final PieceGenerator the_generator)
+    throws IllegalArgumentException {
+    
+    if (the_width < MIN_SIZE || the_height < MIN_SIZE || the_width > MAX_WIDTH ||
+        the_height > MAX_HEIGHT) {
       throw new IllegalArgumentException();
     }
-    my_blocks = new LinkedList<Block[]>();
-    my_pieces = new LinkedList<Piece>();
-    setupGame(the_width, the_height, the_pieces);
+    setupGame(the_width, the_height, the_generator);
   }
 
   /**
    * Constructs a Board using default dimensions (10x20).
    */
   public Board() {
-    this(DEFAULT_WIDTH, DEFAULT_HEIGHT, null);
+    this(DEFAULT_WIDTH, DEFAULT_HEIGHT, new UniformPieceGenerator());
+  }
+
+  /**
+   * Returns the generator that plays the given pieces.
+   * 
+   * @param the_pieces the sequence of pieces to use;
+   *   null or empty list indicates a random game
+   * @return the generator
+   */
+  private static PieceGenerator generatorFor(final List<Piece> the_pieces) {
+    PieceGenerator result = new UniformPieceGenerator();
+    if (the_pieces != null) {
+      result = new ListPieceGenerator(the_pieces, result);
+    }
+    return result;
   }
 
   /**
@@ -146,20 +311,47 @@ public class Board extends Observable {
    */
   public final void setupGame(final int the_width, final int the_height,
                               final List<Piece> the_pieces) {
+    setupGame(the_width, the_height, generatorFor(the_pieces));
+  }
+
+  /**
+   * Creates a new game of the specified width and height that takes its pieces
+   * from the given generator.
+   * 
+   * @param the_width The width of the board
+   * @param the_height The height of the board
+   * @param the_generator The source of the pieces
+   */
+  public final void setupGame(final int the_width, final int the_height,
+                              final PieceGenerator the_generator) {
+    if (my_rows == null || my_width != the_width || my_height != the_height) {
+      my_rows = new long[the_height + EXTRA_ROWS];
+      my_cells = new byte[my_rows.length * the_width];
+      my_row_hashes = new long[my_rows.length];
+    } else {
+      Arrays.fill(my_rows, 0L);
+      Arrays.fill(my_cells, (byte) Block.EMPTY.ordinal());
+      Arrays.fill(my_row_hashes, 0L);
+    }
+    my_grid_hash = 0L;
     my_width = the_width;
     my_height = the_height;
-    my_blocks.clear();
-    if (the_pieces == null) {
-      my_pieces.clear();
-      my_next_piece = randomPiece(my_width / 2 - 1, my_height);
+    my_full_row = the_width == MAX_WIDTH ? -1L : (1L << the_width) - 1;
+    my_stack_height = 0;
+    markDirty(0, Integer.MAX_VALUE);
+    if (my_skyline == null) {
+      my_skyline = new Skyline(the_width);
     } else {
-      my_pieces = the_pieces;
-      my_next_piece = my_pieces.remove(0);
-    } 
+      my_skyline.reset(the_width);
+    }
+    my_generator = the_generator;
+    my_next_piece = my_generator.next(my_width / 2 - 1, my_height);
     my_holder = new GameInformationHolder(my_next_piece);
     assignCurrentPiece();
-    setChanged();
-    notifyObservers(my_holder);
+    my_locked_piece = my_current_piece;
+    my_lock_count = 0;
+    my_cleared_rows = 0;
+    fire(NEW_GAME);
   }
 
   /**
@@ -176,6 +368,260 @@ public class Board extends Observable {
     return my_height;
   }
 
+  /**
+   * @return the number of rows, counted from the floor, up to and including the
+   *         highest row that holds a frozen block
+   */
+  public int getStackHeight() {
+    return my_stack_height;
+  }
+
+  /**
+   * Returns the column heights and holes of the frozen blocks. The index is
+   * updated in place as the game goes on; callers must not keep values across
+   * moves.
+   * 
+   * @return the read-only skyline of this board
+   */
+  public Skyline getSkyline() {
+    return my_skyline;
+  }
+
+  /**
+   * Returns the occupancy of a row; bit x of the result is set when the position
+   * (x, the_y) holds a frozen block.
+   * 
+   * @param the_y The y-coordinate of the row
+   * @return the occupancy mask of the row, 0 for rows above the stack
+   */
+  public long getRowMask(final int the_y) {
+    long result = 0L;
+    if (the_y >= 0 && the_y < my_stack_height) {
+      result = my_rows[the_y];
+    }
+    return result;
+  }
+
+  /**
+   * Retrieves the frozen block at the specified coordinates without copying the
+   * board.
+   * 
+   * @param the_x The x-coordinate
+   * @param the_y The y-coordinate
+   * @return The block at the provided position or EMPTY if there is no block
+   * @throws IllegalArgumentException if the requested position is outside the
+   *           board.
+   */
+  public Block getBlockAt(final int the_x, final int the_y) throws IllegalArgumentException {
+    return blockAt(the_x, the_y);
+  }
+
+  /**
+   * @return the score, level and next piece information of the current game.
+   */
+  public GameInformationHolder getGameInformation() {
+    return my_holder;
+  }
+
+  /**
+   * Subscribes a listener to the given kinds of change. Subscribing a listener
+   * again replaces the kinds it receives. Listeners are called in the order they
+   * first subscribed.
+   * 
+   * @param the_listener the listener
+   * @param the_events the kinds of change, as a mask of BoardEvent bits
+   * @throws NullPointerException if the_listener is null
+   */
+  public synchronized void addBoardListener(final BoardListener the_listener,
+                                            final int the_events) {
+    if (the_listener == null) {
+      throw new NullPointerException();
+    }
+    final Subscription[] subscriptions = my_subscriptions;
+    final Subscription subscription = new Subscription(the_listener, the_events);
+    for (int i = 0; i < subscriptions.length; i++) {
+      if (subscriptions[i].my_listener == the_listener) {
+        final Subscription[] result = subscriptions.clone();
+        result[i] = subscription;
+        my_subscriptions = result;
+        return;
+      }
+    }
+    final Subscription[] result = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+    result[subscriptions.length] = subscription;
+    my_subscriptions = result;
+  }
+
+  /**
+   * Unsubscribes a listener; does nothing if it is not subscribed.
+   * 
+   * @param the_listener the listener
+   */
+  public synchronized void removeBoardListener(final BoardListener the_listener) {
+    final Subscription[] subscriptions = my_subscriptions;
+    for (int i = 0; i < subscriptions.length; i++) {
+      if (subscriptions[i].my_listener == the_listener) {
+        final Subscription[] result = new Subscription[subscriptions.length - 1];
+        System.arraycopy(subscriptions, 0, result, 0, i);
+        System.arraycopy(subscriptions, i + 1, result, i, result.length - i);
+        my_subscriptions = result;
+        break;
+      }
+    }
+  }
+
+  /**
+   * @return the number of subscribed listeners.
+   */
+  public int countBoardListeners() {
+    return my_subscriptions.length;
+  }
+
+  /**
+   * Turns the publication of snapshots on or off. While it is on, every dispatch
+   * first publishes a snapshot of the board, which other threads read through
+   * getSnapshot. It is off by default, so that a board nobody reads from other
+   * threads does not copy any rows.
+   * 
+   * @param the_publishing true to publish snapshots
+   */
+  public void setPublishing(final boolean the_publishing) {
+    my_publishing = the_publishing;
+    if (the_publishing) {
+      publish();
+    }
+  }
+
+  /**
+   * Returns the latest published snapshot of this board. May be called from any
+   * thread; the snapshot is immutable and consistent, and shares its unchanged
+   * rows with the snapshots before it.
+   * 
+   * @return the latest snapshot, or null if publication was never turned on
+   * @see #setPublishing(boolean)
+   */
+  public BoardSnapshot getSnapshot() {
+    return my_snapshot.get();
+  }
+
+  /**
+   * Publishes a snapshot of the board as it is now.
+   */
+  private void publish() {
+    my_snapshot.set(new BoardSnapshot(this, my_snapshot.get(), my_rows, my_cells,
+                                      my_dirty_from, my_dirty_to));
+    my_dirty_from = Integer.MAX_VALUE;
+    my_dirty_to = 0;
+  }
+
+  /**
+   * Records that rows changed since the last snapshot.
+   * 
+   * @param the_from the lowest changed row
+   * @param the_to one past the highest changed row
+   */
+  private void markDirty(final int the_from, final int the_to) {
+    my_dirty_from = Math.min(my_dirty_from, the_from);
+    my_dirty_to = Math.max(my_dirty_to, the_to);
+  }
+
+  /**
+   * Holds back dispatching until the matching endUpdate, so that the changes
+   * made in between reach the listeners as one dispatch. Calls may nest.
+   */
+  public void beginUpdate() {
+    my_update_depth++;
+  }
+
+  /**
+   * Ends an update started by beginUpdate. Ending the outermost update
+   * dispatches the changes made during it, if any.
+   * 
+   * @throws IllegalStateException if no update was started
+   */
+  public void endUpdate() throws IllegalStateException {
+    if (my_update_depth == 0) {
+      throw new IllegalStateException("endUpdate without beginUpdate");
+    }
+    my_update_depth--;
+    if (my_update_depth == 0) {
+      dispatch();
+    }
+  }
+
+  /**
+   * Makes the board record the time of its operations and dispatches, and the
+   * pieces it spawns, lines it clears and games it loses, into the given
+   * metrics. Call it on the thread that updates the board.
+   * 
+   * @param the_metrics the metrics, or null to stop recording
+   */
+  public void setMetrics(final EngineMetrics the_metrics) {
+    my_metrics = the_metrics;
+  }
+
+  /**
+   * @return the metrics the board records into, or null.
+   */
+  public EngineMetrics getMetrics() {
+    return my_metrics;
+  }
+
+  /**
+   * Returns the start time of an operation, if the board records metrics.
+   * 
+   * @return the System.nanoTime, or 0 if there are no metrics
+   */
+  private long startTimer() {
+    return my_metrics == null ? 0L : System.nanoTime();
+  }
+
+  /**
+   * Records the time of an operation, if the board records metrics.
+   * 
+   * @param the_timer the timer, such as EngineMetrics.MOVE
+   * @param the_start the start time returned by startTimer
+   */
+  private void stopTimer(final int the_timer, final long the_start) {
+    if (my_metrics != null) {
+      my_metrics.record(the_timer, the_start);
+    }
+  }
+
+  /**
+   * Records changes, dispatching them at once unless an update is in progress.
+   * 
+   * @param the_events the kinds of change, as a mask of BoardEvent bits
+   */
+  private void fire(final int the_events) {
+    my_pending_events |= the_events;
+    if (my_update_depth == 0) {
+      dispatch();
+    }
+  }
+
+  /**
+   * Reports the pending changes to the listeners that subscribed to them.
+   */
+  private void dispatch() {
+    final int events = my_pending_events;
+    if (events != 0) {
+      // cleared first, so a listener that changes the board gets its own dispatch
+      my_pending_events = 0;
+      final long start = startTimer();
+      if (my_publishing) {
+        publish();
+      }
+      for (Subscription subscription : my_subscriptions) {
+        final int wanted = events & subscription.my_events;
+        if (wanted != 0) {
+          subscription.my_listener.boardChanged(this, wanted);
+        }
+      }
+      stopTimer(EngineMetrics.DISPATCH, start);
+    }
+  }
+
   /**
    * Attempts to move the current piece to the left.
    * 
@@ -183,24 +629,13 @@ public class Board extends Observable {
    *         otherwise
    */
   public boolean moveLeft() {
-    final int[][] blocks = my_current_piece.getBoardCoordinates();
-    boolean can_pass = true;
-
-    // perform bounds checking on each block
-    for (int i = 0; i < blocks.length; i++) {
-      if (blocks[i][0] == 0 || // block is already at the left wall
-          blockAt(blocks[i][0] - 1, blocks[i][1]) != Block.EMPTY)  {
-          // block to left is occupied
-        can_pass = false;
-        break; // can't move, no need to keep checking
-      }
-    }
+    final long start = startTimer();
+    final boolean can_pass = move(PieceState.translate(my_current_piece, -1, 0));
 
     if (can_pass) {
-      my_current_piece.moveLeft();
-      setChanged();
-      notifyObservers();
+      fire(BoardEvent.PIECE_MOVED);
     }
+    stopTimer(EngineMetrics.MOVE, start);
     return can_pass;
   }
 
@@ -211,24 +646,13 @@ public class Board extends Observable {
    *         false otherwise
    */
   public boolean moveRight() {
-    final int[][] blocks = my_current_piece.getBoardCoordinates();
-    boolean can_pass = true;
-
-    // perform bounds checking on each block
-    for (int i = 0; i < blocks.length; i++) {
-      if (blocks[i][0] == my_width - 1 || // block is already at the right wall
-          blockAt(blocks[i][0] + 1, blocks[i][1]) != Block.EMPTY) {
-          // block to right is occupied
-        can_pass = false;
-        break; // can't move, no need to keep checking
-      }
-    }
+    final long start = startTimer();
+    final boolean can_pass = move(PieceState.translate(my_current_piece, 1, 0));
 
     if (can_pass) {
-      my_current_piece.moveRight();
-      setChanged();
-      notifyObservers();
+      fire(BoardEvent.PIECE_MOVED);
     }
+    stopTimer(EngineMetrics.MOVE, start);
     return can_pass;
   }
 
@@ -239,24 +663,22 @@ public class Board extends Observable {
    *         otherwise
    */
   public boolean moveDown() {
-    final int[][] blocks = my_current_piece.getBoardCoordinates();
-    boolean can_pass = true;
-
-    // perform bounds checking on each block
-    for (int i = 0; i < blocks.length; i++) {
-      // Is this block at the bottom, or is there a piece below it?
-      if (blocks[i][1] == 0 || // block is at the bottom
-          blockAt(blocks[i][0], blocks[i][1] - 1) != Block.EMPTY) { // block below
-                                                                    // is occupied
-        can_pass = false;
-        break; // can't move, no need to keep checking
-      }
-    }
+    final long start = startTimer();
+    final boolean can_pass = down();
+    stopTimer(EngineMetrics.MOVE, start);
+    return can_pass;
+  }
+
+  /**
+   * Moves the current piece down, or freezes it if it cannot move.
+   * 
+   * @return true if the piece moved down, false if it was frozen
+   */
+  private boolean down() {
+    final boolean can_pass = move(PieceState.translate(my_current_piece, 0, -1));
 
     if (can_pass) {
-      my_current_piece.moveDown();
-      setChanged();
-      notifyObservers();
+      fire(BoardEvent.PIECE_MOVED);
     } else {
       freeze();
     }
@@ -269,99 +691,72 @@ public class Board extends Observable {
    * @return true if it is possible to rotate the current piece; false otherwise
    */
   public boolean rotate() {
-    my_current_piece.rotate();
-    final int[][] blocks = my_current_piece.getBoardCoordinates();
-    boolean can_pass = true;
-
-    // perform bounds checking on each block
-    for (int[] dimension : blocks) {
-      if (dimension[0] >= my_width || blockAt(dimension[0], dimension[1]) != Block.EMPTY) {
-        // If it overlaps, rotate it back to its original position
-        for (int i = 1; i < NUM_ROTATIONS; i++) {
-          my_current_piece.rotate();
-        }
-        can_pass = false;
-        break;
-      }
-    }
+    final long start = startTimer();
+    final boolean can_pass = move(PieceState.rotate(my_current_piece));
+
     if (can_pass) {
-      setChanged();
-      notifyObservers();
+      fire(BoardEvent.PIECE_MOVED);
     }
+    stopTimer(EngineMetrics.ROTATE, start);
     return can_pass;
   }
 
   /**
-   * Updates the game by one step.
+   * Makes the given state the state of the current piece if it fits.
+   * 
+   * @param the_state The packed state to move the current piece to
+   * @return true if the piece was moved, false otherwise
    */
-  public void step() {
-    moveDown();
+  private boolean move(final int the_state) {
+    final boolean result = fits(the_state);
+    if (result) {
+      my_current_piece = the_state;
+    }
+    return result;
   }
 
   /**
-   * Initializes the current piece.
+   * Evaluates if a piece with the given state would fit on the board, that is,
+   * if it would stay inside the walls and above the floor without overlapping
+   * any frozen block.
+   * 
+   * @param the_state The packed state to test
+   * @return true if the piece fits, false otherwise
    */
-  private void assignCurrentPiece() {
-    my_current_piece = my_next_piece;
-    if (my_pieces == null || my_pieces.isEmpty()) {
-      // generate a random piece
-      my_next_piece = randomPiece(my_width / 2 - 1, my_height);
-    } else {
-      // get the next piece from the list
-      my_next_piece = my_pieces.remove(0);
+  private boolean fits(final int the_state) {
+    final PieceShape shape = PieceState.getShape(the_state);
+    final int rotation = PieceState.getRotation(the_state);
+    final int x = PieceState.getX(the_state);
+    final int y = PieceState.getY(the_state);
+    boolean result = x >= 0 && y >= 0 && x + shape.getWidth(rotation) <= my_width;
+    // rows at or above the capacity of the grid are always empty
+    final int rows = Math.min(shape.getHeight(rotation), my_rows.length - y);
+
+    for (int row = 0; result && row < rows; row++) {
+      result = (my_rows[y + row] & (long) shape.getRowMask(rotation, row) << x) == 0;
     }
-    my_holder.updatePiece(my_next_piece);
-    setChanged();
-    notifyObservers(my_holder);
+    return result;
   }
 
   /**
-   * Creates a new piece randomly chosen from the possible pieces at the
-   * specified coordinates.
-   * 
-   * @param the_x The x-coordinate
-   * @param the_y The y-coordinate
-   * 
-   * @return A randomly chosen piece
+   * Updates the game by one step.
    */
-  private Piece randomPiece(final int the_x, final int the_y) {
-    final Block[] blocks = Block.values();
-    Piece result;
-
-    switch (blocks[RANDOM.nextInt(blocks.length)]) {
-      case I:
-        result = new IPiece(the_x, the_y);
-        break;
-
-      case J:
-        result = new JPiece(the_x, the_y);
-        break;
-
-      case L:
-        result = new LPiece(the_x, the_y);
-        break;
-
-      case O:
-        result = new OPiece(the_x, the_y);
-        break;
-
-      case S:
-        result = new SPiece(the_x, the_y);
-        break;
-
-      case T:
-        result = new TPiece(the_x, the_y);
-        break;
-
-      case Z:
-        result = new ZPiece(the_x, the_y);
-        break;
+  public void step() {
+    final long start = startTimer();
+    down();
+    stopTimer(EngineMetrics.STEP, start);
+  }
 
-      default: // If EMPTY try again
-        result = randomPiece(the_x, the_y);
-        break;
+  /**
+   * Initializes the current piece.
+   */
+  private void assignCurrentPiece() {
+    my_current_piece = my_next_piece;
+    my_next_piece = my_generator.next(my_width / 2 - 1, my_height);
+    my_holder.updatePiece(my_next_piece);
+    if (my_metrics != null) {
+      my_metrics.pieceSpawned();
     }
-    return result;
   }
 
   /**
@@ -380,8 +775,8 @@ public class Board extends Observable {
       throw new IllegalArgumentException("x: " + the_x + " y: " + the_y);
     }
     Block result = Block.EMPTY; // blocks above the board are empty
-    if (the_y < my_blocks.size()) {
-      result = my_blocks.get(the_y)[the_x];
+    if (the_y < my_stack_height) {
+      result = BLOCK_TYPES[my_cells[the_y * my_width + the_x]];
     }
     return result;
   }
@@ -394,46 +789,74 @@ public class Board extends Observable {
    * @return true if the current piece occupies the position, false otherwise
    */
   private boolean currentPieceAt(final int the_x, final int the_y) {
-    boolean result = false;
-    final int[][] blocks = my_current_piece.getBoardCoordinates();
-
-    for (int block = 0; block < blocks.length; block++) {
-      if (blocks[block][1] == the_y && blocks[block][0] == the_x) {
-        result = true;
-      }
-    }
-    return result;
+    final PieceShape shape = PieceState.getShape(my_current_piece);
+    final int rotation = PieceState.getRotation(my_current_piece);
+    final int column = the_x - PieceState.getX(my_current_piece);
+    final int row = the_y - PieceState.getY(my_current_piece);
+
+    return column >= 0 && column < shape.getWidth(rotation) &&
+           row >= 0 && row < shape.getHeight(rotation) &&
+           (shape.getRowMask(rotation, row) >>> column & 1) != 0;
   }
 
   /**
    * The current piece cannot move down so add its blocks to the board.
    */
   private void freeze() {
-    final int[][] coordinates = my_current_piece.getBoardCoordinates();
-
-    for (int block = 0; block < coordinates.length; block++) {
-      final int x = coordinates[block][0];
-      final int y = coordinates[block][1];
+    final boolean running = my_holder.isGameOver(); // true while the game goes on
+    final long start = startTimer();
+    beginUpdate();
+    final PieceShape shape = PieceState.getShape(my_current_piece);
+    final int rotation = PieceState.getRotation(my_current_piece);
+    final byte block = (byte) shape.getBlock().ordinal();
+
+    for (int i = 0; i < PieceShape.BLOCKS; i++) {
+      final int x = PieceState.getX(my_current_piece) + shape.getCellX(rotation, i);
+      final int y = PieceState.getY(my_current_piece) + shape.getCellY(rotation, i);
       
       if (y > this.my_height) {
         my_holder.endGame();
       }
-
-      // Add rows until this block can fit in one.
-      while (y >= my_blocks.size()) {
-        final Block[] new_row = new Block[my_width];
-        for (int i = 0; i < my_width; i++) {
-          new_row[i] = Block.EMPTY;
-        }
-        my_blocks.add(new_row);
+      if (y >= my_rows.length) {
+        growRows(y + 1);
+      }
+      if ((my_rows[y] >>> x & 1L) == 0) {
+        my_skyline.add(x, y);
       }
-      final Block[] row = my_blocks.get(y);
-      row[x] = my_current_piece.getBlock();
+      final long row_hash = my_row_hashes[y] ^ Zobrist.cellKey(my_cells[y * my_width + x], x) ^
+                            Zobrist.cellKey(block, x);
+      my_grid_hash += (row_hash - my_row_hashes[y]) * Zobrist.rowWeight(y);
+      my_row_hashes[y] = row_hash;
+      my_rows[y] |= 1L << x;
+      my_cells[y * my_width + x] = block;
+      markDirty(y, y + 1);
+      my_stack_height = Math.max(my_stack_height, y + 1);
     }
+    my_locked_piece = my_current_piece;
+    my_lock_count++;
     clearLines();
     assignCurrentPiece();
-    setChanged();
-    notifyObservers(my_holder);
+    fire(BoardEvent.PIECE_LOCKED | BoardEvent.PIECE_MOVED);
+    if (running && !my_holder.isGameOver()) {
+      fire(BoardEvent.GAME_OVER);
+      if (my_metrics != null) {
+        my_metrics.gameOver();
+      }
+    }
+    endUpdate();
+    stopTimer(EngineMetrics.FREEZE, start);
+  }
+
+  /**
+   * Enlarges the grid so that it holds at least the given number of rows. This
+   * only happens when a predetermined piece starts far above the board.
+   * 
+   * @param the_rows The number of rows needed
+   */
+  private void growRows(final int the_rows) {
+    my_rows = Arrays.copyOf(my_rows, the_rows);
+    my_cells = Arrays.copyOf(my_cells, the_rows * my_width);
+    my_row_hashes = Arrays.copyOf(my_row_hashes, the_rows);
   }
 
   /**
@@ -441,23 +864,55 @@ public class Board extends Observable {
    * the board.
    */
   private void clearLines() {
-    for (int i = my_blocks.size() - 1; i >= 0; i--) {
-      boolean clear = true;
-      final Block[] blocks = my_blocks.get(i);
-
-      for (Block block : blocks) {
-        if (block == Block.EMPTY) {
-          clear = false;
-          break;
+    final long start = startTimer();
+    int cleared = 0;
+    int lowest = 0;
+    my_cleared_rows = 0;
+    for (int row = my_stack_height - 1; row >= 0; row--) {
+      if (my_rows[row] == my_full_row) {
+        cleared++;
+        lowest = row;
+        // only the rows the frozen piece filled can be full
+        my_cleared_rows |= 1 << row - PieceState.getY(my_locked_piece);
+      }
+    }
+
+    if (cleared > 0) {
+      markDirty(lowest, my_stack_height);
+      final long rescan = my_skyline.clear(my_rows, my_full_row, cleared);
+      int kept = 0;
+
+      // compact the rows that are not full towards the floor, moving the term of
+      // each moved row in the grid hash to its new row's weight
+      for (int row = 0; row < my_stack_height; row++) {
+        if (my_rows[row] == my_full_row) {
+          my_grid_hash -= my_row_hashes[row] * Zobrist.rowWeight(row);
+        } else {
+          if (kept != row) {
+            my_grid_hash += my_row_hashes[row] *
+                            (Zobrist.rowWeight(kept) - Zobrist.rowWeight(row));
+            my_rows[kept] = my_rows[row];
+            my_row_hashes[kept] = my_row_hashes[row];
+            System.arraycopy(my_cells, row * my_width, my_cells, kept * my_width, my_width);
+          }
+          kept++;
         }
       }
-      if (clear) {
-        my_blocks.remove(i);
+      Arrays.fill(my_rows, kept, my_stack_height, 0L);
+      Arrays.fill(my_row_hashes, kept, my_stack_height, 0L);
+      Arrays.fill(my_cells, kept * my_width, my_stack_height * my_width,
+                  (byte) Block.EMPTY.ordinal());
+      my_stack_height = kept;
+      my_skyline.rescan(rescan, my_rows, my_stack_height);
+      for (int line = 0; line < cleared; line++) {
         my_holder.updateLineCount();
-        setChanged();
-        notifyObservers(my_holder);
       }
+      if (my_metrics != null) {
+        my_metrics.linesCleared(cleared);
+      }
+      fire(BoardEvent.LINES_CLEARED | BoardEvent.STATS_CHANGED);
     }
+    stopTimer(EngineMetrics.CLEAR_LINES, start);
   }
 
   /**
@@ -498,26 +953,15 @@ public class Board extends Observable {
    */
   private String getRowString(final int the_row) {
     final StringBuilder sb = new StringBuilder();
-
-    if (my_blocks.size() - 1 < the_row) {
-      for (int col = 0; col < my_width; col++) {
-        if (currentPieceAt(col, the_row)) {
-          sb.append(CURRENT_PIECE);
-        } else {
-          sb.append(EMPTY);
-        }
-      }
-    } else {
-      final Block[] row_blocks = my_blocks.get(the_row);
-
-      for (int i = 0; i < my_width; i++) {
-        if (currentPieceAt(i, the_row)) {
-          sb.append(CURRENT_PIECE);
-        } else if (row_blocks[i] == Block.EMPTY) {
-          sb.append(EMPTY);
-        } else {
-          sb.append(FROZEN);
-        }
+    final long row_mask = the_row < my_rows.length ? my_rows[the_row] : 0L;
+
+    for (int col = 0; col < my_width; col++) {
+      if (currentPieceAt(col, the_row)) {
+        sb.append(CURRENT_PIECE);
+      } else if ((row_mask >>> col & 1L) == 0) {
+        sb.append(EMPTY);
+      } else {
+        sb.append(FROZEN);
       }
     }
     return sb.toString();
@@ -528,6 +972,16 @@ public class Board extends Observable {
    * @return Returns the next piece that will be used.
    */
   public Piece getNextPiece() {
+    return PieceState.toPiece(my_next_piece);
+  }
+
+  /**
+   * Returns the packed state of the next piece without allocating.
+   * 
+   * @return the packed state of the next piece.
+   * @see PieceState
+   */
+  public int getNextPieceState() {
     return my_next_piece;
   }
   /**
@@ -536,7 +990,95 @@ public class Board extends Observable {
    * @return the currently moving piece.
    */
   public Piece getCurrentPiece() {
-    return ((AbstractPiece) my_current_piece).clone();
+    return PieceState.toPiece(my_current_piece);
+  }
+
+  /**
+   * Returns the packed state of the current piece without allocating.
+   * 
+   * @return the packed state of the currently moving piece.
+   * @see PieceState
+   */
+  public int getCurrentPieceState() {
+    return my_current_piece;
+  }
+  /**
+   * Returns the packed state of the piece most recently frozen, as it was when
+   * it froze, so that a view can draw just its blocks. Before the first freeze
+   * of a game this is the state of the first piece.
+   * 
+   * @return the packed state of the last frozen piece.
+   * @see PieceState
+   */
+  public int getLockedPieceState() {
+    return my_locked_piece;
+  }
+
+  /**
+   * Returns the rows cleared by the most recent freeze, relative to the piece it
+   * froze: bit i is set when row getY(getLockedPieceState()) + i was cleared.
+   * 
+   * @return the mask of the cleared rows, 0 if none were
+   */
+  int getClearedRows() {
+    return my_cleared_rows;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getHash() {
+    return my_grid_hash ^ Zobrist.currentPieceKey(my_current_piece) ^
+           Zobrist.nextPieceKey(my_next_piece);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLockCount() {
+    return my_lock_count;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getScore() {
+    return my_holder.getScore();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLevel() {
+    return my_holder.getLevel();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLineCount() {
+    return my_holder.getLineCount();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getTotalLines() {
+    return my_holder.getTotalLines();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isRunning() {
+    return my_holder.isGameOver(); // the holder reports true while the game goes on
   }
   /**
    * Returns a copy of the frozen pieces on the current board.
@@ -544,52 +1086,255 @@ public class Board extends Observable {
    * @return Returns a list of frozen pieces.
    */
   public List<Block[]> getBlocks() {
-    final List<Block[]> temp_list = new LinkedList<Block[]>();
-    for (Block[] block : my_blocks) {
-      temp_list.add(block.clone());
+    final List<Block[]> temp_list = new ArrayList<Block[]>(my_stack_height);
+    for (int row = 0; row < my_stack_height; row++) {
+      final Block[] blocks = new Block[my_width];
+      for (int col = 0; col < my_width; col++) {
+        blocks[col] = BLOCK_TYPES[my_cells[row * my_width + col]];
+      }
+      temp_list.add(blocks);
     }
     return temp_list;
   }
   /**
-   * Drops instantly drops a piece straight down on the board. Part of this code was
-   * copied from the frozen method and blockAt methods above.
+   * Drops instantly drops a piece straight down on the board, where it is frozen.
+   * The fall itself reports no change of its own; the freeze reports everything
+   * in one dispatch.
    */
   public void drop() {
-    final int[][] blocks = my_current_piece.getBoardCoordinates();
-    boolean can_pass = true;
-    while (can_pass) {
-      final Piece temp = my_current_piece;
-    // perform bounds checking on each block
-      for (int i = 0; i < blocks.length; i++) {
-      // Is this block at the bottom, or is there a piece below it?
-        if (blocks[i][1] == 0 || // block is at the bottom
-            blockAt(blocks[i][0], blocks[i][1] - 1) != Block.EMPTY) { // block below
-                                                                    // is occupied
-          can_pass = false;
-          break; // can't move, no need to keep checking
+    final long start = startTimer();
+    my_current_piece = PieceState.translate(my_current_piece, 0,
+                                            landingRow() - PieceState.getY(my_current_piece));
+    freeze();
+    stopTimer(EngineMetrics.DROP, start);
+  }
+  /**
+   * @return the source of the pieces.
+   */
+  PieceGenerator getGenerator() {
+    return my_generator;
+  }
+
+  /**
+   * Returns the largest number of bytes writeState writes for a board of the
+   * given size whose game is still going.
+   * 
+   * @param the_width the width of the board
+   * @param the_height the height of the board
+   * @return the number of bytes
+   */
+  static int getStateSize(final int the_width, final int the_height) {
+    final int bits = the_width * (the_height + EXTRA_ROWS) * CELL_BITS;
+    return STATE_FIELDS_SIZE + (bits + Long.SIZE - 1) / Long.SIZE * Long.BYTES;
+  }
+
+  /**
+   * Writes the state of the game: the frozen blocks at CELL_BITS bits each, the
+   * pieces, the statistics and, for a seeded generator, the number of pieces it
+   * has generated. The width, height and generator are not written; the state
+   * is read back into a board set up with the same ones.
+   * 
+   * @param the_buffer the buffer to write to, with at least getStateSize bytes
+   *          remaining while the game is going
+   */
+  void writeState(final ByteBuffer the_buffer) {
+    the_buffer.putShort((short) my_stack_height);
+    the_buffer.putInt(my_current_piece).putInt(my_next_piece).putInt(my_locked_piece);
+    the_buffer.putInt(my_lock_count).putInt(my_holder.getScore());
+    the_buffer.putInt(my_holder.getLevel()).putInt(my_holder.getLineCount());
+    the_buffer.putInt(my_holder.getTotalLines());
+    the_buffer.put((byte) (my_holder.isGameOver() ? 1 : 0));
+    the_buffer.putLong(my_generator instanceof AbstractPieceGenerator
+        ? ((AbstractPieceGenerator) my_generator).getIndex() : -1L);
+    long word = 0L;
+    int bits = 0;
+    for (int i = 0; i < my_stack_height * my_width; i++) {
+      final long cell = my_cells[i];
+      word |= cell << bits;
+      bits += CELL_BITS;
+      if (bits >= Long.SIZE) {
+        the_buffer.putLong(word);
+        bits -= Long.SIZE;
+        word = cell >>> CELL_BITS - bits; // the high bits that did not fit
+      }
+    }
+    if (bits > 0) {
+      the_buffer.putLong(word);
+    }
+  }
+
+  /**
+   * Replaces the game with a state written by writeState from a board of the
+   * same size and generator, and reports a new game to the listeners. The stack
+   * height and pieces are checked before the board changes, since a corrupt
+   * state would only fail later, in the middle of a move.
+   * 
+   * @param the_buffer the buffer to read from
+   * @throws IllegalArgumentException if the stack height is out of range or a
+   *           piece is not a piece of this board
+   */
+  void readState(final ByteBuffer the_buffer) throws IllegalArgumentException {
+    final int stack_height = the_buffer.getShort();
+    final int current_piece = the_buffer.getInt();
+    final int next_piece = the_buffer.getInt();
+    final int locked_piece = the_buffer.getInt();
+    if (stack_height < 0 || stack_height > my_height + EXTRA_ROWS) {
+      throw new IllegalArgumentException("stack height: " + stack_height);
+    }
+    checkPiece(current_piece, my_width, my_height);
+    checkPiece(next_piece, my_width, my_height);
+    checkPiece(locked_piece, my_width, my_height);
+    my_current_piece = current_piece;
+    my_next_piece = next_piece;
+    my_locked_piece = locked_piece;
+    my_lock_count = the_buffer.getInt();
+    my_cleared_rows = 0;
+    final int score = the_buffer.getInt();
+    final int level = the_buffer.getInt();
+    final int line_count = the_buffer.getInt();
+    final int total_lines = the_buffer.getInt();
+    final boolean running = the_buffer.get() != 0;
+    final long generated = the_buffer.getLong();
+    if (generated >= 0 && my_generator instanceof AbstractPieceGenerator) {
+      ((AbstractPieceGenerator) my_generator).seek(generated);
+    }
+    my_holder = new GameInformationHolder(my_next_piece);
+    my_holder.restore(score, level, line_count, total_lines, running);
+
+    if (stack_height > my_rows.length) {
+      growRows(stack_height);
+    }
+    Arrays.fill(my_rows, 0L);
+    Arrays.fill(my_row_hashes, 0L);
+    my_grid_hash = 0L;
+    long word = 0L;
+    int bits = 0;
+    for (int y = 0; y < stack_height; y++) {
+      for (int x = 0; x < my_width; x++) {
+        if (bits == 0) {
+          word = the_buffer.getLong();
+          bits = Long.SIZE;
+        }
+        int cell = (int) word & CELL_MASK;
+        if (bits < CELL_BITS) { // the rest of the cell is in the next word
+          word = the_buffer.getLong();
+          cell = (cell | (int) word << bits) & CELL_MASK;
+          word >>>= CELL_BITS - bits;
+          bits += Long.SIZE - CELL_BITS;
+        } else {
+          word >>>= CELL_BITS;
+          bits -= CELL_BITS;
         }
-        moveDown();
-        if (!my_current_piece.equals(temp)) {
-          can_pass = false;
-          break;
+        my_cells[y * my_width + x] = (byte) cell;
+        if (cell != Block.EMPTY.ordinal()) {
+          my_rows[y] |= 1L << x;
+          my_row_hashes[y] ^= Zobrist.cellKey(cell, x);
         }
-      } 
+      }
+      my_grid_hash += my_row_hashes[y] * Zobrist.rowWeight(y);
+    }
+    Arrays.fill(my_cells, stack_height * my_width, my_cells.length,
+                (byte) Block.EMPTY.ordinal());
+    my_stack_height = stack_height;
+    my_skyline.reset(my_width);
+    my_skyline.rescan(my_full_row, my_rows, my_stack_height);
+    markDirty(0, Integer.MAX_VALUE);
+    fire(NEW_GAME);
+  }
+
+  /**
+   * Checks that a packed state, such as one read from a file or the network, is
+   * a piece of a board of the given size: a piece type with one of its
+   * rotations, all of whose blocks are inside the board or the rows above it.
+   * 
+   * @param the_state the packed state
+   * @param the_width the width of the board
+   * @param the_height the height of the board
+   * @throws IllegalArgumentException if it is not
+   */
+  static void checkPiece(final int the_state, final int the_width, final int the_height)
+    throws IllegalArgumentException {
+    final PieceShape shape = PieceShape.forBlock(PieceState.getBlock(the_state));
+    final int rotation = PieceState.getRotation(the_state);
+    if (rotation >= shape.getRotationCount()) {
+      throw new IllegalArgumentException("piece state: " + the_state);
+    }
+    for (int i = 0; i < PieceShape.BLOCKS; i++) {
+      final int x = PieceState.getX(the_state) + shape.getCellX(rotation, i);
+      final int y = PieceState.getY(the_state) + shape.getCellY(rotation, i);
+      if (x < 0 || x >= the_width || y < 0 || y >= the_height + EXTRA_ROWS) {
+        throw new IllegalArgumentException("piece state: " + the_state);
+      }
     }
   }
+
+  /**
+   * Moves the current piece down by up to the given number of rows in a single
+   * operation, stopping where it lands; this is how gravity of more than one row
+   * per frame is applied. As with moveDown, a piece that cannot move down at all
+   * is frozen instead.
+   * 
+   * @param the_rows the largest number of rows to move
+   * @return the number of rows moved, 0 if the piece was frozen or the_rows is not
+   *         positive
+   */
+  public int fall(final int the_rows) {
+    final long start = startTimer();
+    int result = 0;
+    if (the_rows > 0) {
+      final int y = PieceState.getY(my_current_piece);
+      result = y - Math.max(landingRow(), y - the_rows);
+      if (result > 0) {
+        my_current_piece = PieceState.translate(my_current_piece, 0, -result);
+        fire(BoardEvent.PIECE_MOVED);
+      } else {
+        freeze();
+      }
+    }
+    stopTimer(EngineMetrics.STEP, start);
+    return result;
+  }
+  /**
+   * Returns the lowest row the current piece can fall to. When the piece is above
+   * the top of every column it covers, the row is read from the skyline;
+   * otherwise, as under an overhang, it is found by testing each row below.
+   * 
+   * @return the y-coordinate of the piece once it has landed
+   */
+  private int landingRow() {
+    final PieceShape shape = PieceState.getShape(my_current_piece);
+    final int rotation = PieceState.getRotation(my_current_piece);
+    final int x = PieceState.getX(my_current_piece);
+    final int y = PieceState.getY(my_current_piece);
+    boolean above = x >= 0 && x + shape.getWidth(rotation) <= my_width;
+    int landing = 0;
+
+    for (int column = 0; above && column < shape.getWidth(rotation); column++) {
+      final int bottom = shape.getBottom(rotation, column);
+      final int height = my_skyline.getColumnHeight(x + column);
+      above = y + bottom >= height;
+      landing = Math.max(landing, height - bottom);
+    }
+    if (!above) {
+      landing = y;
+      while (fits(PieceState.translate(my_current_piece, 0, landing - 1 - y))) {
+        landing--;
+      }
+    }
+    return landing;
+  }
   /**
    * Increments the level by 1.
    */
   public void levelUp() {
     my_holder.levelUp();
+    fire(BoardEvent.STATS_CHANGED);
   }
   /**
    * This method resets all data fields so that the board is fresh for a new game.
    */
   public void newGame() {
-    if (my_pieces.isEmpty()) {
-      setupGame(my_width, my_height, null);
-    } else {
-      setupGame(my_width, my_height, my_pieces);
-    }
+    // the generator carries on, so a seeded board plays a new stretch of its sequence
+    setupGame(my_width, my_height, my_generator);
   }
 }
@@ -0,0 +1,42 @@
+/*
+ * TCSS305 Spring 2012
+ */
+
+package controller;
+
+/**
+ * The kinds of change a board reports to its listeners. Each kind is one bit, so
+ * a subscription and a dispatch both carry a set of kinds as an int mask and
+ * several changes made in one update are reported together without allocating.
+ * 
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class BoardEvent {
+
+  /** The current piece moved or rotated, or a new current piece appeared. */
+  public static final int PIECE_MOVED = 1;
+
+  /** The current piece froze into the stack and the next piece changed. */
+  public static final int PIECE_LOCKED = 1 << 1;
+
+  /** One or more full rows were removed from the stack. */
+  public static final int LINES_CLEARED = 1 << 2;
+
+  /** The score, level or line count changed. */
+  public static final int STATS_CHANGED = 1 << 3;
+
+  /** The game ended. */
+  public static final int GAME_OVER = 1 << 4;
+
+  /** Every kind of change. */
+  public static final int ALL =
+      PIECE_MOVED | PIECE_LOCKED | LINES_CLEARED | STATS_CHANGED | GAME_OVER;
+
+  /**
+   * Prevents instantiation of this constant holder.
+   */
+  private BoardEvent() {
+    // nothing to do
+  }
+}
@@ -0,0 +1,27 @@
+/*
+ * TCSS305 Spring 2012
+ */
+
+package controller;
+
+/**
+ * Receives the changes of a board it subscribed to. The board passed in is the
+ * board itself when the listener subscribed directly, or a snapshot of it when
+ * the changes are relayed to another thread.
+ * 
+ * @author Alan Fowler
+ * @version Spring 2012
+ * @see Board#addBoardListener(BoardListener, int)
+ */
+public interface BoardListener {
+
+  /**
+   * Called once per board update that made a change of a kind this listener
+   * subscribed to, on the thread that updated the board.
+   * 
+   * @param the_board the state of the board that changed
+   * @param the_events the kinds of change, as a mask of BoardEvent bits; only
+   *   kinds the listener subscribed to are included
+   */
+  void boardChanged(ReadableBoard the_board, int the_events);
+}
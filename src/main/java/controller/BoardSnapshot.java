@@ -0,0 +1,264 @@
+/*
+ * TCSS305 Spring 2012
+ */
+
+package controller;
+
+import model.Block;
+
+/**
+ * An immutable copy of a board at one moment, safe to read from any thread. The
+ * rows are held in chunks of CHUNK_ROWS rows, and a new snapshot shares every
+ * chunk that did not change since the previous one, so publishing after a move
+ * or a lock copies a few rows at most.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ * @see Board#getSnapshot()
+ */
+public final class BoardSnapshot implements ReadableBoard {
+
+  /** The number of rows in a chunk, the unit in which rows are shared. */
+  static final int CHUNK_ROWS = 8;
+
+  /** The block types, indexed by the ordinals stored in the color plane. */
+  private static final Block[] BLOCK_TYPES = Block.values();
+
+  /** The number of this snapshot; later snapshots of a board have larger numbers. */
+  private final long my_version;
+
+  /** The width of the board. */
+  private final int my_width;
+
+  /** The height of the board. */
+  private final int my_height;
+
+  /** The number of rows up to and including the highest frozen block. */
+  private final int my_stack_height;
+
+  /** The occupancy masks of the rows, by chunk. */
+  private final long[][] my_row_chunks;
+
+  /** The block ordinals of the positions, by chunk and then row by row. */
+  private final byte[][] my_cell_chunks;
+
+  /** The packed state of the current piece. */
+  private final int my_current_piece;
+
+  /** The packed state of the next piece. */
+  private final int my_next_piece;
+
+  /** The packed state of the piece most recently frozen. */
+  private final int my_locked_piece;
+
+  /** The Zobrist hash of the position. */
+  private final long my_hash;
+
+  /** The number of pieces frozen in the game. */
+  private final int my_lock_count;
+
+  /** The score. */
+  private final int my_score;
+
+  /** The level. */
+  private final int my_level;
+
+  /** The number of lines cleared towards the next level. */
+  private final int my_line_count;
+
+  /** The number of lines cleared. */
+  private final int my_total_lines;
+
+  /** Whether the game is still going. */
+  private final boolean my_running;
+
+  /**
+   * Creates a snapshot of a board, sharing the chunks of the previous snapshot
+   * that hold none of the changed rows.
+   *
+   * @param the_board the board
+   * @param the_previous the previous snapshot of the board, or null
+   * @param the_rows the occupancy masks of the board's rows
+   * @param the_cells the block ordinals of the board's positions
+   * @param the_dirty_from the lowest row changed since the previous snapshot
+   * @param the_dirty_to one past the highest row changed since the previous snapshot
+   */
+  BoardSnapshot(final Board the_board, final BoardSnapshot the_previous,
+                final long[] the_rows, final byte[] the_cells,
+                final int the_dirty_from, final int the_dirty_to) {
+    my_version = the_previous == null ? 1 : the_previous.my_version + 1;
+    my_width = the_board.getWidth();
+    my_height = the_board.getHeight();
+    my_stack_height = the_board.getStackHeight();
+    my_current_piece = the_board.getCurrentPieceState();
+    my_next_piece = the_board.getNextPieceState();
+    my_locked_piece = the_board.getLockedPieceState();
+    my_hash = the_board.getHash();
+    my_lock_count = the_board.getLockCount();
+    my_score = the_board.getScore();
+    my_level = the_board.getLevel();
+    my_line_count = the_board.getLineCount();
+    my_total_lines = the_board.getTotalLines();
+    my_running = the_board.isRunning();
+
+    final int chunks = (my_stack_height + CHUNK_ROWS - 1) / CHUNK_ROWS;
+    final boolean shared = the_previous != null && the_previous.my_width == my_width;
+    my_row_chunks = new long[chunks][];
+    my_cell_chunks = new byte[chunks][];
+    for (int chunk = 0; chunk < chunks; chunk++) {
+      final int from = chunk * CHUNK_ROWS;
+      if (shared && chunk < the_previous.my_row_chunks.length &&
+          (from + CHUNK_ROWS <= the_dirty_from || from >= the_dirty_to)) {
+        my_row_chunks[chunk] = the_previous.my_row_chunks[chunk];
+        my_cell_chunks[chunk] = the_previous.my_cell_chunks[chunk];
+      } else {
+        final int rows = Math.min(CHUNK_ROWS, the_rows.length - from);
+        my_row_chunks[chunk] = new long[CHUNK_ROWS];
+        my_cell_chunks[chunk] = new byte[CHUNK_ROWS * my_width];
+        System.arraycopy(the_rows, from, my_row_chunks[chunk], 0, rows);
+        System.arraycopy(the_cells, from * my_width, my_cell_chunks[chunk], 0,
+                         rows * my_width);
+      }
+    }
+  }
+
+  /**
+   * @return the number of this snapshot; later snapshots of a board have larger
+   *         numbers
+   */
+  public long getVersion() {
+    return my_version;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getWidth() {
+    return my_width;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getHeight() {
+    return my_height;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getStackHeight() {
+    return my_stack_height;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getRowMask(final int the_y) {
+    long result = 0L;
+    if (the_y >= 0 && the_y < my_stack_height) {
+      result = my_row_chunks[the_y / CHUNK_ROWS][the_y % CHUNK_ROWS];
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Block getBlockAt(final int the_x, final int the_y) throws IllegalArgumentException {
+    if (the_x >= my_width || the_x < 0 || the_y < 0) { // outside the board
+      throw new IllegalArgumentException("x: " + the_x + " y: " + the_y);
+    }
+    Block result = Block.EMPTY; // blocks above the stack are empty
+    if (the_y < my_stack_height) {
+      result = BLOCK_TYPES[my_cell_chunks[the_y / CHUNK_ROWS]
+                                         [the_y % CHUNK_ROWS * my_width + the_x]];
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getCurrentPieceState() {
+    return my_current_piece;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getNextPieceState() {
+    return my_next_piece;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLockedPieceState() {
+    return my_locked_piece;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getHash() {
+    return my_hash;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLockCount() {
+    return my_lock_count;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getScore() {
+    return my_score;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLevel() {
+    return my_level;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLineCount() {
+    return my_line_count;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getTotalLines() {
+    return my_total_lines;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isRunning() {
+    return my_running;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * TCSS305 Spring 2012
+ */
+
+package controller;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the changes of a board as a stream of compact frames for spectators:
+ * a delta for each dispatch of the board, which a game loop makes once a tick,
+ * and every so often a keyframe holding the whole game, from which a spectator
+ * joining late starts. SpectatorBoard decodes the stream.
+ *
+ * A frame starts with a header: its type, its sequence number and the length of
+ * its payload. The payload of a keyframe is the game saved by SaveGame. The
+ * payload of a delta is the mask of BoardEvent kinds it reports followed by
+ * the data of each kind present, in this order: for PIECE_LOCKED, the packed
+ * state of the piece as it froze (which gives its blocks), the packed state of
+ * the new next piece and a byte whose bit i is set when row i of the frozen
+ * piece was cleared; for PIECE_MOVED, the packed state of the current piece;
+ * for STATS_CHANGED, the score, level, line count and total lines. GAME_OVER
+ * carries no data. A delta takes at most MAX_DELTA_SIZE bytes, most of them
+ * only 12.
+ *
+ * A change that a delta cannot express, such as a new game or two pieces
+ * freezing in one dispatch, is sent as a keyframe instead. An encoder is used by
+ * the thread that updates the board, during the dispatch of its changes.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ * @see SpectatorBoard
+ */
+public final class DeltaEncoder {
+
+  /** The size of the header of a frame: its type, sequence number and length. */
+  public static final int HEADER_SIZE = 1 + Integer.BYTES + Short.BYTES;
+
+  /** The type of a keyframe. */
+  public static final int KEYFRAME = 3;
+
+  /** The type of a delta. */
+  public static final int DELTA = 4;
+
+  /** The largest size of a delta frame, header included. */
+  public static final int MAX_DELTA_SIZE = HEADER_SIZE + 1 + 2 * Integer.BYTES + 1 +
+                                           Integer.BYTES + 4 * Integer.BYTES;
+
+  /** The number of rows above the board a frozen piece can reach. */
+  private static final int ROWS_ABOVE = 4;
+
+  /** The board encoded. */
+  private final Board my_board;
+
+  /** The number of frames between keyframes. */
+  private final int my_interval;
+
+  /** The sequence number of the next frame. */
+  private int my_sequence;
+
+  /** The number of frames since the last keyframe. */
+  private int my_since_keyframe;
+
+  /** Whether the next frame must be a keyframe. */
+  private boolean my_keyframe_due = true;
+
+  /** The board's lock count when the last frame was encoded. */
+  private int my_lock_count;
+
+  /**
+   * Creates an encoder whose first frame is a keyframe.
+   *
+   * @param the_board the board, whose generator must be a UniformPieceGenerator or
+   *          BagPieceGenerator
+   * @param the_interval the largest number of frames between keyframes, at least 1
+   * @throws IllegalArgumentException if the generator cannot be saved or the
+   *           interval is not positive
+   */
+  public DeltaEncoder(final Board the_board, final int the_interval)
+    throws IllegalArgumentException {
+    SaveGame.kindOf(the_board.getGenerator());
+    if (the_interval < 1) {
+      throw new IllegalArgumentException("interval: " + the_interval);
+    }
+    my_board = the_board;
+    my_interval = the_interval;
+  }
+
+  /**
+   * @return the largest size of a frame of the board, header included.
+   */
+  public int getMaxFrameSize() {
+    return HEADER_SIZE +
+           SaveGame.getMaxSize(my_board.getWidth(), my_board.getHeight() + ROWS_ABOVE);
+  }
+
+  /**
+   * Makes the next frame a keyframe, for instance because a frame was lost.
+   */
+  public void requestKeyframe() {
+    my_keyframe_due = true;
+  }
+
+  /**
+   * Encodes the frame of a dispatch of the board: a delta of the changes, or a
+   * keyframe if one is due or the changes need one.
+   *
+   * @param the_events the kinds of change dispatched, as a mask of BoardEvent
+   *          bits; the encoder must see every kind
+   * @param the_buffer the buffer to write to, with at least getMaxFrameSize bytes
+   *          remaining
+   * @return true if the frame is a keyframe
+   */
+  public boolean encode(final int the_events, final ByteBuffer the_buffer) {
+    final int locks = my_board.getLockCount() - my_lock_count;
+    my_lock_count = my_board.getLockCount();
+    // a new or restored game reports a lock and a clear with no rows cleared
+    final boolean result = my_keyframe_due || my_since_keyframe + 1 >= my_interval ||
+        (the_events & BoardEvent.PIECE_LOCKED) != 0 &&
+        (locks != 1 || (the_events & BoardEvent.LINES_CLEARED) != 0 &&
+                       my_board.getClearedRows() == 0);
+    final int start = the_buffer.position();
+    the_buffer.put((byte) (result ? KEYFRAME : DELTA)).putInt(my_sequence++);
+    the_buffer.putShort((short) 0);
+    if (result) {
+      SaveGame.write(my_board, the_buffer);
+      my_keyframe_due = false;
+      my_since_keyframe = 0;
+    } else {
+      the_buffer.put((byte) the_events);
+      if ((the_events & BoardEvent.PIECE_LOCKED) != 0) {
+        the_buffer.putInt(my_board.getLockedPieceState());
+        the_buffer.putInt(my_board.getNextPieceState());
+        the_buffer.put((byte) my_board.getClearedRows());
+      }
+      if ((the_events & BoardEvent.PIECE_MOVED) != 0) {
+        the_buffer.putInt(my_board.getCurrentPieceState());
+      }
+      if ((the_events & BoardEvent.STATS_CHANGED) != 0) {
+        the_buffer.putInt(my_board.getScore()).putInt(my_board.getLevel());
+        the_buffer.putInt(my_board.getLineCount()).putInt(my_board.getTotalLines());
+      }
+      my_since_keyframe++;
+    }
+    the_buffer.putShort(start + 1 + Integer.BYTES,
+                        (short) (the_buffer.position() - start - HEADER_SIZE));
+    return result;
+  }
+}
@@ -0,0 +1,616 @@
+/*
+ * TCSS305 Spring 2012
+ */
+
+package controller;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import model.PieceState;
+
+/**
+ * Plays a board on a dedicated thread at a fixed timestep. Frames are scheduled
+ * from System.nanoTime rather than from the time the previous frame ended, so a
+ * late frame does not delay the ones after it; when the thread falls behind it
+ * runs the missed frames back to back, up to MAX_CATCH_UP, and then gives up on
+ * the rest. The frames run in one loop iteration are reported to the board's
+ * listeners as a single update.
+ *
+ * Each frame applies gravity and the auto-repeat of held keys. Gravity is a
+ * speed in cells per frame, kept in fixed point so that it can be a fraction of
+ * a cell; whole cells accumulated in a frame are applied as one fall of several
+ * rows, so even 20G, which lands a piece in the frame after it appears, costs a
+ * single board operation per frame. Key presses and
+ * releases are offered to an input queue by the thread that receives them; the
+ * loop wakes up as soon as one arrives and applies it at once, so input does not
+ * wait for the next frame. A held key acts once, then again after the delayed
+ * auto-shift (DAS) and then at the auto-repeat rate (ARR); an ARR of 0 moves as
+ * far as the piece can go.
+ *
+ * Other threads that change the board must hold its monitor, as the loop does.
+ * The loop records the lateness of every frame, the time from a key event to its
+ * action on the board, and, when told about painted frames, the time from a key
+ * event to the first frame painted after it.
+ *
+ * The loop counts its frames as ticks. While a recording is on, every operation
+ * it applies to the board is recorded with its tick, so that Replay can play
+ * the game back exactly; new games must then be started through the loop.
+ *
+ * Usage: GameLoop [gravity ms] [seconds] measures the jitter and input latency of
+ * a headless game with a key pressed every few frames.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class GameLoop implements Runnable {
+
+  /** The largest number of missed frames run back to back. */
+  public static final int MAX_CATCH_UP = 5;
+
+  /** A gravity of twenty cells per frame, enough to land a piece at once. */
+  public static final double TWENTY_G = 20;
+
+  /** The number of fraction bits of the fixed-point gravity. */
+  private static final int FRACTION_BITS = 16;
+
+  /** One cell in fixed point. */
+  private static final long CELL = 1L << FRACTION_BITS;
+
+  /** The largest gravity in cells per frame. */
+  private static final long MAX_CELLS = PieceState.MAX_Y;
+
+  /** The default frame rate. */
+  private static final int FRAMES_PER_SECOND = 60;
+
+  /** The default delay before a held key repeats, in milliseconds. */
+  private static final int DAS_MS = 170;
+
+  /** The default time between repeats of a held key, in milliseconds. */
+  private static final int ARR_MS = 50;
+
+  /** The number of key events the input queue holds. */
+  private static final int QUEUE_CAPACITY = 256;
+
+  /** The number of key events that can wait to be painted, a power of two. */
+  private static final int PENDING_PAINTS = 64;
+
+  /** The default gravity of the measurement run in milliseconds per row. */
+  private static final int GRAVITY_MS = 100;
+
+  /** The default length of the measurement run in seconds. */
+  private static final int SECONDS = 10;
+
+  /** The number of frames between key presses in the measurement run. */
+  private static final int PRESS_FRAMES = 3;
+
+  /** The actions, indexed by ordinal. */
+  private static final Input[] INPUTS = Input.values();
+
+  /** The board being played. */
+  private final Board my_board;
+
+  /** The key events not yet applied. */
+  private final InputQueue my_input = new InputQueue(QUEUE_CAPACITY);
+
+  /** The lateness of each frame, measured from its scheduled time. */
+  private final LatencyHistogram my_jitter = new LatencyHistogram();
+
+  /** The time from each key event to its action on the board. */
+  private final LatencyHistogram my_input_latency = new LatencyHistogram();
+
+  /** The time from each key event to the first frame painted after it. */
+  private final LatencyHistogram my_paint_latency = new LatencyHistogram();
+
+  /** Whether each action's key is held and repeating. */
+  private final boolean[] my_held = new boolean[INPUTS.length];
+
+  /** The time of the next repeat of each held action. */
+  private final long[] my_next_repeat = new long[INPUTS.length];
+
+  /** Guards the key events waiting to be painted. */
+  private final Object my_paint_lock = new Object();
+
+  /** The times of the applied key events not yet painted, oldest first, in a ring. */
+  private final long[] my_unpainted_times = new long[PENDING_PAINTS];
+
+  /** The snapshot version holding each of those key events' actions. */
+  private final long[] my_unpainted_versions = new long[PENDING_PAINTS];
+
+  /** The position of the oldest key event waiting in the ring. */
+  private int my_unpainted_head;
+
+  /** The number of key events waiting in the ring. */
+  private int my_unpainted_count;
+
+  /** The time between frames in nanoseconds. */
+  private final long my_frame;
+
+  /** The gravity in fixed-point cells per frame. */
+  private volatile long my_gravity;
+
+  /** The fixed-point distance accumulated towards the next row of gravity. */
+  private long my_gravity_cells;
+
+  /** The delay before a held key repeats, in nanoseconds. */
+  private volatile long my_das;
+
+  /** The time between repeats of a held key, in nanoseconds. */
+  private volatile long my_arr;
+
+  /** Whether frames and input are skipped. */
+  private volatile boolean my_paused;
+
+  /** The number of frames run. */
+  private long my_tick;
+
+  /** The recorder of the operations applied, or null; guarded by the board. */
+  private ReplayRecorder my_recorder;
+
+  /** The tick at which the recording started. */
+  private long my_record_origin;
+
+  /** The thread running the loop, or null when it is stopped. */
+  private volatile Thread my_thread;
+
+  /**
+   * Creates a stopped loop running 60 frames per second.
+   *
+   * @param the_board the board to play
+   * @param the_gravity the time between gravity steps
+   * @param the_unit the unit of the_gravity
+   */
+  public GameLoop(final Board the_board, final long the_gravity, final TimeUnit the_unit) {
+    this(the_board, TimeUnit.SECONDS.toNanos(1) / FRAMES_PER_SECOND, the_gravity, the_unit);
+  }
+
+  /**
+   * Creates a stopped loop.
+   *
+   * @param the_board the board to play
+   * @param the_frame the time between frames in nanoseconds
+   * @param the_gravity the time between gravity steps
+   * @param the_unit the unit of the_gravity
+   */
+  public GameLoop(final Board the_board, final long the_frame, final long the_gravity,
+                  final TimeUnit the_unit) {
+    my_board = the_board;
+    my_frame = Math.max(1L, the_frame);
+    setGravity(the_gravity, the_unit);
+    setAutoShift(DAS_MS, ARR_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Changes the gravity to one row per the given time, rounded to the nearest
+   * 1/65536 of a cell per frame.
+   *
+   * @param the_gravity the time between rows, at least one nanosecond
+   * @param the_unit the unit of the_gravity
+   */
+  public void setGravity(final long the_gravity, final TimeUnit the_unit) {
+    final double rows = (double) my_frame / Math.max(1L, the_unit.toNanos(the_gravity));
+    setGravity(rows);
+  }
+
+  /**
+   * Changes the gravity, such as 1/60 for a row a second at 60 frames per second,
+   * or TWENTY_G.
+   *
+   * @param the_cells the distance fallen per frame in cells, not negative
+   */
+  public void setGravity(final double the_cells) {
+    my_gravity = Math.round(Math.min(Math.max(0, the_cells), MAX_CELLS) * CELL);
+  }
+
+  /**
+   * @return the gravity in cells per frame.
+   */
+  public double getGravity() {
+    return (double) my_gravity / CELL;
+  }
+
+  /**
+   * Changes the timing of held keys, starting with the next press.
+   *
+   * @param the_das the delay before a held key repeats
+   * @param the_arr the time between repeats, 0 to move as far as possible
+   * @param the_unit the unit of the_das and the_arr
+   */
+  public void setAutoShift(final long the_das, final long the_arr, final TimeUnit the_unit) {
+    my_das = Math.max(0L, the_unit.toNanos(the_das));
+    my_arr = Math.max(0L, the_unit.toNanos(the_arr));
+  }
+
+  /**
+   * Pauses or resumes the game. A paused loop keeps its schedule but skips the
+   * frames and drops key events, so resuming does not run what was missed.
+   *
+   * @param the_paused true to pause
+   */
+  public void setPaused(final boolean the_paused) {
+    my_paused = the_paused;
+  }
+
+  /**
+   * Reports a key press. Must always be called from the same thread.
+   *
+   * @param the_input the action of the key
+   * @param the_nanos the System.nanoTime at which the key went down
+   * @return false if the input queue was full and the press was dropped
+   */
+  public boolean press(final Input the_input, final long the_nanos) {
+    return offer(the_input, true, the_nanos);
+  }
+
+  /**
+   * Reports a key release. Must be called from the thread that reports presses.
+   *
+   * @param the_input the action of the key
+   * @param the_nanos the System.nanoTime at which the key went up
+   * @return false if the input queue was full and the release was dropped
+   */
+  public boolean release(final Input the_input, final long the_nanos) {
+    return offer(the_input, false, the_nanos);
+  }
+
+  /**
+   * Queues a key event and wakes the loop.
+   *
+   * @param the_input the action of the key
+   * @param the_pressed true for a press
+   * @param the_nanos the time of the event
+   * @return false if the queue was full
+   */
+  private boolean offer(final Input the_input, final boolean the_pressed,
+                        final long the_nanos) {
+    final boolean result = my_input.offer(the_input, the_pressed, the_nanos);
+    final Thread thread = my_thread;
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+    return result;
+  }
+
+  /**
+   * Reports that a snapshot of the board was painted, so that the time from a key
+   * event to the screen can be recorded. May be called from any thread.
+   *
+   * @param the_version the version of the snapshot painted
+   * @param the_nanos the System.nanoTime at which painting ended
+   */
+  public void painted(final long the_version, final long the_nanos) {
+    synchronized (my_paint_lock) {
+      // every key event whose action this snapshot holds is painted for the first time
+      while (my_unpainted_count > 0 &&
+             the_version >= my_unpainted_versions[my_unpainted_head]) {
+        my_paint_latency.record(the_nanos - my_unpainted_times[my_unpainted_head]);
+        my_unpainted_head = (my_unpainted_head + 1) & PENDING_PAINTS - 1;
+        my_unpainted_count--;
+      }
+    }
+  }
+
+  /**
+   * Starts recording the game to a file, replacing any recording in progress.
+   * The recording starts at the board's present position.
+   *
+   * @param the_path the log file of the recording
+   * @param the_interval the number of ticks between keyframes
+   * @throws IOException if the recording cannot be created
+   * @see Replay
+   */
+  public void startRecording(final Path the_path, final int the_interval)
+    throws IOException {
+    synchronized (my_board) {
+      stopRecording();
+      my_recorder = new ReplayRecorder(the_path, my_board, the_interval);
+      my_record_origin = my_tick;
+    }
+  }
+
+  /**
+   * Ends the recording in progress, if any, and closes its files.
+   *
+   * @throws IOException if the recording cannot be written
+   */
+  public void stopRecording() throws IOException {
+    synchronized (my_board) {
+      final ReplayRecorder recorder = my_recorder;
+      my_recorder = null;
+      if (recorder != null) {
+        recorder.close();
+      }
+    }
+  }
+
+  /**
+   * Starts a new game on the board, recording it if a recording is on. May be
+   * called from any thread.
+   */
+  public void newGame() {
+    synchronized (my_board) {
+      my_board.newGame();
+      if (my_recorder != null) {
+        try {
+          my_recorder.newGame(my_tick - my_record_origin);
+        } catch (final IOException e) {
+          abandonRecording(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the lateness of the frames run so far, in nanoseconds.
+   */
+  public LatencyHistogram getJitter() {
+    return my_jitter;
+  }
+
+  /**
+   * @return the time from each key event to its action on the board, in
+   *         nanoseconds.
+   */
+  public LatencyHistogram getInputLatency() {
+    return my_input_latency;
+  }
+
+  /**
+   * @return the time from each key event to the first frame painted after it,
+   *         in nanoseconds.
+   */
+  public LatencyHistogram getPaintLatency() {
+    return my_paint_latency;
+  }
+
+  /**
+   * Starts the loop thread; does nothing if it is running.
+   */
+  public synchronized void start() {
+    if (my_thread == null) {
+      my_thread = new Thread(this, "tetris-game-loop");
+      my_thread.setDaemon(true);
+      my_thread.start();
+    }
+  }
+
+  /**
+   * Stops the loop thread and waits for it to end.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public synchronized void stop() throws InterruptedException {
+    final Thread thread = my_thread;
+    if (thread != null) {
+      my_thread = null;
+      thread.interrupt();
+      thread.join();
+    }
+  }
+
+  /**
+   * Runs the loop until the thread is interrupted.
+   */
+  @Override
+  public void run() {
+    long next = System.nanoTime() + my_frame;
+    while (!Thread.currentThread().isInterrupted()) {
+      final long now = System.nanoTime();
+      final boolean frame_due = now - next >= 0;
+      if (frame_due || !my_input.isEmpty()) {
+        final long earliest_input;
+        synchronized (my_board) {
+          my_board.beginUpdate();
+          try {
+            earliest_input = applyInput(now);
+            if (frame_due) {
+              my_jitter.record(now - next);
+              for (int frames = 0; now - next >= 0 && frames < MAX_CATCH_UP; frames++) {
+                frame(next);
+                next += my_frame;
+              }
+            }
+          } finally {
+            my_board.endUpdate();
+          }
+        }
+        if (earliest_input != Long.MAX_VALUE) {
+          awaitPaint(earliest_input);
+        }
+        if (now - next >= 0) {
+          next = now + my_frame; // too far behind, drop the backlog
+        }
+      } else {
+        LockSupport.parkNanos(this, next - now);
+      }
+    }
+  }
+
+  /**
+   * Applies the queued key events.
+   *
+   * @param the_now the current time
+   * @return the time of the earliest event that acted on the board, or
+   *         Long.MAX_VALUE if none did
+   */
+  private long applyInput(final long the_now) {
+    long result = Long.MAX_VALUE;
+    while (my_input.poll()) {
+      final Input input = my_input.getInput();
+      final int index = input.ordinal();
+      if (!my_input.isPressed()) {
+        my_held[index] = false;
+      } else if (!my_paused && my_board.isRunning()) {
+        if (input == Input.LEFT || input == Input.RIGHT) {
+          // the latest direction pressed wins
+          my_held[Input.LEFT.ordinal()] = false;
+          my_held[Input.RIGHT.ordinal()] = false;
+        }
+        my_held[index] = input.isRepeatable();
+        my_next_repeat[index] = my_input.getTime() + my_das;
+        apply(input);
+        my_input_latency.record(the_now - my_input.getTime());
+        result = Math.min(result, my_input.getTime());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Advances the game by one frame.
+   *
+   * @param the_time the scheduled time of the frame
+   */
+  private void frame(final long the_time) {
+    my_tick++;
+    if (my_recorder != null) {
+      try {
+        my_recorder.tick(my_tick - my_record_origin);
+      } catch (final IOException e) {
+        abandonRecording(e);
+      }
+    }
+    if (my_paused || !my_board.isRunning()) {
+      my_gravity_cells = 0;
+      for (int i = 0; i < my_held.length; i++) {
+        my_held[i] = false;
+      }
+    } else {
+      autoRepeat(the_time);
+      my_gravity_cells += my_gravity;
+      if (my_gravity_cells >= CELL) {
+        final int rows = (int) (my_gravity_cells >> FRACTION_BITS);
+        my_gravity_cells &= CELL - 1;
+        my_board.fall(rows);
+        if (my_recorder != null) {
+          try {
+            my_recorder.fall(my_tick - my_record_origin, rows);
+          } catch (final IOException e) {
+            abandonRecording(e);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies an input to the board, recording it if a recording is on.
+   *
+   * @param the_input the input
+   * @return true if the board changed
+   */
+  private boolean apply(final Input the_input) {
+    final boolean result = the_input.apply(my_board);
+    if (my_recorder != null) {
+      try {
+        my_recorder.input(my_tick - my_record_origin, the_input);
+      } catch (final IOException e) {
+        abandonRecording(e);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Stops a recording that could not be written, so that the game goes on.
+   *
+   * @param the_cause the failure
+   */
+  private void abandonRecording(final IOException the_cause) {
+    final ReplayRecorder recorder = my_recorder;
+    my_recorder = null;
+    try {
+      recorder.close();
+    } catch (final IOException e) {
+      the_cause.addSuppressed(e);
+    }
+    the_cause.printStackTrace();
+  }
+
+  /**
+   * Repeats the actions of held keys that are due.
+   *
+   * @param the_time the current time
+   */
+  private void autoRepeat(final long the_time) {
+    for (int i = 0; i < my_held.length; i++) {
+      if (my_held[i]) {
+        if (my_arr == 0) {
+          if (the_time - my_next_repeat[i] >= 0) {
+            while (my_board.isRunning() && apply(INPUTS[i])) {
+              // move as far as the piece can go
+            }
+          }
+        } else {
+          while (my_held[i] && the_time - my_next_repeat[i] >= 0) {
+            my_next_repeat[i] += my_arr;
+            if (!my_board.isRunning() || !apply(INPUTS[i])) {
+              my_next_repeat[i] = the_time + my_arr; // blocked, try again later
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Remembers an applied key event until a snapshot holding its action is painted.
+   * When more events wait than the ring holds, as when nothing paints, the oldest
+   * is forgotten.
+   *
+   * @param the_time the time of the key event
+   */
+  private void awaitPaint(final long the_time) {
+    final BoardSnapshot snapshot = my_board.getSnapshot();
+    if (snapshot != null) {
+      synchronized (my_paint_lock) {
+        final int last = (my_unpainted_head + my_unpainted_count - 1) & PENDING_PAINTS - 1;
+        // an event whose action made no new snapshot waits with the one before it
+        if (my_unpainted_count == 0 ||
+            my_unpainted_versions[last] != snapshot.getVersion()) {
+          if (my_unpainted_count == PENDING_PAINTS) {
+            my_unpainted_head = (my_unpainted_head + 1) & PENDING_PAINTS - 1;
+            my_unpainted_count--;
+          }
+          final int slot = (my_unpainted_head + my_unpainted_count) & PENDING_PAINTS - 1;
+          my_unpainted_times[slot] = the_time;
+          my_unpainted_versions[slot] = snapshot.getVersion();
+          my_unpainted_count++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Plays a headless game, restarting it whenever it ends, pressing a key every
+   * few frames, and prints the frame jitter and the input latency.
+   *
+   * @param the_args the optional gravity in milliseconds and length in seconds.
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public static void main(final String[] the_args) throws InterruptedException {
+    final int gravity = the_args.length > 0 ? Integer.parseInt(the_args[0]) : GRAVITY_MS;
+    final int seconds = the_args.length > 1 ? Integer.parseInt(the_args[1]) : SECONDS;
+    final Board board = new Board();
+    final GameLoop loop = new GameLoop(board, gravity, TimeUnit.MILLISECONDS);
+    final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+    loop.start();
+    for (int press = 0; System.nanoTime() - end < 0; press++) {
+      Thread.sleep(PRESS_FRAMES * TimeUnit.NANOSECONDS.toMillis(loop.my_frame));
+      final Input input = INPUTS[press % (INPUTS.length - 1)]; // no hard drops
+      loop.press(input, System.nanoTime());
+      loop.release(input, System.nanoTime());
+      synchronized (board) {
+        if (!board.isRunning()) {
+          board.newGame();
+        }
+      }
+    }
+    loop.stop();
+    System.out.printf("gravity %d ms, %d s%nframe jitter  %s%ninput latency %s%n", gravity,
+                      seconds, loop.getJitter(), loop.getInputLatency());
+  }
+}
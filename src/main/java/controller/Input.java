@@ -0,0 +1,81 @@
+/*
+ * TCSS305 Spring 2012
+ */
+
+package controller;
+
+/**
+ * The actions a player can take on a board.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public enum Input {
+  /** Moves the current piece one column left; repeats while held. */
+  LEFT(true) {
+    @Override
+    public boolean apply(final Board the_board) {
+      return the_board.moveLeft();
+    }
+  },
+
+  /** Moves the current piece one column right; repeats while held. */
+  RIGHT(true) {
+    @Override
+    public boolean apply(final Board the_board) {
+      return the_board.moveRight();
+    }
+  },
+
+  /** Rotates the current piece. */
+  ROTATE(false) {
+    @Override
+    public boolean apply(final Board the_board) {
+      return the_board.rotate();
+    }
+  },
+
+  /** Moves the current piece one row down; repeats while held. */
+  SOFT_DROP(true) {
+    @Override
+    public boolean apply(final Board the_board) {
+      return the_board.moveDown();
+    }
+  },
+
+  /** Drops the current piece to the bottom and freezes it. */
+  HARD_DROP(false) {
+    @Override
+    public boolean apply(final Board the_board) {
+      the_board.drop();
+      return true;
+    }
+  };
+
+  /** Whether the action repeats while its key is held. */
+  private final boolean my_repeatable;
+
+  /**
+   * Creates an action.
+   *
+   * @param the_repeatable whether the action repeats while its key is held
+   */
+  Input(final boolean the_repeatable) {
+    my_repeatable = the_repeatable;
+  }
+
+  /**
+   * @return whether the action repeats while its key is held.
+   */
+  public boolean isRepeatable() {
+    return my_repeatable;
+  }
+
+  /**
+   * Applies the action to a board.
+   *
+   * @param the_board the board
+   * @return true if the board changed
+   */
+  public abstract boolean apply(Board the_board);
+}
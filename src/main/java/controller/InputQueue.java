@@ -0,0 +1,126 @@
+/*
+ * TCSS305 Spring 2012
+ */
+
+package controller;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue of timestamped key presses and releases, for exactly one thread
+ * that offers and one thread that polls, such as the Swing event thread and the
+ * game loop. Events are stored in preallocated arrays, so neither side allocates
+ * or locks.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class InputQueue {
+
+  /** The actions, indexed by ordinal. */
+  private static final Input[] INPUTS = Input.values();
+
+  /** The time of each event, by slot. */
+  private final long[] my_times;
+
+  /** The action ordinal times two, plus one for a press, of each event, by slot. */
+  private final int[] my_codes;
+
+  /** The slot index mask; the capacity is a power of two. */
+  private final int my_mask;
+
+  /** The number of events ever offered; written only by the producer. */
+  private final AtomicLong my_tail = new AtomicLong();
+
+  /** The number of events ever polled; written only by the consumer. */
+  private final AtomicLong my_head = new AtomicLong();
+
+  /** The action of the event last polled. */
+  private Input my_input;
+
+  /** Whether the event last polled was a press. */
+  private boolean my_pressed;
+
+  /** The time of the event last polled. */
+  private long my_time;
+
+  /**
+   * Creates a queue.
+   *
+   * @param the_capacity the smallest number of events it must hold
+   */
+  public InputQueue(final int the_capacity) {
+    final int capacity = Integer.highestOneBit(Math.max(1, the_capacity * 2 - 1));
+    my_times = new long[capacity];
+    my_codes = new int[capacity];
+    my_mask = capacity - 1;
+  }
+
+  /**
+   * Adds an event; called only by the producer thread.
+   *
+   * @param the_input the action
+   * @param the_pressed true for a press, false for a release
+   * @param the_nanos the System.nanoTime of the event
+   * @return false if the queue is full and the event was dropped
+   */
+  public boolean offer(final Input the_input, final boolean the_pressed,
+                       final long the_nanos) {
+    final long tail = my_tail.get();
+    final boolean result = tail - my_head.get() < my_times.length;
+    if (result) {
+      final int slot = (int) tail & my_mask;
+      my_times[slot] = the_nanos;
+      my_codes[slot] = the_input.ordinal() * 2 + (the_pressed ? 1 : 0);
+      my_tail.lazySet(tail + 1); // publishes the slot
+    }
+    return result;
+  }
+
+  /**
+   * @return true if there is no event to poll.
+   */
+  public boolean isEmpty() {
+    return my_head.get() == my_tail.get();
+  }
+
+  /**
+   * Takes the oldest event, which is then read through getInput, isPressed and
+   * getTime; called only by the consumer thread.
+   *
+   * @return false if there was no event
+   */
+  public boolean poll() {
+    final long head = my_head.get();
+    final boolean result = head != my_tail.get();
+    if (result) {
+      final int slot = (int) head & my_mask;
+      my_time = my_times[slot];
+      my_input = INPUTS[my_codes[slot] / 2];
+      my_pressed = (my_codes[slot] & 1) != 0;
+      my_head.lazySet(head + 1); // frees the slot
+    }
+    return result;
+  }
+
+  /**
+   * @return the action of the event last polled.
+   */
+  public Input getInput() {
+    return my_input;
+  }
+
+  /**
+   * @return true if the event last polled was a press.
+   */
+  public boolean isPressed() {
+    return my_pressed;
+  }
+
+  /**
+   * @return the System.nanoTime of the event last polled.
+   */
+  public long getTime() {
+    return my_time;
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * TCSS305 Spring 2012
+ */
+
+package controller;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A histogram of durations in nanoseconds with a fixed, log-linear set of
+ * buckets: every power of two is split into eight buckets, so a recorded value is
+ * reported to within 12.5%. Recording allocates nothing once warm, takes no lock
+ * and may happen on any number of threads while others read.
+ *
+ * The count, total and maximum are LongAdder and LongAccumulator cells, which
+ * spread contended updates. The bucket counts can be split into stripes, each a
+ * copy of the buckets that a thread picks by its id, so threads recording into
+ * one histogram rarely update the same counts; a histogram recorded by a single
+ * thread needs only one.
+ *
+ * Usage: LatencyHistogram checks that each value is reported within 12.5%.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class LatencyHistogram {
+
+  /** The number of bits of a value kept exactly; smaller values get a bucket each. */
+  private static final int EXACT_BITS = 4;
+
+  /** The number of values with a bucket each. */
+  private static final int EXACT = 1 << EXACT_BITS;
+
+  /** The number of buckets in each power of two above the exact values. */
+  private static final int SUB_BUCKETS = EXACT / 2;
+
+  /** The number of buckets, enough for any non-negative long. */
+  private static final int BUCKETS = (Long.SIZE - EXACT_BITS) * SUB_BUCKETS + EXACT;
+
+  /** The number of values checked one by one. */
+  private static final long CHECKED_VALUES = 1 << 16;
+
+  /** The shift giving the step between larger checked values as a fraction. */
+  private static final int CHECK_STRIDE = 10;
+
+  /** The median, as a fraction. */
+  private static final double MEDIAN = 0.5;
+
+  /** The number of nanoseconds in a microsecond. */
+  private static final double MICROS = 1e3;
+
+  /** The number of values recorded in each bucket, stripe after stripe. */
+  private final AtomicLongArray my_counts;
+
+  /** The mask selecting a stripe from a thread id. */
+  private final int my_stripe_mask;
+
+  /** The number of values recorded. */
+  private final LongAdder my_count = new LongAdder();
+
+  /** The sum of the values recorded. */
+  private final LongAdder my_total = new LongAdder();
+
+  /** The largest value recorded. */
+  private final LongAccumulator my_max = new LongAccumulator(new Max(), 0L);
+
+  /**
+   * Keeps the larger of two values.
+   */
+  private static final class Max implements LongBinaryOperator {
+    @Override
+    public long applyAsLong(final long the_first, final long the_second) {
+      return Math.max(the_first, the_second);
+    }
+  }
+
+  /**
+   * Creates a histogram with one stripe, for values recorded by one thread at a
+   * time.
+   */
+  public LatencyHistogram() {
+    this(1);
+  }
+
+  /**
+   * Creates a histogram whose bucket counts are split into stripes.
+   *
+   * @param the_stripes the number of stripes, rounded up to a power of two; the
+   *          number of threads expected to record at once is a good choice
+   * @throws IllegalArgumentException if the_stripes is less than 1
+   */
+  public LatencyHistogram(final int the_stripes) throws IllegalArgumentException {
+    if (the_stripes < 1) {
+      throw new IllegalArgumentException("stripes: " + the_stripes);
+    }
+    final int stripes = Integer.highestOneBit((the_stripes << 1) - 1);
+    my_counts = new AtomicLongArray(stripes * BUCKETS);
+    my_stripe_mask = stripes - 1;
+  }
+
+  /**
+   * Records a duration; negative durations are recorded as 0.
+   *
+   * @param the_nanos the duration in nanoseconds
+   */
+  public void record(final long the_nanos) {
+    final long value = Math.max(0L, the_nanos);
+    final int stripe = (int) Thread.currentThread().getId() & my_stripe_mask;
+    my_counts.incrementAndGet(stripe * BUCKETS + bucketOf(value));
+    my_count.increment();
+    my_total.add(value);
+    my_max.accumulate(value);
+  }
+
+  /**
+   * @return the number of values recorded.
+   */
+  public long getCount() {
+    return my_count.sum();
+  }
+
+  /**
+   * @return the largest value recorded, 0 if none was.
+   */
+  public long getMax() {
+    return my_max.get();
+  }
+
+  /**
+   * @return the mean of the values recorded, 0 if none was.
+   */
+  public double getMean() {
+    final long count = my_count.sum();
+    return count == 0 ? 0 : (double) my_total.sum() / count;
+  }
+
+  /**
+   * Returns an upper bound of the given percentile of the recorded values.
+   *
+   * @param the_fraction the percentile as a fraction, such as 0.99
+   * @return the largest value of the bucket holding the percentile, 0 if no value
+   *         was recorded
+   */
+  public long getPercentile(final double the_fraction) {
+    final long rank = (long) Math.ceil(the_fraction * my_count.sum());
+    long seen = 0;
+    long result = 0;
+    for (int bucket = 0; bucket < BUCKETS && seen < rank; bucket++) {
+      for (int index = bucket; index < my_counts.length(); index += BUCKETS) {
+        seen += my_counts.get(index); // the bucket in each stripe
+      }
+      result = Math.min(highestOf(bucket), my_max.get());
+    }
+    return result;
+  }
+
+  /**
+   * Forgets every recorded value. Values recorded at the same time may be lost.
+   */
+  public void reset() {
+    for (int i = 0; i < my_counts.length(); i++) {
+      my_counts.set(i, 0);
+    }
+    my_count.reset();
+    my_total.reset();
+    my_max.reset();
+  }
+
+  /**
+   * Returns the bucket of a value.
+   *
+   * @param the_value a non-negative value
+   * @return the index of its bucket
+   */
+  private static int bucketOf(final long the_value) {
+    int result = (int) the_value;
+    if (the_value >= EXACT) {
+      // keep the top EXACT_BITS bits, SUB_BUCKETS to 2 * SUB_BUCKETS - 1
+      final int shift = Long.SIZE - Long.numberOfLeadingZeros(the_value) - EXACT_BITS;
+      result = shift * SUB_BUCKETS + (int) (the_value >>> shift);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the largest value of a bucket.
+   *
+   * @param the_bucket the index of the bucket
+   * @return the largest value that falls in it
+   */
+  private static long highestOf(final int the_bucket) {
+    long result = the_bucket;
+    if (the_bucket >= EXACT) {
+      final int shift = the_bucket / SUB_BUCKETS - 1;
+      final long first = (long) (the_bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+      result = first + (1L << shift) - 1;
+    }
+    return result;
+  }
+
+  /**
+   * Checks the buckets: for every value up to CHECKED_VALUES and then a spread of
+   * values up to Long.MAX_VALUE, the median of the value recorded twice and a
+   * much larger value recorded once must be the value to within 12.5%.
+   *
+   * @param the_args ignored
+   * @throws IllegalStateException if a value is reported outside its bounds
+   */
+  public static void main(final String[] the_args) throws IllegalStateException {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    long checked = 0;
+    for (long value = 0; value >= 0; value = value < CHECKED_VALUES ? value + 1
+                                                : value + (value >>> CHECK_STRIDE) + 1) {
+      histogram.reset();
+      histogram.record(value);
+      histogram.record(value);
+      histogram.record(Long.MAX_VALUE); // so that the maximum does not cap the median
+      final long median = histogram.getPercentile(MEDIAN);
+      if (median < value || median - value > value / SUB_BUCKETS) {
+        throw new IllegalStateException("recorded " + value + ", median " + median);
+      }
+      checked++;
+    }
+    System.out.println(checked + " values reported within 12.5%");
+  }
+
+  /**
+   * Returns a one-line summary in microseconds.
+   *
+   * @return the count, mean, median, 99th and 99.9th percentiles and maximum
+   */
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT, "n=%d mean=%.1fus p50=%.1fus p99=%.1fus " +
+                         "p99.9=%.1fus max=%.1fus", getCount(), getMean() / MICROS,
+                         getPercentile(0.5) / MICROS, getPercentile(0.99) / MICROS,
+                         getPercentile(0.999) / MICROS, getMax() / MICROS);
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * TCSS305 Spring 2012
+ */
+
+package controller;
+
+import model.Block;
+
+/**
+ * The read-only state of a Tetris game: the frozen stack, the pieces and the
+ * statistics. A Board is read on the thread that plays it; a BoardSnapshot can be
+ * read on any thread.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public interface ReadableBoard {
+
+  /**
+   * @return the width of the board.
+   */
+  int getWidth();
+
+  /**
+   * @return the height of the board.
+   */
+  int getHeight();
+
+  /**
+   * @return the number of rows, counted from the floor, up to and including the
+   *         highest row that holds a frozen block
+   */
+  int getStackHeight();
+
+  /**
+   * Returns the occupancy of a row; bit x of the result is set when the position
+   * (x, the_y) holds a frozen block.
+   *
+   * @param the_y The y-coordinate of the row
+   * @return the occupancy mask of the row, 0 for rows above the stack
+   */
+  long getRowMask(int the_y);
+
+  /**
+   * Retrieves the frozen block at the specified coordinates.
+   *
+   * @param the_x The x-coordinate
+   * @param the_y The y-coordinate
+   * @return The block at the provided position or EMPTY if there is no block
+   * @throws IllegalArgumentException if the requested position is outside the
+   *           board.
+   */
+  Block getBlockAt(int the_x, int the_y) throws IllegalArgumentException;
+
+  /**
+   * @return the packed state of the currently moving piece.
+   * @see model.PieceState
+   */
+  int getCurrentPieceState();
+
+  /**
+   * @return the packed state of the next piece.
+   * @see model.PieceState
+   */
+  int getNextPieceState();
+
+  /**
+   * @return the packed state of the piece most recently frozen, as it was when it
+   *         froze.
+   * @see model.PieceState
+   */
+  int getLockedPieceState();
+
+  /**
+   * Returns the 64-bit Zobrist hash of the position: the frozen blocks, the
+   * current piece and the next piece. Equal positions have equal hashes, and
+   * unequal positions almost always differ.
+   *
+   * @return the hash
+   * @see Zobrist
+   */
+  long getHash();
+
+  /**
+   * @return the number of pieces frozen in the current game.
+   */
+  int getLockCount();
+
+  /**
+   * @return the score.
+   */
+  int getScore();
+
+  /**
+   * @return the level.
+   */
+  int getLevel();
+
+  /**
+   * @return the number of lines cleared towards the next level.
+   */
+  int getLineCount();
+
+  /**
+   * @return the number of lines cleared in the game.
+   */
+  int getTotalLines();
+
+  /**
+   * @return true while the game is still going, false once it has ended.
+   */
+  boolean isRunning();
+}
@@ -0,0 +1,375 @@
+/*
+ * TCSS305 Spring 2012
+ */
+
+package controller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import model.UniformPieceGenerator;
+
+/**
+ * Plays back a game recorded by a ReplayRecorder, as fast as it is asked to.
+ *
+ * A recording is a log file and a keyframe file. The log starts with a header
+ * of HEADER_SIZE bytes: the magic number, the format version, the width and
+ * height of the board, the kind and seed of its generator and the number of
+ * ticks between keyframes. Then come the operations, one int each, holding the
+ * ticks since the previous operation in its top 12 bits, an argument in the next
+ * 16 and the operation code in the lowest 4; a code of 0 ends the log. The
+ * keyframe file is an array of fixed-size slots, slot k holding the state of the
+ * board at tick k times the interval, before the operations of that tick, with
+ * the position of those operations in the log.
+ *
+ * Seeking to a tick restores the keyframe at or before it, found by division,
+ * and applies the operations of at most one interval, so it takes the same time
+ * wherever the tick is in the recording.
+ *
+ * Usage: Replay [ticks] [keyframe interval] [seed] [file] records a headless
+ * game of random inputs, plays it back unthrottled and seeks to random ticks,
+ * checking the board's hash against the recorded game, and prints the times.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ * @see ReplayRecorder
+ */
+public final class Replay {
+
+  /** The suffix of the keyframe file of a log. */
+  public static final String KEYFRAME_SUFFIX = ".keys";
+
+  /** The magic number starting a log: "TRPL". */
+  static final int MAGIC = 0x5452504c;
+
+  /** The version of the format. */
+  static final short VERSION = 1;
+
+  /** The size of the header of a log. */
+  static final int HEADER_SIZE = 32;
+
+  /** The code of a fall, whose argument is the largest number of rows. */
+  static final int FALL = Input.values().length + 1;
+
+  /** The code of a new game. */
+  static final int NEW_GAME = FALL + 1;
+
+  /** The code of an operation that does nothing but let ticks pass. */
+  static final int WAIT = NEW_GAME + 1;
+
+  /** The number of bits of an operation code. */
+  static final int OP_BITS = 4;
+
+  /** The number of bits of an argument. */
+  static final int ARGUMENT_BITS = 16;
+
+  /** The largest argument. */
+  static final int MAX_ARGUMENT = (1 << ARGUMENT_BITS) - 1;
+
+  /** The largest number of ticks between consecutive operations. */
+  static final int MAX_DELTA = (1 << Integer.SIZE - OP_BITS - ARGUMENT_BITS) - 1;
+
+  /** The size of the log offset and base tick at the start of a keyframe slot. */
+  private static final int SLOT_HEADER_SIZE = 2 * Long.BYTES;
+
+  /** The inputs, indexed by ordinal. */
+  private static final Input[] INPUTS = Input.values();
+
+  /** The default number of ticks recorded by the measurement run, an hour. */
+  private static final int TICKS = 60 * 60 * 60;
+
+  /** The default number of ticks between keyframes of the measurement run. */
+  private static final int INTERVAL = 600;
+
+  /** The default seed of the measurement run. */
+  private static final long SEED = 305;
+
+  /** The number of random seeks of the measurement run. */
+  private static final int SEEKS = 1000;
+
+  /** The number of ticks between gravity falls in the measurement run. */
+  private static final int GRAVITY_TICKS = 20;
+
+  /** The number of nanoseconds in a second. */
+  private static final double NANOS = 1e9;
+
+  /** The width of the recorded board of the measurement run. */
+  private static final int WIDTH = 10;
+
+  /** The height of the recorded board of the measurement run. */
+  private static final int HEIGHT = 20;
+
+  /** The log, after its header. */
+  private final ByteBuffer my_log;
+
+  /** The keyframe file. */
+  private final ByteBuffer my_keys;
+
+  /** The number of ticks between keyframes. */
+  private final int my_interval;
+
+  /** The size of a keyframe slot. */
+  private final int my_slot_size;
+
+  /** The number of keyframes. */
+  private final long my_keyframes;
+
+  /** The tick of the last operation. */
+  private final long my_length;
+
+  /** The board being played back. */
+  private final Board my_board;
+
+  /** The tick the board is at. */
+  private long my_tick;
+
+  /** The tick of the last operation applied, which the next is stamped from. */
+  private long my_op_tick;
+
+  /**
+   * Opens a recording and positions it at tick 0. The files are mapped and
+   * closed; the mappings are released when the replay is collected.
+   *
+   * @param the_path the log file
+   * @throws IOException if the files cannot be read or are not a recording
+   */
+  public Replay(final Path the_path) throws IOException {
+    final ByteBuffer log = map(the_path);
+    if (log.capacity() < HEADER_SIZE || log.getInt() != MAGIC || log.getShort() != VERSION) {
+      throw new IOException("not a replay: " + the_path);
+    }
+    final int width = log.getShort();
+    final int height = log.getShort();
+    final int kind = log.get();
+    final long seed = log.getLong();
+    my_interval = log.getInt();
+    if (my_interval < 1 || kind != SaveGame.UNIFORM && kind != SaveGame.BAG) {
+      throw new IOException("corrupt replay header: " + the_path);
+    }
+    log.position(HEADER_SIZE);
+    my_log = log.slice();
+    my_keys = map(keyframePath(the_path));
+    my_slot_size = slotSize(width, height);
+    my_board = new Board(width, height, SaveGame.generator(kind, seed));
+
+    long keyframes = 0;
+    while ((keyframes + 1) * my_slot_size <= my_keys.capacity() &&
+           my_keys.getLong((int) (keyframes * my_slot_size)) != 0) {
+      keyframes++;
+    }
+    if (keyframes == 0) {
+      throw new IOException("replay has no keyframes: " + the_path);
+    }
+    my_keyframes = keyframes;
+    long length = 0;
+    for (int i = 0; i + Integer.BYTES <= my_log.capacity() && my_log.getInt(i) != 0;
+         i += Integer.BYTES) {
+      length += my_log.getInt(i) >>> OP_BITS + ARGUMENT_BITS;
+    }
+    my_length = Math.max(length, (my_keyframes - 1) * my_interval);
+    seek(0);
+  }
+
+  /**
+   * @return the board being played back; it must only be read.
+   */
+  public Board getBoard() {
+    return my_board;
+  }
+
+  /**
+   * @return the tick the board is at.
+   */
+  public long getTick() {
+    return my_tick;
+  }
+
+  /**
+   * @return the last tick of the recording with an operation or keyframe.
+   */
+  public long getLength() {
+    return my_length;
+  }
+
+  /**
+   * @return the number of ticks between keyframes.
+   */
+  public int getInterval() {
+    return my_interval;
+  }
+
+  /**
+   * Moves the board to a tick, after the operations stamped with it, by way of
+   * the nearest keyframe at or before it.
+   *
+   * @param the_tick the tick, not negative
+   * @throws IllegalArgumentException if the_tick is negative
+   */
+  public void seek(final long the_tick) throws IllegalArgumentException {
+    if (the_tick < 0) {
+      throw new IllegalArgumentException("tick: " + the_tick);
+    }
+    final long keyframe = Math.min(the_tick / my_interval, my_keyframes - 1);
+    final ByteBuffer slot = my_keys.duplicate();
+    slot.position((int) (keyframe * my_slot_size));
+    my_log.position((int) (slot.getLong() - HEADER_SIZE));
+    my_op_tick = slot.getLong();
+    my_board.readState(slot);
+    my_tick = keyframe * my_interval;
+    advance(the_tick);
+  }
+
+  /**
+   * Applies the operations up to and including a tick; does nothing if the board
+   * is past it.
+   *
+   * @param the_tick the tick
+   */
+  public void advance(final long the_tick) {
+    boolean more = true;
+    while (more && my_log.remaining() >= Integer.BYTES) {
+      final int operation = my_log.getInt(my_log.position());
+      final long tick = my_op_tick + (operation >>> OP_BITS + ARGUMENT_BITS);
+      more = operation != 0 && tick <= the_tick;
+      if (more) {
+        my_log.position(my_log.position() + Integer.BYTES);
+        my_op_tick = tick;
+        apply(operation & (1 << OP_BITS) - 1, operation >>> OP_BITS & MAX_ARGUMENT);
+      }
+    }
+    my_tick = Math.max(my_tick, the_tick);
+  }
+
+  /**
+   * Applies an operation to the board.
+   *
+   * @param the_op the operation code
+   * @param the_argument the argument
+   */
+  private void apply(final int the_op, final int the_argument) {
+    if (the_op <= INPUTS.length) {
+      INPUTS[the_op - 1].apply(my_board);
+    } else if (the_op == FALL) {
+      my_board.fall(the_argument);
+    } else if (the_op == NEW_GAME) {
+      my_board.newGame();
+    }
+  }
+
+  /**
+   * Packs an operation.
+   *
+   * @param the_delta the ticks since the previous operation, up to MAX_DELTA
+   * @param the_op the operation code
+   * @param the_argument the argument, up to MAX_ARGUMENT
+   * @return the packed operation
+   */
+  static int encode(final int the_delta, final int the_op, final int the_argument) {
+    return the_delta << OP_BITS + ARGUMENT_BITS | the_argument << OP_BITS | the_op;
+  }
+
+  /**
+   * Returns the size of a keyframe slot for a board of the given size.
+   *
+   * @param the_width the width of the board
+   * @param the_height the height of the board
+   * @return the size in bytes
+   */
+  static int slotSize(final int the_width, final int the_height) {
+    return SLOT_HEADER_SIZE + Board.getStateSize(the_width, the_height);
+  }
+
+  /**
+   * Returns the keyframe file of a log.
+   *
+   * @param the_path the log file
+   * @return the keyframe file
+   */
+  static Path keyframePath(final Path the_path) {
+    return the_path.resolveSibling(the_path.getFileName() + KEYFRAME_SUFFIX);
+  }
+
+  /**
+   * Maps a whole file for reading.
+   *
+   * @param the_path the file
+   * @return the mapped file
+   * @throws IOException if the file cannot be read
+   */
+  private static MappedByteBuffer map(final Path the_path) throws IOException {
+    try (FileChannel channel = FileChannel.open(the_path, StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  /**
+   * Records a headless game of random inputs, plays it back unthrottled and
+   * seeks to random ticks, checking every tick's hash, and prints the times.
+   *
+   * @param the_args the optional number of ticks, keyframe interval, seed and
+   *          file.
+   * @throws IOException if the recording cannot be written or read
+   */
+  public static void main(final String[] the_args) throws IOException {
+    final int ticks = the_args.length > 0 ? Integer.parseInt(the_args[0]) : TICKS;
+    final int interval = the_args.length > 1 ? Integer.parseInt(the_args[1]) : INTERVAL;
+    final long seed = the_args.length > 2 ? Long.parseLong(the_args[2]) : SEED;
+    final Path path = the_args.length > 3 ? Paths.get(the_args[3])
+        : Paths.get(System.getProperty("java.io.tmpdir"), "tetris.replay");
+    final long[] hashes = new long[ticks + 1];
+
+    final Board board = new Board(WIDTH, HEIGHT, new UniformPieceGenerator(seed));
+    final Random random = new Random(seed);
+    long start = System.nanoTime();
+    try (ReplayRecorder recorder = new ReplayRecorder(path, board, interval)) {
+      for (int tick = 0; tick <= ticks; tick++) {
+        recorder.tick(tick);
+        if (random.nextInt(4) == 0) {
+          final Input input = INPUTS[random.nextInt(INPUTS.length)];
+          input.apply(board);
+          recorder.input(tick, input);
+        }
+        if (tick % GRAVITY_TICKS == 0) {
+          board.fall(1);
+          recorder.fall(tick, 1);
+        }
+        if (!board.isRunning()) {
+          board.newGame();
+          recorder.newGame(tick);
+        }
+        hashes[tick] = board.getHash();
+      }
+    }
+    final double record = (System.nanoTime() - start) / NANOS;
+
+    final Replay replay = new Replay(path);
+    int bad = 0;
+    start = System.nanoTime();
+    for (int tick = 0; tick <= ticks; tick++) {
+      replay.advance(tick);
+      bad += replay.getBoard().getHash() == hashes[tick] ? 0 : 1;
+    }
+    final double play = (System.nanoTime() - start) / NANOS;
+    final LatencyHistogram seeks = new LatencyHistogram();
+    for (int i = 0; i < SEEKS; i++) {
+      final int tick = random.nextInt(ticks + 1);
+      final long begin = System.nanoTime();
+      replay.seek(tick);
+      seeks.record(System.nanoTime() - begin);
+      bad += replay.getBoard().getHash() == hashes[tick] ? 0 : 1;
+    }
+    System.out.printf("%d ticks, keyframe every %d, %d bytes of log, %d of keyframes%n",
+                      ticks, interval, path.toFile().length(),
+                      keyframePath(path).toFile().length());
+    System.out.printf("recorded in %.2f s, played back at %.0f ticks per second%n", record,
+                      ticks / play);
+    System.out.printf("seek %s%n", seeks);
+    System.out.printf("%d ticks differ from the recorded game%n", bad);
+  }
+}
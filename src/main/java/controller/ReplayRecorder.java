@@ -0,0 +1,232 @@
+/*
+ * TCSS305 Spring 2012
+ */
+
+package controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import model.AbstractPieceGenerator;
+
+/**
+ * Records a game as the operations applied to its board, stamped with the frame
+ * (tick) they were applied in, together with a keyframe of the whole board every
+ * few ticks, in the format read by Replay.
+ *
+ * The operations go to the log file and the keyframes to a keyframe file beside
+ * it, both through memory-mapped buffers, so recording an operation is a store
+ * to memory and never waits for the disk; a new region of a file is mapped only
+ * when the previous one is full. Each operation takes one int. A keyframe
+ * occupies a fixed-size slot of the keyframe file, so the keyframe of any tick
+ * is found by its number alone.
+ *
+ * A recorder is used by the thread that updates the board, holding the board's
+ * monitor, and its ticks must not go backwards.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ * @see GameLoop#startRecording(Path, int)
+ */
+public final class ReplayRecorder implements Closeable {
+
+  /** The size of a mapped region of the log. */
+  private static final int LOG_REGION = 1 << 20;
+
+  /** The number of keyframe slots in a mapped region of the keyframe file. */
+  private static final int SLOTS_PER_REGION = 64;
+
+  /** The board recorded. */
+  private final Board my_board;
+
+  /** The number of ticks between keyframes. */
+  private final int my_interval;
+
+  /** The size of a keyframe slot. */
+  private final int my_slot_size;
+
+  /** The log file. */
+  private final FileChannel my_log;
+
+  /** The keyframe file. */
+  private final FileChannel my_keys;
+
+  /** The mapped region of the log being written. */
+  private MappedByteBuffer my_log_region;
+
+  /** The position in the log file of the start of my_log_region. */
+  private long my_log_base;
+
+  /** The mapped region of the keyframe file being written, null until needed. */
+  private MappedByteBuffer my_key_region;
+
+  /** The number of the first slot in my_key_region. */
+  private long my_key_region_first = -1;
+
+  /** The tick of the last operation recorded. */
+  private long my_tick;
+
+  /**
+   * Starts recording a board, writing the header and the keyframe of tick 0.
+   *
+   * @param the_path the log file; the keyframes go to the same path with
+   *          Replay.KEYFRAME_SUFFIX appended
+   * @param the_board the board, whose generator must be a UniformPieceGenerator or
+   *          BagPieceGenerator
+   * @param the_interval the number of ticks between keyframes, at least 1
+   * @throws IOException if the files cannot be created
+   * @throws IllegalArgumentException if the generator cannot be recorded or the
+   *           interval is not positive
+   */
+  public ReplayRecorder(final Path the_path, final Board the_board, final int the_interval)
+    throws IOException, IllegalArgumentException {
+    final int kind = SaveGame.kindOf(the_board.getGenerator());
+    if (the_interval < 1) {
+      throw new IllegalArgumentException("interval: " + the_interval);
+    }
+    my_board = the_board;
+    my_interval = the_interval;
+    my_slot_size = Replay.slotSize(the_board.getWidth(), the_board.getHeight());
+    my_log = FileChannel.open(the_path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                              StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    my_keys = FileChannel.open(Replay.keyframePath(the_path), StandardOpenOption.CREATE,
+                               StandardOpenOption.READ, StandardOpenOption.WRITE,
+                               StandardOpenOption.TRUNCATE_EXISTING);
+    my_log_region = my_log.map(FileChannel.MapMode.READ_WRITE, 0, LOG_REGION);
+    my_log_region.putInt(Replay.MAGIC).putShort(Replay.VERSION);
+    my_log_region.putShort((short) the_board.getWidth());
+    my_log_region.putShort((short) the_board.getHeight()).put((byte) kind);
+    my_log_region.putLong(((AbstractPieceGenerator) the_board.getGenerator()).getSeed());
+    my_log_region.putInt(the_interval);
+    my_log_region.position(Replay.HEADER_SIZE);
+    keyframe(0);
+  }
+
+  /**
+   * Records the tick reached by the game, writing a keyframe if one is due.
+   * Called at the start of each frame, before its operations.
+   *
+   * @param the_tick the number of frames since recording started
+   * @throws IOException if the keyframe file cannot be extended
+   */
+  public void tick(final long the_tick) throws IOException {
+    if (the_tick % my_interval == 0) {
+      keyframe(the_tick);
+    }
+  }
+
+  /**
+   * Records an input applied to the board.
+   *
+   * @param the_tick the tick it was applied in
+   * @param the_input the input
+   * @throws IOException if the log cannot be extended
+   */
+  public void input(final long the_tick, final Input the_input) throws IOException {
+    operation(the_tick, the_input.ordinal() + 1, 0);
+  }
+
+  /**
+   * Records a fall of the current piece.
+   *
+   * @param the_tick the tick it was applied in
+   * @param the_rows the largest number of rows of the fall
+   * @throws IOException if the log cannot be extended
+   */
+  public void fall(final long the_tick, final int the_rows) throws IOException {
+    operation(the_tick, Replay.FALL, the_rows);
+  }
+
+  /**
+   * Records a new game started on the board.
+   *
+   * @param the_tick the tick it was started in
+   * @throws IOException if the log cannot be extended
+   */
+  public void newGame(final long the_tick) throws IOException {
+    operation(the_tick, Replay.NEW_GAME, 0);
+  }
+
+  /**
+   * @return the number of ticks between keyframes.
+   */
+  public int getInterval() {
+    return my_interval;
+  }
+
+  /**
+   * Writes the mapped regions to the disk and closes the files.
+   *
+   * @throws IOException if the files cannot be written
+   */
+  @Override
+  public void close() throws IOException {
+    my_log_region.force();
+    if (my_key_region != null) {
+      my_key_region.force();
+    }
+    my_log.close();
+    my_keys.close();
+  }
+
+  /**
+   * Appends an operation to the log, preceded by waits if the ticks since the
+   * last operation do not fit in its stamp.
+   *
+   * @param the_tick the tick of the operation
+   * @param the_op the operation code
+   * @param the_argument the argument of the operation
+   * @throws IOException if the log cannot be extended
+   */
+  private void operation(final long the_tick, final int the_op, final int the_argument)
+    throws IOException {
+    long delta = the_tick - my_tick;
+    while (delta > Replay.MAX_DELTA) {
+      append(Replay.encode(Replay.MAX_DELTA, Replay.WAIT, 0));
+      delta -= Replay.MAX_DELTA;
+    }
+    append(Replay.encode((int) delta, the_op,
+                         Math.min(the_argument, Replay.MAX_ARGUMENT)));
+    my_tick = the_tick;
+  }
+
+  /**
+   * Appends an int to the log, mapping the next region when this one is full.
+   *
+   * @param the_value the int
+   * @throws IOException if the log cannot be extended
+   */
+  private void append(final int the_value) throws IOException {
+    if (my_log_region.remaining() < Integer.BYTES) {
+      my_log_base += my_log_region.position();
+      my_log_region = my_log.map(FileChannel.MapMode.READ_WRITE, my_log_base, LOG_REGION);
+    }
+    my_log_region.putInt(the_value);
+  }
+
+  /**
+   * Writes the keyframe of a tick: where its operations start in the log, the
+   * tick they are stamped relative to and the state of the board.
+   *
+   * @param the_tick a multiple of the interval
+   * @throws IOException if the keyframe file cannot be extended
+   */
+  private void keyframe(final long the_tick) throws IOException {
+    final long slot = the_tick / my_interval;
+    if (my_key_region == null || slot - my_key_region_first >= SLOTS_PER_REGION) {
+      my_key_region_first = slot - slot % SLOTS_PER_REGION;
+      my_key_region = my_keys.map(FileChannel.MapMode.READ_WRITE,
+                                  my_key_region_first * my_slot_size,
+                                  (long) SLOTS_PER_REGION * my_slot_size);
+    }
+    final ByteBuffer buffer = my_key_region.duplicate();
+    buffer.position((int) (slot - my_key_region_first) * my_slot_size);
+    buffer.putLong(my_log_base + my_log_region.position()).putLong(my_tick);
+    my_board.writeState(buffer);
+  }
+}
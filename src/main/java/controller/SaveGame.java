@@ -0,0 +1,284 @@
+/*
+ * TCSS305 Spring 2012
+ */
+
+package controller;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import model.AbstractPieceGenerator;
+import model.BagPieceGenerator;
+import model.PieceGenerator;
+import model.UniformPieceGenerator;
+
+/**
+ * Saves and loads the complete state of a game in a compact, versioned binary
+ * format, through NIO buffers.
+ *
+ * A save starts with a header: the magic number, the format version, the width
+ * and height of the board and the kind and seed of its piece generator. The
+ * state follows: the stack height, the current, next and last locked pieces as
+ * packed states, the lock count, the score, level, line count and total lines,
+ * whether the game is running, the number of pieces the generator has made
+ * (which with the seed restores the queue of pieces to come) and the frozen
+ * blocks at 3 bits each, rows from the bottom up. A 10x20 game takes at most 158
+ * bytes.
+ *
+ * Writing a save is a few dozen buffer writes and a pass over the stack, with no
+ * allocation when the buffer is reused, so a game can be saved every frame.
+ * The board must not change while it is saved; hold its monitor if a game loop
+ * is playing it.
+ *
+ * Usage: SaveGame [saves] [file] times saving a game in progress into a reused
+ * buffer and checks that a game saved to a file loads back the same.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class SaveGame {
+
+  /** The magic number starting a save: "TSAV". */
+  public static final int MAGIC = 0x54534156;
+
+  /** The version of the format written. */
+  public static final short VERSION = 1;
+
+  /** The size of the header. */
+  public static final int HEADER_SIZE = Integer.BYTES + 3 * Short.BYTES + 1 + Long.BYTES;
+
+  /** The generator code of a UniformPieceGenerator. */
+  static final int UNIFORM = 1;
+
+  /** The generator code of a BagPieceGenerator. */
+  static final int BAG = 2;
+
+  /** The default number of saves timed by the measurement run. */
+  private static final int SAVES = 1000000;
+
+  /** The number of pieces played before the measurement run saves. */
+  private static final int PIECES = 15;
+
+  /** The seed of the measurement run. */
+  private static final long SEED = 305;
+
+  /** The width of the measured board. */
+  private static final int WIDTH = 10;
+
+  /** The height of the measured board. */
+  private static final int HEIGHT = 20;
+
+  /** The number of rotations tried by the measurement run's moves. */
+  private static final int ROTATIONS = 4;
+
+  /** The number of nanoseconds in a second. */
+  private static final double NANOS = 1e9;
+
+  /**
+   * Prevents instantiation of this utility class.
+   */
+  private SaveGame() {
+    // nothing to do
+  }
+
+  /**
+   * Returns the largest size of a save of a game in progress on a board of the
+   * given size.
+   *
+   * @param the_width the width of the board
+   * @param the_height the height of the board
+   * @return the size in bytes
+   */
+  public static int getMaxSize(final int the_width, final int the_height) {
+    return HEADER_SIZE + Board.getStateSize(the_width, the_height);
+  }
+
+  /**
+   * Writes a save of a board.
+   *
+   * @param the_board the board, whose generator must be a UniformPieceGenerator or
+   *          BagPieceGenerator
+   * @param the_buffer the buffer to write to, with at least getMaxSize bytes
+   *          remaining for a game in progress
+   * @throws IllegalArgumentException if the generator cannot be saved
+   */
+  public static void write(final Board the_board, final ByteBuffer the_buffer)
+    throws IllegalArgumentException {
+    final int kind = kindOf(the_board.getGenerator());
+    the_buffer.putInt(MAGIC).putShort(VERSION);
+    the_buffer.putShort((short) the_board.getWidth());
+    the_buffer.putShort((short) the_board.getHeight()).put((byte) kind);
+    the_buffer.putLong(((AbstractPieceGenerator) the_board.getGenerator()).getSeed());
+    the_board.writeState(the_buffer);
+  }
+
+  /**
+   * Reads a save into a new board.
+   *
+   * @param the_buffer the buffer to read from
+   * @return the board, in the saved state
+   * @throws IOException if the buffer does not hold a save of a known version, or
+   *           the save is corrupt: its size, stack height or pieces are out of
+   *           range for a board
+   */
+  public static Board read(final ByteBuffer the_buffer) throws IOException {
+    final Board result;
+    try {
+      if (the_buffer.getInt() != MAGIC) {
+        throw new IOException("not a saved game");
+      }
+      final short version = the_buffer.getShort();
+      if (version != VERSION) {
+        throw new IOException("unsupported save version " + version);
+      }
+      final int width = the_buffer.getShort();
+      final int height = the_buffer.getShort();
+      final int kind = the_buffer.get();
+      final long seed = the_buffer.getLong();
+      result = new Board(width, height, generator(kind, seed));
+      result.readState(the_buffer);
+    } catch (final BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("corrupt saved game", e);
+    }
+    return result;
+  }
+
+  /**
+   * Saves a board to a file, replacing it.
+   *
+   * @param the_board the board
+   * @param the_path the file
+   * @throws IOException if the file cannot be written
+   * @throws IllegalArgumentException if the generator cannot be saved
+   */
+  public static void save(final Board the_board, final Path the_path)
+    throws IOException, IllegalArgumentException {
+    final ByteBuffer buffer =
+        ByteBuffer.allocate(getMaxSize(the_board.getWidth(),
+                                       Math.max(the_board.getHeight(),
+                                                the_board.getStackHeight())));
+    write(the_board, buffer);
+    buffer.flip();
+    try (FileChannel channel = FileChannel.open(the_path, StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  /**
+   * Loads a board from a file.
+   *
+   * @param the_path the file
+   * @return the board, in the saved state
+   * @throws IOException if the file cannot be read or does not hold a save
+   */
+  public static Board load(final Path the_path) throws IOException {
+    try (FileChannel channel = FileChannel.open(the_path, StandardOpenOption.READ)) {
+      final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        // read the whole file
+      }
+      buffer.flip();
+      return read(buffer);
+    }
+  }
+
+  /**
+   * Returns the code of a generator.
+   *
+   * @param the_generator the generator
+   * @return the code
+   * @throws IllegalArgumentException if the generator cannot be saved
+   */
+  static int kindOf(final PieceGenerator the_generator) throws IllegalArgumentException {
+    final int result;
+    if (the_generator instanceof UniformPieceGenerator) {
+      result = UNIFORM;
+    } else if (the_generator instanceof BagPieceGenerator) {
+      result = BAG;
+    } else {
+      throw new IllegalArgumentException("only seeded generators can be saved");
+    }
+    return result;
+  }
+
+  /**
+   * Creates a generator from its code and seed.
+   *
+   * @param the_kind the code
+   * @param the_seed the seed
+   * @return the generator, at the start of its sequence
+   * @throws IllegalArgumentException if the code is unknown
+   */
+  static AbstractPieceGenerator generator(final int the_kind, final long the_seed)
+    throws IllegalArgumentException {
+    final AbstractPieceGenerator result;
+    if (the_kind == UNIFORM) {
+      result = new UniformPieceGenerator(the_seed);
+    } else if (the_kind == BAG) {
+      result = new BagPieceGenerator(the_seed);
+    } else {
+      throw new IllegalArgumentException("generator kind: " + the_kind);
+    }
+    return result;
+  }
+
+  /**
+   * Times saving a game in progress and checks a round trip through a file.
+   *
+   * @param the_args the optional number of saves and file.
+   * @throws IOException if the file cannot be written or read
+   */
+  public static void main(final String[] the_args) throws IOException {
+    final int saves = the_args.length > 0 ? Integer.parseInt(the_args[0]) : SAVES;
+    final Path path = the_args.length > 1 ? Paths.get(the_args[1])
+        : Paths.get(System.getProperty("java.io.tmpdir"), "tetris.save");
+    final Board board = new Board(WIDTH, HEIGHT, new BagPieceGenerator(SEED));
+    final Random random = new Random(SEED);
+    for (int i = 0; i < PIECES && board.isRunning(); i++) {
+      for (int r = random.nextInt(ROTATIONS); r > 0; r--) {
+        board.rotate();
+      }
+      final int shift = random.nextInt(board.getWidth()) - board.getWidth() / 2;
+      for (int m = shift; m < 0; m++) {
+        board.moveLeft();
+      }
+      for (int m = shift; m > 0; m--) {
+        board.moveRight();
+      }
+      board.drop();
+    }
+
+    final ByteBuffer buffer =
+        ByteBuffer.allocateDirect(getMaxSize(board.getWidth(), board.getHeight()));
+    final long start = System.nanoTime();
+    for (int i = 0; i < saves; i++) {
+      buffer.clear();
+      write(board, buffer);
+    }
+    final double seconds = (System.nanoTime() - start) / NANOS;
+    System.out.printf("save of %d bytes (stack %d rows) in %.0f ns%n", buffer.position(),
+                      board.getStackHeight(), seconds * NANOS / saves);
+
+    save(board, path);
+    final Board loaded = load(path);
+    final boolean same = loaded.getHash() == board.getHash() &&
+                         loaded.toString().equals(board.toString()) &&
+                         loaded.getScore() == board.getScore() &&
+                         loaded.getLockCount() == board.getLockCount();
+    board.drop();
+    loaded.drop();
+    System.out.printf("%s: %d bytes, loads %s, plays on %s%n", path, path.toFile().length(),
+                      same ? "the same" : "DIFFERENT",
+                      loaded.getHash() == board.getHash() ? "the same" : "DIFFERENTLY");
+  }
+}
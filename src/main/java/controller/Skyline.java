@@ -0,0 +1,155 @@
+/*
+ * TCSS 305 - Spring 2012
+ */
+
+package controller;
+
+import java.util.Arrays;
+
+/**
+ * The height and number of holes of every column of a board's frozen stack. The
+ * board keeps the index up to date as blocks freeze and lines clear, touching
+ * only the columns that change; everyone else gets a read-only view.
+ *
+ * A column's height is the number of rows from the floor up to and including its
+ * highest frozen block. A hole is an empty position below the top of its column.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class Skyline {
+
+  /** The height of each column. */
+  private int[] my_heights;
+
+  /** The number of holes in each column. */
+  private int[] my_holes;
+
+  /** The number of holes in all columns. */
+  private int my_total_holes;
+
+  /**
+   * Creates the index of an empty board.
+   *
+   * @param the_width the number of columns
+   */
+  Skyline(final int the_width) {
+    my_heights = new int[the_width];
+    my_holes = new int[the_width];
+  }
+
+  /**
+   * @return the number of columns.
+   */
+  public int getWidth() {
+    return my_heights.length;
+  }
+
+  /**
+   * @param the_x the column
+   * @return the height of the column.
+   */
+  public int getColumnHeight(final int the_x) {
+    return my_heights[the_x];
+  }
+
+  /**
+   * @param the_x the column
+   * @return the number of holes in the column.
+   */
+  public int getHoles(final int the_x) {
+    return my_holes[the_x];
+  }
+
+  /**
+   * @return the number of holes in all columns.
+   */
+  public int getTotalHoles() {
+    return my_total_holes;
+  }
+
+  /**
+   * Empties the index.
+   *
+   * @param the_width the number of columns
+   */
+  void reset(final int the_width) {
+    if (my_heights.length == the_width) {
+      Arrays.fill(my_heights, 0);
+      Arrays.fill(my_holes, 0);
+    } else {
+      my_heights = new int[the_width];
+      my_holes = new int[the_width];
+    }
+    my_total_holes = 0;
+  }
+
+  /**
+   * Records a block frozen at an empty position.
+   *
+   * @param the_x the column of the block
+   * @param the_y the row of the block
+   */
+  void add(final int the_x, final int the_y) {
+    final int height = my_heights[the_x];
+    final int change;
+    if (the_y < height) {
+      change = -1; // the block filled a hole
+    } else {
+      change = the_y - height; // the positions skipped over become holes
+      my_heights[the_x] = the_y + 1;
+    }
+    my_holes[the_x] += change;
+    my_total_holes += change;
+  }
+
+  /**
+   * Records the removal of full rows. Must be called before the rows are removed
+   * from the_rows; the columns returned must be passed to rescan afterwards.
+   *
+   * @param the_rows the occupancy of each row, still holding the full rows
+   * @param the_full_row the occupancy of a full row
+   * @param the_cleared the number of full rows
+   * @return the columns whose top block is in a full row, as a bit mask; their new
+   *         height can only be found by scanning
+   */
+  long clear(final long[] the_rows, final long the_full_row, final int the_cleared) {
+    long result = 0L;
+    for (int x = 0; x < my_heights.length; x++) {
+      // every full row is below the top of every column, and holds no holes
+      if (the_rows[my_heights[x] - 1] == the_full_row) {
+        result |= 1L << x;
+      } else {
+        my_heights[x] -= the_cleared;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Recomputes the height and holes of the given columns from the rows.
+   *
+   * @param the_columns the columns as a bit mask
+   * @param the_rows the occupancy of each row
+   * @param the_stack_height the number of rows that may hold blocks
+   */
+  void rescan(final long the_columns, final long[] the_rows, final int the_stack_height) {
+    long columns = the_columns;
+    while (columns != 0) {
+      final int x = Long.numberOfTrailingZeros(columns);
+      columns &= columns - 1;
+
+      int height = the_stack_height;
+      while (height > 0 && (the_rows[height - 1] >>> x & 1L) == 0) {
+        height--;
+      }
+      int holes = 0;
+      for (int y = 0; y < height; y++) {
+        holes += (int) (~the_rows[y] >>> x & 1L);
+      }
+      my_total_holes += holes - my_holes[x];
+      my_heights[x] = height;
+      my_holes[x] = holes;
+    }
+  }
+}
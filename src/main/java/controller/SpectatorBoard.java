@@ -0,0 +1,395 @@
+/*
+ * TCSS305 Spring 2012
+ */
+
+package controller;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import model.Block;
+import model.PieceShape;
+import model.PieceState;
+
+/**
+ * A spectator's copy of a board, rebuilt from the frames of a DeltaEncoder. It
+ * does not play the game: a delta is applied as the blocks it froze, the rows
+ * it cleared and the pieces and statistics it reports, so a copy costs no more
+ * than the bookkeeping of the stack.
+ *
+ * A copy holds nothing until its first keyframe and ignores the deltas before
+ * it, so a spectator can join a stream at any frame. The pieces of a delta are
+ * checked against the board before they are applied, so a corrupt frame is
+ * reported instead of corrupting the copy. It is used by one thread.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ * @see DeltaEncoder
+ */
+public final class SpectatorBoard implements ReadableBoard {
+
+  /** The block types, indexed by their ordinals. */
+  private static final Block[] BLOCK_TYPES = Block.values();
+
+  /** The occupancy of each row. */
+  private long[] my_rows = new long[0];
+
+  /** The block ordinals of the positions, row by row. */
+  private byte[] my_cells = new byte[0];
+
+  /** The width of the board. */
+  private int my_width;
+
+  /** The height of the board. */
+  private int my_height;
+
+  /** The number of rows up to and including the highest frozen block. */
+  private int my_stack_height;
+
+  /** The packed state of the current piece. */
+  private int my_current_piece;
+
+  /** The packed state of the next piece. */
+  private int my_next_piece;
+
+  /** The packed state of the piece most recently frozen. */
+  private int my_locked_piece;
+
+  /** The number of pieces frozen in the game. */
+  private int my_lock_count;
+
+  /** The score. */
+  private int my_score;
+
+  /** The level. */
+  private int my_level;
+
+  /** The number of lines cleared towards the next level. */
+  private int my_line_count;
+
+  /** The number of lines cleared. */
+  private int my_total_lines;
+
+  /** Whether the game is still going. */
+  private boolean my_running;
+
+  /** The sequence number of the last frame applied. */
+  private int my_sequence;
+
+  /** Whether a keyframe has been applied. */
+  private boolean my_synced;
+
+  /**
+   * Applies a frame.
+   *
+   * @param the_buffer the buffer holding the frame, header first; its position
+   *          is left after the frame
+   * @return false if the frame is a delta that was ignored because no keyframe
+   *         came before it or a frame was missed since the last one
+   * @throws IOException if the frame is corrupt, after which the copy waits for
+   *           the next keyframe
+   */
+  public boolean apply(final ByteBuffer the_buffer) throws IOException {
+    boolean result = true;
+    try {
+      final int type = the_buffer.get();
+      final int sequence = the_buffer.getInt();
+      final int length = the_buffer.getShort();
+      final int end = the_buffer.position() + length;
+      if (type == DeltaEncoder.KEYFRAME) {
+        keyframe(the_buffer);
+        my_synced = true;
+      } else if (type != DeltaEncoder.DELTA) {
+        throw new IOException("frame type " + type);
+      } else if (my_synced && sequence == my_sequence + 1) {
+        delta(the_buffer);
+      } else {
+        my_synced = false; // wait for the next keyframe
+        result = false;
+      }
+      my_sequence = sequence;
+      the_buffer.position(end);
+    } catch (final BufferUnderflowException | IllegalArgumentException e) {
+      my_synced = false; // the frame may be half applied; wait for a keyframe
+      throw new IOException("corrupt frame", e);
+    }
+    return result;
+  }
+
+  /**
+   * @return whether the copy holds the game, that is, a keyframe was applied and
+   *         no frame was missed since.
+   */
+  public boolean isSynced() {
+    return my_synced;
+  }
+
+  /**
+   * @return the sequence number of the last frame applied.
+   */
+  public int getSequence() {
+    return my_sequence;
+  }
+
+  /**
+   * Replaces the game with the one saved in a keyframe.
+   *
+   * @param the_buffer the buffer, at the payload of the keyframe
+   * @throws IOException if the save is corrupt
+   */
+  private void keyframe(final ByteBuffer the_buffer) throws IOException {
+    final Board board = SaveGame.read(the_buffer);
+    my_width = board.getWidth();
+    my_height = board.getHeight();
+    my_stack_height = board.getStackHeight();
+    final int rows = Math.max(my_stack_height, my_height);
+    if (my_rows.length < rows || my_cells.length != my_rows.length * my_width) {
+      my_rows = new long[rows];
+      my_cells = new byte[rows * my_width];
+    }
+    Arrays.fill(my_rows, 0L);
+    Arrays.fill(my_cells, (byte) Block.EMPTY.ordinal());
+    for (int y = 0; y < my_stack_height; y++) {
+      my_rows[y] = board.getRowMask(y);
+      for (int x = 0; x < my_width; x++) {
+        my_cells[y * my_width + x] = (byte) board.getBlockAt(x, y).ordinal();
+      }
+    }
+    my_current_piece = board.getCurrentPieceState();
+    my_next_piece = board.getNextPieceState();
+    my_locked_piece = board.getLockedPieceState();
+    my_lock_count = board.getLockCount();
+    my_score = board.getScore();
+    my_level = board.getLevel();
+    my_line_count = board.getLineCount();
+    my_total_lines = board.getTotalLines();
+    my_running = board.isRunning();
+  }
+
+  /**
+   * Applies the changes of a delta.
+   *
+   * @param the_buffer the buffer, at the payload of the delta
+   * @throws IllegalArgumentException if a piece of the delta is not a piece of
+   *           the board
+   */
+  private void delta(final ByteBuffer the_buffer) throws IllegalArgumentException {
+    final int events = the_buffer.get();
+    if ((events & BoardEvent.PIECE_LOCKED) != 0) {
+      final int locked = the_buffer.getInt();
+      final int next = the_buffer.getInt();
+      final int cleared = the_buffer.get();
+      Board.checkPiece(locked, my_width, my_height);
+      Board.checkPiece(next, my_width, my_height);
+      my_locked_piece = locked;
+      my_next_piece = next;
+      freeze(my_locked_piece);
+      if (cleared != 0) {
+        clear(PieceState.getY(my_locked_piece), cleared);
+      }
+      my_lock_count++;
+    }
+    if ((events & BoardEvent.PIECE_MOVED) != 0) {
+      final int current = the_buffer.getInt();
+      Board.checkPiece(current, my_width, my_height);
+      my_current_piece = current;
+    }
+    if ((events & BoardEvent.STATS_CHANGED) != 0) {
+      my_score = the_buffer.getInt();
+      my_level = the_buffer.getInt();
+      my_line_count = the_buffer.getInt();
+      my_total_lines = the_buffer.getInt();
+    }
+    if ((events & BoardEvent.GAME_OVER) != 0) {
+      my_running = false;
+    }
+  }
+
+  /**
+   * Adds the blocks of a piece to the stack.
+   *
+   * @param the_state the packed state of the piece
+   */
+  private void freeze(final int the_state) {
+    final PieceShape shape = PieceState.getShape(the_state);
+    final int rotation = PieceState.getRotation(the_state);
+    final byte block = (byte) shape.getBlock().ordinal();
+    for (int i = 0; i < PieceShape.BLOCKS; i++) {
+      final int x = PieceState.getX(the_state) + shape.getCellX(rotation, i);
+      final int y = PieceState.getY(the_state) + shape.getCellY(rotation, i);
+      if (y >= my_rows.length) {
+        grow(y + 1);
+      }
+      my_rows[y] |= 1L << x;
+      my_cells[y * my_width + x] = block;
+      my_stack_height = Math.max(my_stack_height, y + 1);
+    }
+  }
+
+  /**
+   * Removes rows from the stack, moving the rows above them down.
+   *
+   * @param the_base the lowest row the mask refers to
+   * @param the_mask the rows to remove, bit i standing for row the_base + i
+   */
+  private void clear(final int the_base, final int the_mask) {
+    int kept = the_base;
+    for (int row = the_base; row < my_stack_height; row++) {
+      final int bit = row - the_base;
+      if (bit >= Integer.SIZE || (the_mask >>> bit & 1) == 0) {
+        my_rows[kept] = my_rows[row];
+        System.arraycopy(my_cells, row * my_width, my_cells, kept * my_width, my_width);
+        kept++;
+      }
+    }
+    Arrays.fill(my_rows, kept, my_stack_height, 0L);
+    Arrays.fill(my_cells, kept * my_width, my_stack_height * my_width,
+                (byte) Block.EMPTY.ordinal());
+    my_stack_height = kept;
+  }
+
+  /**
+   * Enlarges the grid so that it holds at least the given number of rows.
+   *
+   * @param the_rows the number of rows needed
+   */
+  private void grow(final int the_rows) {
+    my_rows = Arrays.copyOf(my_rows, the_rows);
+    my_cells = Arrays.copyOf(my_cells, the_rows * my_width);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getWidth() {
+    return my_width;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getHeight() {
+    return my_height;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getStackHeight() {
+    return my_stack_height;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getRowMask(final int the_y) {
+    long result = 0L;
+    if (the_y >= 0 && the_y < my_stack_height) {
+      result = my_rows[the_y];
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Block getBlockAt(final int the_x, final int the_y) throws IllegalArgumentException {
+    if (the_x >= my_width || the_x < 0 || the_y < 0) { // outside the board
+      throw new IllegalArgumentException("x: " + the_x + " y: " + the_y);
+    }
+    Block result = Block.EMPTY; // blocks above the stack are empty
+    if (the_y < my_stack_height) {
+      result = BLOCK_TYPES[my_cells[the_y * my_width + the_x]];
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getCurrentPieceState() {
+    return my_current_piece;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getNextPieceState() {
+    return my_next_piece;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLockedPieceState() {
+    return my_locked_piece;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * The hash is computed from scratch, so it costs a pass over the stack.
+   */
+  @Override
+  public long getHash() {
+    return Zobrist.hash(this);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLockCount() {
+    return my_lock_count;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getScore() {
+    return my_score;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLevel() {
+    return my_level;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLineCount() {
+    return my_line_count;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getTotalLines() {
+    return my_total_lines;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isRunning() {
+    return my_running;
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * TCSS305 Spring 2012
+ */
+
+package controller;
+
+import java.util.SplittableRandom;
+
+import model.Block;
+
+/**
+ * The keys of the 64-bit Zobrist hash of a board position: the frozen blocks,
+ * the current piece and the next piece.
+ *
+ * A row is hashed by XOR-ing a random key for each of its blocks, chosen by block
+ * type and column. The frozen grid is the sum of its row hashes, each multiplied
+ * by an odd random weight for its row, so that when a line clear moves a row only
+ * that row's term changes; a board keeps the row hashes and the sum up to date as
+ * blocks freeze and lines clear. The pieces are hashed from their packed states.
+ * The keys come from a fixed seed and so are the same in every run, which lets
+ * hashes from different machines be compared.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ * @see Board#getHash()
+ */
+public final class Zobrist {
+
+  /** The seed of the keys. */
+  private static final long SEED = 0x7e7215305L;
+
+  /** The number of columns a board can have. */
+  private static final int COLUMNS = Long.SIZE;
+
+  /** The salt separating the keys of the next piece from those of the current one. */
+  private static final long NEXT_SALT = 0x6a09e667f3bcc909L;
+
+  /** The increment of the row weight sequence. */
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  /** The keys of the blocks, indexed by block ordinal and then column. */
+  private static final long[][] CELL_KEYS = new long[Block.values().length][COLUMNS];
+
+  static {
+    final SplittableRandom random = new SplittableRandom(SEED);
+    // EMPTY keeps keys of 0, so empty positions do not change a row's hash
+    for (int block = Block.EMPTY.ordinal() + 1; block < CELL_KEYS.length; block++) {
+      for (int x = 0; x < COLUMNS; x++) {
+        CELL_KEYS[block][x] = random.nextLong();
+      }
+    }
+  }
+
+  /**
+   * Prevents instantiation of this utility class.
+   */
+  private Zobrist() {
+    // nothing to do
+  }
+
+  /**
+   * Returns the key of a block, to be XOR-ed into the hash of its row.
+   *
+   * @param the_block the ordinal of the block type
+   * @param the_x the column
+   * @return the key, 0 for an empty position
+   */
+  public static long cellKey(final int the_block, final int the_x) {
+    return CELL_KEYS[the_block][the_x];
+  }
+
+  /**
+   * Returns the key of a row of the given occupancy, for hashing grids whose
+   * block types do not matter, such as a search's copies of a board. Such a grid
+   * is hashed as the sum of its row keys times their row weights.
+   *
+   * @param the_mask the occupancy mask of the row
+   * @return the key, 0 for an empty row
+   */
+  public static long rowKey(final long the_mask) {
+    return mix(the_mask);
+  }
+
+  /**
+   * Returns the weight of a row in the hash of the grid.
+   *
+   * @param the_y the row
+   * @return an odd weight
+   */
+  public static long rowWeight(final int the_y) {
+    return mix(SEED + (the_y + 1) * GOLDEN_GAMMA) | 1L;
+  }
+
+  /**
+   * Returns the key of the current piece.
+   *
+   * @param the_state the packed state of the piece
+   * @return the key
+   */
+  public static long currentPieceKey(final int the_state) {
+    return mix(the_state);
+  }
+
+  /**
+   * Returns the key of the next piece.
+   *
+   * @param the_state the packed state of the piece
+   * @return the key
+   */
+  public static long nextPieceKey(final int the_state) {
+    return mix(the_state ^ NEXT_SALT);
+  }
+
+  /**
+   * Computes the hash of a position from scratch, as a check of a hash kept up
+   * to date by a board.
+   *
+   * @param the_board the position
+   * @return the hash, equal to the board's getHash()
+   */
+  public static long hash(final ReadableBoard the_board) {
+    long grid = 0L;
+    for (int y = 0; y < the_board.getStackHeight(); y++) {
+      long row = 0L;
+      for (int x = 0; x < the_board.getWidth(); x++) {
+        row ^= cellKey(the_board.getBlockAt(x, y).ordinal(), x);
+      }
+      grid += row * rowWeight(y);
+    }
+    return grid ^ currentPieceKey(the_board.getCurrentPieceState()) ^
+           nextPieceKey(the_board.getNextPieceState());
+  }
+
+  /**
+   * Scrambles the bits of a value (the SplitMix64 finalizer).
+   *
+   * @param the_value the value
+   * @return the scrambled value
+   */
+  private static long mix(final long the_value) {
+    long result = (the_value ^ the_value >>> 30) * 0xbf58476d1ce4e5b9L;
+    result = (result ^ result >>> 27) * 0x94d049bb133111ebL;
+    return result ^ result >>> 31;
+  }
+}
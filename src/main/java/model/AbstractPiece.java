@@ -5,8 +5,10 @@
 package model;
 
 /**
- * Provides default behavior for Tetris Pieces.
- * 
+ * Provides default behavior for Tetris Pieces. The rotational states are held
+ * in a PieceShape that is shared by every piece of the same type, so a piece
+ * only stores its own position and rotation.
+ *
  * @author Alan Fowler
  * @version Spring 2012
  */
@@ -15,7 +17,7 @@ public abstract class AbstractPiece implements Piece, Cloneable {
   /**
    * The number of blocks in a piece.
    */
-  private static final int BLOCKS = 4;
+  private static final int BLOCKS = PieceShape.BLOCKS;
 
   /** The x coordinate of this Piece. */
   private int my_x;
@@ -23,32 +25,26 @@ public abstract class AbstractPiece implements Piece, Cloneable {
   /** The y coordinate of this Piece. */
   private int my_y;
 
-  /** The rotational states of this Piece. */
-  private int[][][] my_rotations;
+  /** The shared rotational states of this Piece. */
+  private final PieceShape my_shape;
 
   /** The index of the current rotational state of this Piece. */
   private int my_current_rotation;
-  
-  /** The block type representing this piece. */
-  private final Block my_block;
 
   /**
    * Creates a new piece at the given coordinates.
-   * 
-   * @param the_rotations the rotational states for this Piece
+   *
+   * @param the_shape the shared rotational states for this Piece
    * @param the_x the initial x coordinate for this piece
    * @param the_y the initial y coordinate for this piece
-   * @param the_block the type of block
    */
-  protected AbstractPiece(final int[][][] the_rotations,
+  protected AbstractPiece(final PieceShape the_shape,
                           final int the_x,
-                          final int the_y,
-                          final Block the_block) {
-    my_rotations = the_rotations.clone();
+                          final int the_y) {
+    my_shape = the_shape;
     my_current_rotation = 0;
     my_x = the_x;
     my_y = the_y;
-    my_block = the_block;
   }
 
   /**
@@ -80,7 +76,7 @@ public abstract class AbstractPiece implements Piece, Cloneable {
    */
   @Override
   public void rotate() {
-    my_current_rotation = (my_current_rotation + 1) % my_rotations.length;
+    my_current_rotation = (my_current_rotation + 1) % my_shape.getRotationCount();
   }
 
   /**
@@ -99,6 +95,14 @@ public abstract class AbstractPiece implements Piece, Cloneable {
     return my_y;
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getRotation() {
+    return my_current_rotation;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -107,18 +111,18 @@ public abstract class AbstractPiece implements Piece, Cloneable {
     final int[][] result = new int[BLOCKS][2];
 
     for (int i = 0; i < BLOCKS; i++) {
-      result[i][0] = my_rotations[my_current_rotation][i][0] + my_x;
-      result[i][1] = my_rotations[my_current_rotation][i][1] + my_y;
+      result[i][0] = my_shape.getCellX(my_current_rotation, i) + my_x;
+      result[i][1] = my_shape.getCellY(my_current_rotation, i) + my_y;
     }
     return result;
   }
-  
+
   /**
    * {@inheritDoc}
    */
   @Override
   public Block getBlock() {
-    return my_block;
+    return my_shape.getBlock();
   }
 
   /**
@@ -132,7 +136,6 @@ public abstract class AbstractPiece implements Piece, Cloneable {
     } catch (final CloneNotSupportedException e) {
       e.printStackTrace();
     }
-    result.my_rotations = my_rotations.clone();
     return result;
   }
 
@@ -142,25 +145,19 @@ public abstract class AbstractPiece implements Piece, Cloneable {
   @Override
   public String toString() {
 
-    final int width = width();
-    final int height = height();
+    final int width = my_shape.getWidth(my_current_rotation);
+    final int height = my_shape.getHeight(my_current_rotation);
     final StringBuilder sb = new StringBuilder();
 
     // Construct the string by walking through the piece top to bottom, left to
     // right.
     for (int j = height - 1; j >= 0; j--) {
+      final int row = my_shape.getRowMask(my_current_rotation, j);
       for (int i = 0; i < width; i++) {
-        boolean found = false;
-        for (int b = 0; b < BLOCKS; b++) {
-          if (my_rotations[my_current_rotation][b][0] == i &&
-              my_rotations[my_current_rotation][b][1] == j) {
-            // There is a block here, so print and move on
-            sb.append("[]");
-            found = true;
-            break;
-          }
-        }
-        if (!found) {
+        if ((row >>> i & 1) != 0) {
+          // There is a block here
+          sb.append("[]");
+        } else {
           // None of the blocks are here, so put in empty space
           sb.append("  ");
         }
@@ -171,42 +168,18 @@ public abstract class AbstractPiece implements Piece, Cloneable {
     return sb.toString();
   }
 
-  /**
-   * Returns the width of this piece.
-   * 
-   * @return The width of this piece
-   */
-  private int width() {
-    int result = 0;
-    for (int i = 0; i < BLOCKS; i++) {
-      if (my_rotations[my_current_rotation][i][0] > result) {
-        result = my_rotations[my_current_rotation][i][0];
-      }
-    }
-    return result + 1;
-  }
-
-  /**
-   * Returns the height of this piece.
-   * 
-   * @return The height of this piece
-   */
-  private int height() {
-    int result = 0;
-    for (int i = 0; i < BLOCKS; i++) {
-      if (my_rotations[my_current_rotation][i][1] > result) {
-        result = my_rotations[my_current_rotation][i][1];
-      }
-    }
-    return result + 1;
-  }
-  
   /**
    * {@inheritDoc}
    */
   @Override
   public final int[][] getBlockLocations() {
-    return my_rotations[my_current_rotation].clone();
+    final int[][] result = new int[BLOCKS][2];
+
+    for (int i = 0; i < BLOCKS; i++) {
+      result[i][0] = my_shape.getCellX(my_current_rotation, i);
+      result[i][1] = my_shape.getCellY(my_current_rotation, i);
+    }
+    return result;
   }
 
 }
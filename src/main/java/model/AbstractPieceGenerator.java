@@ -0,0 +1,115 @@
+/*
+ * TCSS 305 - Project Tetris
+ */
+
+package model;
+
+/**
+ * Provides default behavior for seeded piece generators. Piece types are drawn
+ * ahead of time in fixed-size blocks; block k is generated from its own random
+ * sequence seeded from the generator seed and k, so a generator is reproducible
+ * from its seed and never shares random state with another board.
+ * 
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public abstract class AbstractPieceGenerator implements PieceGenerator {
+
+  /** The number of piece types. */
+  protected static final int PIECE_TYPES = 7;
+
+  /** The block types that pieces are made of, without EMPTY. */
+  private static final Block[] TYPES = {Block.I, Block.J, Block.L, Block.O,
+                                        Block.S, Block.T, Block.Z};
+
+  /** The increment between the seeds of consecutive blocks. */
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  /** The seed of this generator. */
+  private final long my_seed;
+
+  /** The pre-generated piece types, as indexes into TYPES. */
+  private final byte[] my_block;
+
+  /** The source of randomness, reseeded for each block. */
+  private final BlockRandom my_random = new BlockRandom();
+
+  /** The number of blocks generated so far. */
+  private long my_blocks;
+
+  /** The index of the next piece type in the current block. */
+  private int my_position;
+
+  /**
+   * Creates a generator.
+   * 
+   * @param the_seed the seed of the generator
+   * @param the_block_size the number of piece types generated at a time
+   */
+  protected AbstractPieceGenerator(final long the_seed, final int the_block_size) {
+    my_seed = the_seed;
+    my_block = new byte[the_block_size];
+    my_position = the_block_size;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int next(final int the_x, final int the_y) {
+    if (my_position == my_block.length) {
+      my_random.reseed(my_seed + my_blocks * GOLDEN_GAMMA);
+      fill(my_block, my_random);
+      my_blocks++;
+      my_position = 0;
+    }
+    return PieceState.pack(TYPES[my_block[my_position++]], 0, the_x, the_y);
+  }
+
+  /**
+   * @return the seed of this generator.
+   */
+  public long getSeed() {
+    return my_seed;
+  }
+
+  /**
+   * @return the number of pieces generated so far.
+   */
+  public long getIndex() {
+    return my_blocks * my_block.length - (my_block.length - my_position);
+  }
+
+  /**
+   * Moves the generator to the given piece of its sequence, so that next returns
+   * that piece. Since each block is generated from the seed and its number
+   * alone, this only regenerates the block holding the piece.
+   * 
+   * @param the_index the number of pieces to skip from the start, not negative
+   * @throws IllegalArgumentException if the_index is negative
+   */
+  public void seek(final long the_index) throws IllegalArgumentException {
+    if (the_index < 0) {
+      throw new IllegalArgumentException("index: " + the_index);
+    }
+    final long block = the_index / my_block.length;
+    my_position = (int) (the_index % my_block.length);
+    if (my_position == 0) {
+      my_blocks = block; // the next call generates the block
+      my_position = my_block.length;
+    } else {
+      my_random.reseed(my_seed + block * GOLDEN_GAMMA);
+      fill(my_block, my_random);
+      my_blocks = block + 1;
+    }
+  }
+
+  /**
+   * Generates the next block of piece types.
+   * 
+   * @param the_block the block to fill with piece type indexes, 0 to PIECE_TYPES - 1
+   * @param the_random the source of randomness for this block
+   */
+  protected abstract void fill(byte[] the_block, BlockRandom the_random);
+
+}
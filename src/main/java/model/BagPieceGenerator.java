@@ -0,0 +1,53 @@
+/*
+ * TCSS 305 - Project Tetris
+ */
+
+package model;
+
+import java.util.SplittableRandom;
+
+/**
+ * Deals the pieces from shuffled bags that hold one piece of each type (the
+ * "7-bag"), so every type appears once in each run of seven pieces.
+ * 
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class BagPieceGenerator extends AbstractPieceGenerator {
+
+  /** The number of bags generated at a time. */
+  private static final int BAGS = 8;
+
+  /**
+   * Creates a generator with the given seed.
+   * 
+   * @param the_seed the seed
+   */
+  public BagPieceGenerator(final long the_seed) {
+    super(the_seed, BAGS * PIECE_TYPES);
+  }
+
+  /**
+   * Creates a generator with a seed that is very likely to differ from any
+   * other generator's.
+   */
+  public BagPieceGenerator() {
+    this(new SplittableRandom().nextLong());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void fill(final byte[] the_block, final BlockRandom the_random) {
+    for (int bag = 0; bag < the_block.length; bag += PIECE_TYPES) {
+      // Fisher-Yates shuffle of one piece of each type
+      for (int i = 0; i < PIECE_TYPES; i++) {
+        final int j = the_random.nextInt(i + 1);
+        the_block[bag + i] = the_block[bag + j];
+        the_block[bag + j] = (byte) i;
+      }
+    }
+  }
+
+}
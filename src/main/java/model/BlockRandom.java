@@ -0,0 +1,85 @@
+/*
+ * TCSS 305 - Project Tetris
+ */
+
+package model;
+
+/**
+ * The source of randomness for one block of piece types. It yields the same
+ * numbers as a SplittableRandom created with the same seed, so sequences, saved
+ * games and recordings are unchanged, but it is reseeded in place instead of
+ * being created for each block, so drawing a new block allocates nothing.
+ * 
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class BlockRandom {
+
+  /** The increment of the seed, the one a seeded SplittableRandom uses. */
+  private static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+  /** The first multiplier of the 32-bit mix. */
+  private static final long MIX_1 = 0x62a9d9ed799705f5L;
+
+  /** The second multiplier of the 32-bit mix. */
+  private static final long MIX_2 = 0xcb24d0a5c88c35b3L;
+
+  /** The first shift of the 32-bit mix. */
+  private static final int SHIFT_1 = 33;
+
+  /** The second shift of the 32-bit mix. */
+  private static final int SHIFT_2 = 28;
+
+  /** The current seed. */
+  private long my_seed;
+
+  /**
+   * Creates a source; it must be seeded before use.
+   */
+  BlockRandom() {
+    // seeded for each block
+  }
+
+  /**
+   * Starts the sequence of the given seed.
+   * 
+   * @param the_seed the seed
+   */
+  void reseed(final long the_seed) {
+    my_seed = the_seed;
+  }
+
+  /**
+   * Returns the next number of the sequence below a bound, as
+   * SplittableRandom.nextInt(int) does.
+   * 
+   * @param the_bound the bound, positive
+   * @return a number from 0 to the_bound - 1
+   */
+  public int nextInt(final int the_bound) {
+    int result = nextInt();
+    final int mask = the_bound - 1;
+    if ((the_bound & mask) == 0) {
+      result &= mask;
+    } else {
+      // reject the top values that would favor the low numbers
+      int bits = result >>> 1;
+      result = bits % the_bound;
+      while (bits + mask - result < 0) {
+        bits = nextInt() >>> 1;
+        result = bits % the_bound;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the next 32 random bits.
+   */
+  private int nextInt() {
+    my_seed += GAMMA;
+    long z = my_seed;
+    z = (z ^ (z >>> SHIFT_1)) * MIX_1;
+    return (int) (((z ^ (z >>> SHIFT_2)) * MIX_2) >>> Integer.SIZE);
+  }
+}
@@ -12,12 +12,6 @@ package model;
  */
 public final class IPiece extends AbstractPiece {
 
-  /**
-   * The x and y-coordinates for all rotations of a IPiece.
-   */
-  private static final int[][][] MY_ROTATIONS = {{{0, 0}, {1, 0}, {2, 0}, {3, 0}},
-                                                 {{0, 0}, {0, 1}, {0, 2}, {0, 3}}};
-
   /**
    * Creates a new I piece at the given coordinates.
    * 
@@ -25,7 +19,7 @@ public final class IPiece extends AbstractPiece {
    * @param the_y The y coordinate of the piece
    */
   public IPiece(final int the_x, final int the_y) {
-    super(MY_ROTATIONS, the_x, the_y, Block.I);
+    super(PieceShape.forBlock(Block.I), the_x, the_y);
   }
 
 }
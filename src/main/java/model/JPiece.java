@@ -12,14 +12,6 @@ package model;
  */
 public final class JPiece extends AbstractPiece {
 
-  /**
-   * The x and y-coordinates for all rotations of a JPiece.
-   */
-  private static final int[][][] MY_ROTATIONS = {{{0, 0}, {1, 0}, {2, 0}, {0, 1}},
-                                                 {{0, 0}, {1, 0}, {1, 1}, {1, 2}},
-                                                 {{2, 0}, {0, 1}, {1, 1}, {2, 1}},
-                                                 {{0, 0}, {0, 1}, {0, 2}, {1, 2}}};
-
   /**
    * Creates a new J piece at the given coordinates.
    * 
@@ -27,7 +19,7 @@ public final class JPiece extends AbstractPiece {
    * @param the_y The y coordinate of the piece
    */
   public JPiece(final int the_x, final int the_y) {
-    super(MY_ROTATIONS, the_x, the_y, Block.J);
+    super(PieceShape.forBlock(Block.J), the_x, the_y);
   }
 
 }
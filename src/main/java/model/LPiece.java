@@ -12,14 +12,6 @@ package model;
  */
 public final class LPiece extends AbstractPiece {
 
-  /**
-   * The x and y-coordinates for all rotations of a LPiece.
-   */
-  private static final int[][][] MY_ROTATIONS = {{{0, 0}, {1, 0}, {2, 0}, {2, 1}},
-                                                 {{1, 0}, {1, 1}, {0, 2}, {1, 2}},
-                                                 {{0, 0}, {0, 1}, {1, 1}, {2, 1}},
-                                                 {{0, 0}, {1, 0}, {0, 1}, {0, 2}}};
-
   /**
    * Creates a new L piece at the given coordinates.
    * 
@@ -27,7 +19,7 @@ public final class LPiece extends AbstractPiece {
    * @param the_y The y coordinate of the piece
    */
   public LPiece(final int the_x, final int the_y) {
-    super(MY_ROTATIONS, the_x, the_y, Block.L);
+    super(PieceShape.forBlock(Block.L), the_x, the_y);
   }
 
 }
@@ -0,0 +1,49 @@
+/*
+ * TCSS 305 - Project Tetris
+ */
+
+package model;
+
+import java.util.List;
+
+/**
+ * Plays a predetermined sequence of pieces, at the positions they were created
+ * with, and then continues with another generator when the sequence runs out.
+ * 
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class ListPieceGenerator implements PieceGenerator {
+
+  /** The pieces still to be played; pieces are removed as they are used. */
+  private final List<Piece> my_pieces;
+
+  /** The generator used once the list is empty. */
+  private final PieceGenerator my_fallback;
+
+  /**
+   * Creates a generator for the given pieces.
+   * 
+   * @param the_pieces the sequence of pieces, consumed as the game is played
+   * @param the_fallback the generator to use after the last piece
+   */
+  public ListPieceGenerator(final List<Piece> the_pieces, final PieceGenerator the_fallback) {
+    my_pieces = the_pieces;
+    my_fallback = the_fallback;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int next(final int the_x, final int the_y) {
+    final int result;
+    if (my_pieces.isEmpty()) {
+      result = my_fallback.next(the_x, the_y);
+    } else {
+      result = PieceState.of(my_pieces.remove(0));
+    }
+    return result;
+  }
+
+}
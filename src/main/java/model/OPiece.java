@@ -12,11 +12,6 @@ package model;
  */
 public final class OPiece extends AbstractPiece {
 
-  /**
-   * The x and y-coordinates for all rotations of a OPiece.
-   */
-  private static final int[][][] MY_ROTATIONS = {{{0, 0}, {1, 0}, {0, 1}, {1, 1}}};
-
   /**
    * Creates a new O piece at the given coordinates.
    * 
@@ -24,7 +19,7 @@ public final class OPiece extends AbstractPiece {
    * @param the_y The y coordinate of the piece
    */
   public OPiece(final int the_x, final int the_y) {
-    super(MY_ROTATIONS, the_x, the_y, Block.O);
+    super(PieceShape.forBlock(Block.O), the_x, the_y);
   }
 
 }
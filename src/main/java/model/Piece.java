@@ -31,6 +31,11 @@ public interface Piece extends Cloneable {
    */
   int getY();
 
+  /**
+   * @return the index of the current rotational state of this Piece.
+   */
+  int getRotation();
+
   /**
    * @return the current state of this Piece translated to board coordinates.
    */
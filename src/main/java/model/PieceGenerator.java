@@ -0,0 +1,22 @@
+
+package model;
+
+/**
+ * Chooses the pieces that a board plays, one board at a time.
+ * 
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public interface PieceGenerator {
+
+  /**
+   * Produces the next piece.
+   * 
+   * @param the_x the x coordinate at which new pieces appear
+   * @param the_y the y coordinate at which new pieces appear
+   * @return the packed state of the next piece
+   * @see PieceState
+   */
+  int next(int the_x, int the_y);
+
+}
@@ -0,0 +1,237 @@
+/*
+ * TCSS 305 - Project Tetris
+ */
+
+package model;
+
+import java.util.Arrays;
+
+/**
+ * The immutable geometry of one kind of Tetris piece. For every rotational state
+ * a shape knows its block offsets, its bounding box and one occupancy mask per
+ * row (bit c set when column offset c holds a block), so that a board can test
+ * a whole row of a piece with a single shift and AND. There is exactly one
+ * shape per block type and it is shared by every piece of that type.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class PieceShape {
+
+  /**
+   * The number of blocks in a piece.
+   */
+  public static final int BLOCKS = 4;
+
+  /**
+   * The shapes of all pieces, indexed by the ordinal of their block type.
+   */
+  private static final PieceShape[] SHAPES = new PieceShape[Block.values().length];
+
+  /**
+   * The x and y-coordinates for all rotations of an IPiece.
+   */
+  private static final int[][][] I_ROTATIONS = {{{0, 0}, {1, 0}, {2, 0}, {3, 0}},
+                                                {{0, 0}, {0, 1}, {0, 2}, {0, 3}}};
+
+  /**
+   * The x and y-coordinates for all rotations of a JPiece.
+   */
+  private static final int[][][] J_ROTATIONS = {{{0, 0}, {1, 0}, {2, 0}, {0, 1}},
+                                                {{0, 0}, {1, 0}, {1, 1}, {1, 2}},
+                                                {{2, 0}, {0, 1}, {1, 1}, {2, 1}},
+                                                {{0, 0}, {0, 1}, {0, 2}, {1, 2}}};
+
+  /**
+   * The x and y-coordinates for all rotations of an LPiece.
+   */
+  private static final int[][][] L_ROTATIONS = {{{0, 0}, {1, 0}, {2, 0}, {2, 1}},
+                                                {{1, 0}, {1, 1}, {0, 2}, {1, 2}},
+                                                {{0, 0}, {0, 1}, {1, 1}, {2, 1}},
+                                                {{0, 0}, {1, 0}, {0, 1}, {0, 2}}};
+
+  /**
+   * The x and y-coordinates for all rotations of an OPiece.
+   */
+  private static final int[][][] O_ROTATIONS = {{{0, 0}, {1, 0}, {0, 1}, {1, 1}}};
+
+  /**
+   * The x and y-coordinates for all rotations of an SPiece.
+   */
+  private static final int[][][] S_ROTATIONS = {{{0, 0}, {1, 0}, {1, 1}, {2, 1}},
+                                                {{1, 0}, {0, 1}, {1, 1}, {0, 2}}};
+
+  /**
+   * The x and y-coordinates for all rotations of a TPiece.
+   */
+  private static final int[][][] T_ROTATIONS = {{{0, 0}, {1, 0}, {2, 0}, {1, 1}},
+                                                {{1, 0}, {0, 1}, {1, 1}, {1, 2}},
+                                                {{1, 0}, {0, 1}, {1, 1}, {2, 1}},
+                                                {{0, 0}, {0, 1}, {1, 1}, {0, 2}}};
+
+  /**
+   * The x and y-coordinates for all rotations of a ZPiece.
+   */
+  private static final int[][][] Z_ROTATIONS = {{{1, 0}, {2, 0}, {0, 1}, {1, 1}},
+                                                {{0, 0}, {0, 1}, {1, 1}, {1, 2}}};
+
+  static {
+    register(Block.I, I_ROTATIONS);
+    register(Block.J, J_ROTATIONS);
+    register(Block.L, L_ROTATIONS);
+    register(Block.O, O_ROTATIONS);
+    register(Block.S, S_ROTATIONS);
+    register(Block.T, T_ROTATIONS);
+    register(Block.Z, Z_ROTATIONS);
+  }
+
+  /** The block type of this shape. */
+  private final Block my_block;
+
+  /** The x offset of each block, indexed by rotation and then block. */
+  private final int[][] my_cell_x;
+
+  /** The y offset of each block, indexed by rotation and then block. */
+  private final int[][] my_cell_y;
+
+  /** The occupancy mask of each row, indexed by rotation and then row offset. */
+  private final int[][] my_row_masks;
+
+  /** The lowest row offset of each column, indexed by rotation and then column. */
+  private final int[][] my_bottoms;
+
+  /** The width of each rotation. */
+  private final int[] my_widths;
+
+  /** The height of each rotation. */
+  private final int[] my_heights;
+
+  /**
+   * Creates the shape for the given rotation table.
+   *
+   * @param the_block the block type of the shape
+   * @param the_rotations the block offsets of every rotational state
+   */
+  private PieceShape(final Block the_block, final int[][][] the_rotations) {
+    final int count = the_rotations.length;
+    my_block = the_block;
+    my_cell_x = new int[count][BLOCKS];
+    my_cell_y = new int[count][BLOCKS];
+    my_row_masks = new int[count][BLOCKS];
+    my_bottoms = new int[count][BLOCKS];
+    my_widths = new int[count];
+    my_heights = new int[count];
+
+    for (int rotation = 0; rotation < count; rotation++) {
+      Arrays.fill(my_bottoms[rotation], BLOCKS);
+      for (int i = 0; i < BLOCKS; i++) {
+        final int x = the_rotations[rotation][i][0];
+        final int y = the_rotations[rotation][i][1];
+        my_cell_x[rotation][i] = x;
+        my_cell_y[rotation][i] = y;
+        my_row_masks[rotation][y] |= 1 << x;
+        my_bottoms[rotation][x] = Math.min(my_bottoms[rotation][x], y);
+        my_widths[rotation] = Math.max(my_widths[rotation], x + 1);
+        my_heights[rotation] = Math.max(my_heights[rotation], y + 1);
+      }
+    }
+  }
+
+  /**
+   * Records the shape of the given block type.
+   *
+   * @param the_block the block type
+   * @param the_rotations the block offsets of every rotational state
+   */
+  private static void register(final Block the_block, final int[][][] the_rotations) {
+    SHAPES[the_block.ordinal()] = new PieceShape(the_block, the_rotations);
+  }
+
+  /**
+   * Returns the shape of pieces made of the given block type.
+   *
+   * @param the_block the block type
+   * @return the shared shape for that block type
+   * @throws IllegalArgumentException if the_block is EMPTY
+   */
+  public static PieceShape forBlock(final Block the_block) throws IllegalArgumentException {
+    final PieceShape result = SHAPES[the_block.ordinal()];
+    if (result == null) {
+      throw new IllegalArgumentException("No shape for " + the_block.name());
+    }
+    return result;
+  }
+
+  /**
+   * @return the block type of this shape.
+   */
+  public Block getBlock() {
+    return my_block;
+  }
+
+  /**
+   * @return the number of distinct rotational states of this shape.
+   */
+  public int getRotationCount() {
+    return my_widths.length;
+  }
+
+  /**
+   * @param the_rotation the rotational state
+   * @return the number of columns covered by the given rotation.
+   */
+  public int getWidth(final int the_rotation) {
+    return my_widths[the_rotation];
+  }
+
+  /**
+   * @param the_rotation the rotational state
+   * @return the number of rows covered by the given rotation.
+   */
+  public int getHeight(final int the_rotation) {
+    return my_heights[the_rotation];
+  }
+
+  /**
+   * Returns the occupancy of one row of the given rotation. Bit c of the result
+   * is set when the block at column offset c is part of the piece.
+   *
+   * @param the_rotation the rotational state
+   * @param the_row the row offset from the bottom of the piece
+   * @return the row mask
+   */
+  public int getRowMask(final int the_rotation, final int the_row) {
+    return my_row_masks[the_rotation][the_row];
+  }
+
+  /**
+   * Returns the row offset of the lowest block in one column of the given
+   * rotation; a piece resting on a column of height h has its bottom row at
+   * h minus this offset.
+   *
+   * @param the_rotation the rotational state
+   * @param the_column the column offset, less than the width of the rotation
+   * @return the lowest row offset holding a block in the column
+   */
+  public int getBottom(final int the_rotation, final int the_column) {
+    return my_bottoms[the_rotation][the_column];
+  }
+
+  /**
+   * @param the_rotation the rotational state
+   * @param the_index the index of the block, 0 to 3
+   * @return the x offset of the block.
+   */
+  public int getCellX(final int the_rotation, final int the_index) {
+    return my_cell_x[the_rotation][the_index];
+  }
+
+  /**
+   * @param the_rotation the rotational state
+   * @param the_index the index of the block, 0 to 3
+   * @return the y offset of the block.
+   */
+  public int getCellY(final int the_rotation, final int the_index) {
+    return my_cell_y[the_rotation][the_index];
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * TCSS 305 - Project Tetris
+ */
+
+package model;
+
+/**
+ * Packs the state of a live piece (block type, rotation, x and y) into a single
+ * int so that a board can move, rotate and copy pieces without allocating. The
+ * layout, from the least significant bit, is 3 bits of block ordinal, 2 bits of
+ * rotation, 10 bits of biased x and 16 bits of biased y. The Piece interface
+ * remains available through {@link #toPiece(int)}.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class PieceState {
+
+  /** The number of bits holding the block ordinal. */
+  private static final int BLOCK_BITS = 3;
+
+  /** The number of bits holding the rotation. */
+  private static final int ROTATION_BITS = 2;
+
+  /** The number of bits holding the x coordinate. */
+  private static final int X_BITS = 10;
+
+  /** The number of bits holding the y coordinate. */
+  private static final int Y_BITS = 16;
+
+  /** The position of the rotation field. */
+  private static final int ROTATION_SHIFT = BLOCK_BITS;
+
+  /** The position of the x field. */
+  private static final int X_SHIFT = ROTATION_SHIFT + ROTATION_BITS;
+
+  /** The position of the y field. */
+  private static final int Y_SHIFT = X_SHIFT + X_BITS;
+
+  /** The bias added to x so that negative coordinates can be stored. */
+  private static final int X_BIAS = 1 << (X_BITS - 1);
+
+  /** The bias added to y so that negative coordinates can be stored. */
+  private static final int Y_BIAS = 1 << (Y_BITS - 1);
+
+  /** The largest y coordinate that can be stored. */
+  public static final int MAX_Y = (1 << Y_BITS) - 1 - Y_BIAS;
+
+  /** The block types, indexed by ordinal. */
+  private static final Block[] BLOCK_TYPES = Block.values();
+
+  /**
+   * Prevents instantiation of this utility class.
+   */
+  private PieceState() {
+    // nothing to do
+  }
+
+  /**
+   * Packs the given piece state.
+   *
+   * @param the_block the block type of the piece
+   * @param the_rotation the index of the rotational state
+   * @param the_x the x coordinate
+   * @param the_y the y coordinate
+   * @return the packed state
+   */
+  public static int pack(final Block the_block, final int the_rotation,
+                         final int the_x, final int the_y) {
+    return the_block.ordinal() | the_rotation << ROTATION_SHIFT |
+           (the_x + X_BIAS) << X_SHIFT | (the_y + Y_BIAS) << Y_SHIFT;
+  }
+
+  /**
+   * Packs the state of the given piece.
+   *
+   * @param the_piece the piece
+   * @return the packed state
+   */
+  public static int of(final Piece the_piece) {
+    return pack(the_piece.getBlock(), the_piece.getRotation(),
+                the_piece.getX(), the_piece.getY());
+  }
+
+  /**
+   * @param the_state a packed state
+   * @return the block type of the piece.
+   */
+  public static Block getBlock(final int the_state) {
+    return BLOCK_TYPES[the_state & (1 << BLOCK_BITS) - 1];
+  }
+
+  /**
+   * @param the_state a packed state
+   * @return the shared shape of the piece.
+   */
+  public static PieceShape getShape(final int the_state) {
+    return PieceShape.forBlock(getBlock(the_state));
+  }
+
+  /**
+   * @param the_state a packed state
+   * @return the index of the rotational state of the piece.
+   */
+  public static int getRotation(final int the_state) {
+    return the_state >>> ROTATION_SHIFT & (1 << ROTATION_BITS) - 1;
+  }
+
+  /**
+   * @param the_state a packed state
+   * @return the x coordinate of the piece.
+   */
+  public static int getX(final int the_state) {
+    return (the_state >>> X_SHIFT & (1 << X_BITS) - 1) - X_BIAS;
+  }
+
+  /**
+   * @param the_state a packed state
+   * @return the y coordinate of the piece.
+   */
+  public static int getY(final int the_state) {
+    return (the_state >>> Y_SHIFT & (1 << Y_BITS) - 1) - Y_BIAS;
+  }
+
+  /**
+   * Moves a piece by the given offsets.
+   *
+   * @param the_state a packed state
+   * @param the_dx the change in x
+   * @param the_dy the change in y
+   * @return the packed state of the moved piece
+   */
+  public static int translate(final int the_state, final int the_dx, final int the_dy) {
+    return the_state + (the_dx << X_SHIFT) + (the_dy << Y_SHIFT);
+  }
+
+  /**
+   * Rotates a piece one quarter turn CCW.
+   *
+   * @param the_state a packed state
+   * @return the packed state of the rotated piece
+   */
+  public static int rotate(final int the_state) {
+    final int rotation = (getRotation(the_state) + 1) % getShape(the_state).getRotationCount();
+    return the_state & ~((1 << ROTATION_BITS) - 1 << ROTATION_SHIFT) |
+           rotation << ROTATION_SHIFT;
+  }
+
+  /**
+   * Returns a piece with the given state. The piece is a copy; changing it does
+   * not change the state it was made from.
+   *
+   * @param the_state a packed state
+   * @return a new piece
+   */
+  public static Piece toPiece(final int the_state) {
+    final int x = getX(the_state);
+    final int y = getY(the_state);
+    final Piece result;
+
+    switch (getBlock(the_state)) {
+      case I:
+        result = new IPiece(x, y);
+        break;
+
+      case J:
+        result = new JPiece(x, y);
+        break;
+
+      case L:
+        result = new LPiece(x, y);
+        break;
+
+      case O:
+        result = new OPiece(x, y);
+        break;
+
+      case S:
+        result = new SPiece(x, y);
+        break;
+
+      case T:
+        result = new TPiece(x, y);
+        break;
+
+      default:
+        result = new ZPiece(x, y);
+        break;
+    }
+    for (int i = getRotation(the_state); i > 0; i--) {
+      result.rotate();
+    }
+    return result;
+  }
+}
@@ -12,12 +12,6 @@ package model;
  */
 public final class SPiece extends AbstractPiece {
 
-  /**
-   * The x and y-coordinates for all rotations of a SPiece.
-   */
-  private static final int[][][] MY_ROTATIONS = {{{0, 0}, {1, 0}, {1, 1}, {2, 1}},
-                                                 {{1, 0}, {0, 1}, {1, 1}, {0, 2}}};
-
   /**
    * Creates a new S piece at the given coordinates.
    * 
@@ -25,7 +19,7 @@ public final class SPiece extends AbstractPiece {
    * @param the_y The y coordinate of the piece
    */
   public SPiece(final int the_x, final int the_y) {
-    super(MY_ROTATIONS, the_x, the_y, Block.S);
+    super(PieceShape.forBlock(Block.S), the_x, the_y);
   }
 
 }
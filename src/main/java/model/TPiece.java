@@ -12,14 +12,6 @@ package model;
  */
 public final class TPiece extends AbstractPiece {
 
-  /**
-   * The x and y-coordinates for all rotations of a TPiece.
-   */
-  private static final int[][][] MY_ROTATIONS = {{{0, 0}, {1, 0}, {2, 0}, {1, 1}},
-                                                 {{1, 0}, {0, 1}, {1, 1}, {1, 2}},
-                                                 {{1, 0}, {0, 1}, {1, 1}, {2, 1}},
-                                                 {{0, 0}, {0, 1}, {1, 1}, {0, 2}}};
-
   /**
    * Creates a new T piece at the given coordinates.
    * 
@@ -27,7 +19,7 @@ public final class TPiece extends AbstractPiece {
    * @param the_y The y coordinate of the piece
    */
   public TPiece(final int the_x, final int the_y) {
-    super(MY_ROTATIONS, the_x, the_y, Block.T);
+    super(PieceShape.forBlock(Block.T), the_x, the_y);
   }
 
 }
@@ -0,0 +1,48 @@
+/*
+ * TCSS 305 - Project Tetris
+ */
+
+package model;
+
+import java.util.SplittableRandom;
+
+/**
+ * Chooses every piece type with equal probability, independently of the
+ * previous pieces.
+ * 
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class UniformPieceGenerator extends AbstractPieceGenerator {
+
+  /** The number of piece types generated at a time. */
+  private static final int BLOCK_SIZE = 64;
+
+  /**
+   * Creates a generator with the given seed.
+   * 
+   * @param the_seed the seed
+   */
+  public UniformPieceGenerator(final long the_seed) {
+    super(the_seed, BLOCK_SIZE);
+  }
+
+  /**
+   * Creates a generator with a seed that is very likely to differ from any
+   * other generator's.
+   */
+  public UniformPieceGenerator() {
+    this(new SplittableRandom().nextLong());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void fill(final byte[] the_block, final BlockRandom the_random) {
+    for (int i = 0; i < the_block.length; i++) {
+      the_block[i] = (byte) the_random.nextInt(PIECE_TYPES);
+    }
+  }
+
+}
@@ -0,0 +1,526 @@
+/*
+ * TCSS 305 - Spring 2012
+ */
+
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.JMException;
+
+import controller.Board;
+import controller.EngineMetrics;
+import controller.GameLoop;
+import controller.Input;
+import controller.LatencyHistogram;
+import controller.SaveGame;
+import model.UniformPieceGenerator;
+
+/**
+ * Hosts many independent game sessions in one JVM, one per TCP connection,
+ * speaking the Protocol.
+ *
+ * The sessions are multiplexed rather than given a thread each. One thread
+ * accepts connections and reads and answers every session's requests through a
+ * selector, applying each input to the session's board as soon as it is read.
+ * A few tick threads share out the sessions and run their frames at a fixed
+ * timestep, the way a GameLoop does, each applying gravity to every session it
+ * holds and recording how late its frames start. A session's board is guarded
+ * by its monitor, which the two threads touching it take in turn.
+ *
+ * A client that stops reading its responses until its session's output buffer
+ * fills is disconnected, so a slow client costs the others nothing. Every
+ * session's board records into the server's one EngineMetrics, whose striped
+ * counters take the updates of all the threads.
+ *
+ * The protocol has no authentication, so the server listens on the loopback
+ * interface unless it is given the host to listen on.
+ *
+ * Usage: GameServer [port] [tick threads] [metrics port] [host] serves until
+ * killed, printing the number of sessions and the tick jitter every ten seconds,
+ * with the metrics registered as an MBean and, given a port other than 0, served
+ * over HTTP on the loopback interface. A host, such as 0.0.0.0, lets remote
+ * clients connect.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ * @see LoadGenerator
+ */
+public final class GameServer implements Closeable {
+
+  /** The default port. */
+  public static final int DEFAULT_PORT = 3050;
+
+  /** The width of the boards of the sessions. */
+  private static final int WIDTH = 10;
+
+  /** The height of the boards of the sessions. */
+  private static final int HEIGHT = 20;
+
+  /** The default frame rate. */
+  private static final int FRAMES_PER_SECOND = 60;
+
+  /** The default gravity in cells per frame, a row a second. */
+  private static final double GRAVITY = 1.0 / FRAMES_PER_SECOND;
+
+  /** The number of fraction bits of the fixed-point gravity. */
+  private static final int FRACTION_BITS = 16;
+
+  /** One cell in fixed point. */
+  private static final long CELL = 1L << FRACTION_BITS;
+
+  /** The number of connections waiting to be accepted that the server allows. */
+  private static final int BACKLOG = 4096;
+
+  /** The size of the buffer of a session's unread requests. */
+  private static final int INPUT_SIZE = Protocol.REQUEST_SIZE * 64;
+
+  /** The size of the buffer of a session's unsent responses. */
+  private static final int OUTPUT_SIZE = 8192;
+
+  /** The number of seconds between reports of the server run from main. */
+  private static final int REPORT_SECONDS = 10;
+
+  /** The actions, indexed by ordinal. */
+  private static final Input[] INPUTS = Input.values();
+
+  /** The listening socket. */
+  private final ServerSocketChannel my_server;
+
+  /** The selector of the listening socket and the sessions. */
+  private final Selector my_selector;
+
+  /** The tick threads' shares of the sessions. */
+  private final Ticker[] my_tickers;
+
+  /** The threads of the server: the I/O thread and then the tick threads. */
+  private final Thread[] my_threads;
+
+  /** The time between frames in nanoseconds. */
+  private final long my_frame;
+
+  /** The gravity in fixed-point cells per frame. */
+  private final long my_gravity;
+
+  /** The seed of the first session's pieces; later sessions count up from it. */
+  private final long my_seed;
+
+  /** The lateness of the frames of every tick thread. */
+  private final LatencyHistogram my_jitter = new LatencyHistogram();
+
+  /** The metrics of the boards of every session. */
+  private final EngineMetrics my_metrics = new EngineMetrics();
+
+  /** The number of open sessions. */
+  private final AtomicInteger my_sessions = new AtomicInteger();
+
+  /** The number of sessions opened so far. */
+  private long my_opened;
+
+  /** Whether the server has been closed. */
+  private volatile boolean my_closed;
+
+  /**
+   * A connection and the game played over it.
+   */
+  private static final class Session {
+    /** The connection. */
+    private final SocketChannel my_channel;
+    /** The board, whose monitor guards it and my_gravity_cells. */
+    private final Board my_board;
+    /** The requests read and not yet handled. */
+    private final ByteBuffer my_input = ByteBuffer.allocate(INPUT_SIZE);
+    /** The responses not yet sent, ready for writing. */
+    private final ByteBuffer my_output = ByteBuffer.allocate(OUTPUT_SIZE);
+    /** The fixed-point distance accumulated towards the next row of gravity. */
+    private long my_gravity_cells;
+    /** Whether the session has ended. */
+    private volatile boolean my_closed;
+
+    /**
+     * Creates a session.
+     *
+     * @param the_channel the connection
+     * @param the_seed the seed of the pieces
+     * @param the_metrics the metrics the board records into
+     */
+    Session(final SocketChannel the_channel, final long the_seed,
+            final EngineMetrics the_metrics) {
+      my_channel = the_channel;
+      my_board = new Board(WIDTH, HEIGHT, new UniformPieceGenerator(the_seed));
+      my_board.setMetrics(the_metrics);
+      my_output.flip(); // nothing to send
+    }
+  }
+
+  /**
+   * Runs the frames of a share of the sessions at a fixed timestep.
+   */
+  private final class Ticker implements Runnable {
+    /** The sessions added since the last frame. */
+    private final Queue<Session> my_added = new ConcurrentLinkedQueue<Session>();
+    /** The sessions of this ticker, used only by its thread. */
+    private final List<Session> my_own = new ArrayList<Session>();
+
+    @Override
+    public void run() {
+      long next = System.nanoTime() + my_frame;
+      while (!my_closed) {
+        final long now = System.nanoTime();
+        if (now - next >= 0) {
+          my_jitter.record(now - next);
+          for (Session added = my_added.poll(); added != null; added = my_added.poll()) {
+            my_own.add(added);
+          }
+          for (int frames = 0; now - next >= 0 && frames < GameLoop.MAX_CATCH_UP; frames++) {
+            frame();
+            next += my_frame;
+          }
+          if (now - next >= 0) {
+            next = now + my_frame; // too far behind, drop the backlog
+          }
+        } else {
+          LockSupport.parkNanos(this, next - now);
+        }
+      }
+    }
+
+    /**
+     * Applies a frame of gravity to every open session, dropping closed ones.
+     */
+    private void frame() {
+      for (int i = my_own.size() - 1; i >= 0; i--) {
+        final Session session = my_own.get(i);
+        if (session.my_closed) {
+          my_own.set(i, my_own.get(my_own.size() - 1));
+          my_own.remove(my_own.size() - 1);
+        } else {
+          synchronized (session.my_board) {
+            if (session.my_board.isRunning()) {
+              session.my_gravity_cells += my_gravity;
+              if (session.my_gravity_cells >= CELL) {
+                final int rows = (int) (session.my_gravity_cells >> FRACTION_BITS);
+                session.my_gravity_cells &= CELL - 1;
+                session.my_board.fall(rows);
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Runs the selector: accepts connections and reads and answers requests.
+   */
+  private final class Io implements Runnable {
+    @Override
+    public void run() {
+      while (!my_closed) {
+        try {
+          my_selector.select();
+        } catch (final IOException e) {
+          e.printStackTrace();
+          break;
+        }
+        final Iterator<SelectionKey> keys = my_selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          final SelectionKey key = keys.next();
+          keys.remove();
+          if (key.isValid() && key.isAcceptable()) {
+            accept();
+          } else if (key.isValid()) {
+            serve(key);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a server listening on an address, with the default frame rate,
+   * gravity and seed; it serves nothing until started.
+   *
+   * @param the_address the address, with port 0 for any free port
+   * @param the_tickers the number of tick threads, at least 1
+   * @throws IOException if the address cannot be bound
+   */
+  public GameServer(final InetSocketAddress the_address, final int the_tickers)
+    throws IOException {
+    this(the_address, the_tickers, TimeUnit.SECONDS.toNanos(1) / FRAMES_PER_SECOND, GRAVITY,
+         System.nanoTime());
+  }
+
+  /**
+   * Creates a server listening on an address; it serves nothing until started.
+   *
+   * @param the_address the address, with port 0 for any free port
+   * @param the_tickers the number of tick threads, at least 1
+   * @param the_frame the time between frames in nanoseconds
+   * @param the_gravity the gravity in cells per frame
+   * @param the_seed the seed of the first session's pieces
+   * @throws IOException if the address cannot be bound
+   * @throws IllegalArgumentException if the_tickers is less than 1
+   */
+  public GameServer(final InetSocketAddress the_address, final int the_tickers,
+                    final long the_frame, final double the_gravity, final long the_seed)
+    throws IOException, IllegalArgumentException {
+    if (the_tickers < 1) {
+      throw new IllegalArgumentException("tickers: " + the_tickers);
+    }
+    my_frame = Math.max(1L, the_frame);
+    my_gravity = Math.round(Math.max(0, the_gravity) * CELL);
+    my_seed = the_seed;
+    my_selector = Selector.open();
+    my_server = ServerSocketChannel.open();
+    my_server.bind(the_address, BACKLOG);
+    my_server.configureBlocking(false);
+    my_server.register(my_selector, SelectionKey.OP_ACCEPT);
+    my_tickers = new Ticker[the_tickers];
+    my_threads = new Thread[the_tickers + 1];
+    my_threads[0] = new Thread(new Io(), "game-server-io");
+    for (int i = 0; i < the_tickers; i++) {
+      my_tickers[i] = new Ticker();
+      my_threads[i + 1] = new Thread(my_tickers[i], "game-server-tick-" + i);
+    }
+  }
+
+  /**
+   * Starts the threads of the server.
+   */
+  public void start() {
+    for (Thread thread : my_threads) {
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Stops the server, ends every session and waits for the threads to end.
+   *
+   * @throws IOException if the listening socket cannot be closed
+   */
+  @Override
+  public void close() throws IOException {
+    my_closed = true;
+    my_selector.wakeup();
+    for (Thread thread : my_threads) {
+      LockSupport.unpark(thread);
+      try {
+        thread.join();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    for (SelectionKey key : my_selector.keys()) {
+      key.channel().close();
+    }
+    my_selector.close();
+  }
+
+  /**
+   * @return the port the server listens on.
+   * @throws IOException if the server is closed
+   */
+  public int getPort() throws IOException {
+    return ((InetSocketAddress) my_server.getLocalAddress()).getPort();
+  }
+
+  /**
+   * @return the number of open sessions.
+   */
+  public int getSessionCount() {
+    return my_sessions.get();
+  }
+
+  /**
+   * @return the metrics of the boards of every session.
+   */
+  public EngineMetrics getMetrics() {
+    return my_metrics;
+  }
+
+  /**
+   * @return the lateness of the frames of the tick threads, in nanoseconds.
+   */
+  public LatencyHistogram getJitter() {
+    return my_jitter;
+  }
+
+  /**
+   * @return the processor time used by the threads of the server so far, in
+   *         nanoseconds, or -1 if the JVM does not measure it.
+   */
+  public long getCpuTime() {
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    long result = 0;
+    for (int i = 0; result >= 0 && i < my_threads.length; i++) {
+      final long time = threads.getThreadCpuTime(my_threads[i].getId());
+      result = time < 0 ? -1 : result + time;
+    }
+    return result;
+  }
+
+  /**
+   * Accepts a waiting connection and opens its session.
+   */
+  private void accept() {
+    try {
+      final SocketChannel channel = my_server.accept();
+      if (channel != null) {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final Session session = new Session(channel, my_seed + my_opened, my_metrics);
+        channel.register(my_selector, SelectionKey.OP_READ, session);
+        my_tickers[(int) (my_opened % my_tickers.length)].my_added.add(session);
+        my_opened++;
+        my_sessions.incrementAndGet();
+      }
+    } catch (final IOException e) {
+      e.printStackTrace(); // the listening socket carries on
+    }
+  }
+
+  /**
+   * Reads and answers the requests of a session and sends what it can, ending
+   * the session if its connection fails or closes.
+   *
+   * @param the_key the key of the session
+   */
+  private void serve(final SelectionKey the_key) {
+    final Session session = (Session) the_key.attachment();
+    try {
+      boolean open = true;
+      if (the_key.isReadable()) {
+        open = session.my_channel.read(session.my_input) >= 0;
+        session.my_input.flip();
+        session.my_output.compact();
+        while (open && session.my_input.remaining() >= Protocol.REQUEST_SIZE) {
+          open = handle(session, session.my_input.get(), session.my_input.getInt());
+        }
+        session.my_output.flip();
+        session.my_input.compact();
+      }
+      if (open) {
+        session.my_channel.write(session.my_output);
+        the_key.interestOps(session.my_output.hasRemaining()
+            ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+      } else {
+        end(the_key, session);
+      }
+    } catch (final IOException e) {
+      end(the_key, session);
+    }
+  }
+
+  /**
+   * Applies a request to a session and writes its response.
+   *
+   * @param the_session the session, whose output buffer is ready for writing into
+   * @param the_op the operation code
+   * @param the_seq the sequence number
+   * @return false if the response does not fit, so the session must end
+   */
+  private boolean handle(final Session the_session, final int the_op, final int the_seq) {
+    final ByteBuffer out = the_session.my_output;
+    final Board board = the_session.my_board;
+    boolean result = true;
+    synchronized (board) {
+      if (the_op == Protocol.STATE) {
+        result = out.remaining() >=
+                 Protocol.RESPONSE_HEADER_SIZE + SaveGame.getMaxSize(WIDTH, HEIGHT);
+        if (result) {
+          out.put((byte) Protocol.STATE_REPLY).putInt(the_seq);
+          final int length = out.position();
+          out.putShort((short) 0);
+          SaveGame.write(board, out);
+          out.putShort(length, (short) (out.position() - length - Short.BYTES));
+        }
+      } else {
+        if (the_op == Protocol.NEW_GAME) {
+          board.newGame();
+          the_session.my_gravity_cells = 0;
+        } else if (the_op >= 0 && the_op < INPUTS.length && board.isRunning()) {
+          INPUTS[the_op].apply(board);
+        }
+        result = out.remaining() >= Protocol.RESPONSE_HEADER_SIZE + Protocol.ACK_SIZE;
+        if (result) {
+          out.put((byte) Protocol.ACK).putInt(the_seq).putShort((short) Protocol.ACK_SIZE);
+          out.putLong(board.getHash()).putInt(board.getScore());
+          out.putInt(board.getTotalLines()).put((byte) (board.isRunning() ? 1 : 0));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Ends a session.
+   *
+   * @param the_key the key of the session
+   * @param the_session the session
+   */
+  private void end(final SelectionKey the_key, final Session the_session) {
+    the_key.cancel();
+    the_session.my_closed = true;
+    my_sessions.decrementAndGet();
+    try {
+      the_session.my_channel.close();
+    } catch (final IOException e) {
+      e.printStackTrace(); // the session is gone either way
+    }
+  }
+
+  /**
+   * Serves until the process is killed, printing the number of sessions and the
+   * tick jitter every ten seconds.
+   *
+   * @param the_args the optional port, number of tick threads, metrics port (0 for
+   *          none) and host to listen on.
+   * @throws IOException if a port cannot be bound
+   * @throws InterruptedException if interrupted between reports
+   * @throws JMException if the metrics cannot be registered
+   */
+  public static void main(final String[] the_args)
+    throws IOException, InterruptedException, JMException {
+    final int port = the_args.length > 0 ? Integer.parseInt(the_args[0]) : DEFAULT_PORT;
+    final int tickers = the_args.length > 1 ? Integer.parseInt(the_args[1])
+        : Runtime.getRuntime().availableProcessors();
+    final InetSocketAddress address = the_args.length > 3
+        ? new InetSocketAddress(the_args[3], port)
+        : new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    final GameServer server = new GameServer(address, tickers);
+    server.getMetrics().register("server");
+    if (the_args.length > 2 && Integer.parseInt(the_args[2]) != 0) {
+      new MetricsEndpoint(Integer.parseInt(the_args[2]), server.getMetrics());
+    }
+    server.start();
+    System.out.printf("serving on %s port %d with %d tick threads%n",
+                      address.getHostString(), server.getPort(), tickers);
+    while (true) {
+      Thread.sleep(TimeUnit.SECONDS.toMillis(REPORT_SECONDS));
+      System.out.printf("%d sessions, tick jitter %s%n", server.getSessionCount(),
+                        server.getJitter());
+    }
+  }
+}
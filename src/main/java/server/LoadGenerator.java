@@ -0,0 +1,338 @@
+/*
+ * TCSS 305 - Spring 2012
+ */
+
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import controller.Input;
+import controller.LatencyHistogram;
+
+/**
+ * Plays many simulated clients against a game server and reports what the
+ * server sustains: the acknowledgements per second, the latency from sending an
+ * input to reading its acknowledgement, the jitter of the server's frames and the
+ * number of sessions each core of the server's processor time carries.
+ *
+ * All the clients run on one thread through a selector. Each client sends a
+ * random input at a fixed interval, with a random phase, and has at most one
+ * request outstanding; it starts a new game when its last acknowledgement says
+ * its game has ended.
+ *
+ * Usage: LoadGenerator [clients] [seconds] [input ms] [tick threads] [host:port]
+ * runs against the server at host:port, or, without one, against a GameServer
+ * it starts in this process with the given number of tick threads; only then
+ * are the server's jitter and sessions per core reported.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ * @see GameServer
+ */
+public final class LoadGenerator {
+
+  /** The default number of clients. */
+  private static final int CLIENTS = 1000;
+
+  /** The default number of seconds measured. */
+  private static final int SECONDS = 10;
+
+  /** The default number of milliseconds between a client's inputs. */
+  private static final int INPUT_MILLIS = 100;
+
+  /** The number of seconds the clients play before measuring starts. */
+  private static final int WARM_UP_SECONDS = 2;
+
+  /** The seed of the clients' inputs. */
+  private static final long SEED = 305;
+
+  /** The size of a client's buffer of unread responses. */
+  private static final int INPUT_SIZE = 4096;
+
+  /** The largest number of milliseconds the selector waits between sends. */
+  private static final long MAX_WAIT_MILLIS = 10;
+
+  /** The number of nanoseconds in a millisecond. */
+  private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /** The number of nanoseconds in a second. */
+  private static final double NANOS = 1e9;
+
+  /** The number of inputs a client chooses from. */
+  private static final int INPUTS = Input.values().length;
+
+  /**
+   * A simulated client: its connection and its outstanding request.
+   */
+  private static final class Client {
+    /** The connection. */
+    private final SocketChannel my_channel;
+    /** The request being sent. */
+    private final ByteBuffer my_request = ByteBuffer.allocate(Protocol.REQUEST_SIZE);
+    /** The responses read and not yet handled. */
+    private final ByteBuffer my_response = ByteBuffer.allocate(INPUT_SIZE);
+    /** The time of the client's next request. */
+    private long my_due;
+    /** The time the outstanding request was sent, meaningful while my_waiting. */
+    private long my_sent;
+    /** The sequence number of the last request. */
+    private int my_seq;
+    /** Whether a request is outstanding. */
+    private boolean my_waiting;
+    /** Whether the last acknowledgement said the game was running. */
+    private boolean my_running = true;
+
+    /**
+     * Creates a client.
+     *
+     * @param the_channel the connection
+     * @param the_due the time of its first request
+     */
+    Client(final SocketChannel the_channel, final long the_due) {
+      my_channel = the_channel;
+      my_due = the_due;
+    }
+  }
+
+  /**
+   * Orders clients by the time of their next request.
+   */
+  private static final class ByDue implements Comparator<Client> {
+    @Override
+    public int compare(final Client the_first, final Client the_second) {
+      return Long.compare(the_first.my_due - the_second.my_due, 0);
+    }
+  }
+
+  /** The clients waiting to send, soonest first. */
+  private final PriorityQueue<Client> my_due = new PriorityQueue<Client>(new ByDue());
+
+  /** The selector of the clients. */
+  private final Selector my_selector;
+
+  /** The time between a client's requests, in nanoseconds. */
+  private final long my_interval;
+
+  /** The source of the clients' inputs. */
+  private final Random my_random = new Random(SEED);
+
+  /** The latency of the acknowledgements, in nanoseconds. */
+  private final LatencyHistogram my_latency = new LatencyHistogram();
+
+  /** The number of clients whose connection failed. */
+  private int my_failures;
+
+  /**
+   * Connects clients to a server.
+   *
+   * @param the_address the address of the server
+   * @param the_clients the number of clients
+   * @param the_interval the time between a client's requests, in nanoseconds
+   * @throws IOException if a client cannot connect
+   */
+  private LoadGenerator(final InetSocketAddress the_address, final int the_clients,
+                        final long the_interval) throws IOException {
+    my_selector = Selector.open();
+    my_interval = the_interval;
+    final long now = System.nanoTime();
+    for (int i = 0; i < the_clients; i++) {
+      final SocketChannel channel = SocketChannel.open(the_address);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      channel.configureBlocking(false);
+      final long phase = (long) (my_random.nextDouble() * the_interval);
+      final Client client = new Client(channel, now + phase);
+      channel.register(my_selector, SelectionKey.OP_READ, client);
+      my_due.add(client);
+    }
+  }
+
+  /**
+   * Plays the clients until a deadline.
+   *
+   * @param the_deadline the time to stop
+   * @throws IOException if the selector fails
+   */
+  private void run(final long the_deadline) throws IOException {
+    long now = System.nanoTime();
+    while (now - the_deadline < 0) {
+      while (!my_due.isEmpty() && my_due.peek().my_due - now <= 0) {
+        send(my_due.poll(), now);
+      }
+      // round the wait up, so a send due within the millisecond does not spin
+      final long wait = my_due.isEmpty() ? MAX_WAIT_MILLIS
+          : TimeUnit.NANOSECONDS.toMillis(my_due.peek().my_due - now + MILLI - 1);
+      my_selector.select(Math.max(1, Math.min(wait, MAX_WAIT_MILLIS)));
+      now = System.nanoTime();
+      final Iterator<SelectionKey> keys = my_selector.selectedKeys().iterator();
+      while (keys.hasNext()) {
+        final SelectionKey key = keys.next();
+        keys.remove();
+        if (key.isValid()) {
+          receive(key, now);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends a client's next request: a random input, or a new game if its game
+   * has ended.
+   *
+   * @param the_client the client
+   * @param the_now the time
+   */
+  private void send(final Client the_client, final long the_now) {
+    the_client.my_seq++;
+    final int op = the_client.my_running ? my_random.nextInt(INPUTS) : Protocol.NEW_GAME;
+    the_client.my_request.clear();
+    the_client.my_request.put((byte) op).putInt(the_client.my_seq).flip();
+    try {
+      the_client.my_channel.write(the_client.my_request);
+      if (the_client.my_request.hasRemaining()) {
+        throw new IOException("send buffer full"); // one request never fills it
+      }
+      the_client.my_sent = the_now;
+      the_client.my_waiting = true;
+    } catch (final IOException e) {
+      fail(the_client);
+    }
+  }
+
+  /**
+   * Reads a client's responses, recording the latency of its acknowledgement and
+   * scheduling its next request.
+   *
+   * @param the_key the key of the client
+   * @param the_now the time
+   */
+  private void receive(final SelectionKey the_key, final long the_now) {
+    final Client client = (Client) the_key.attachment();
+    boolean open;
+    try {
+      open = client.my_channel.read(client.my_response) >= 0;
+    } catch (final IOException e) {
+      open = false;
+    }
+    if (open) {
+      final ByteBuffer in = client.my_response;
+      in.flip();
+      while (in.remaining() >= Protocol.RESPONSE_HEADER_SIZE &&
+             in.remaining() >= Protocol.RESPONSE_HEADER_SIZE +
+                               in.getShort(in.position() + 1 + Integer.BYTES)) {
+        final int type = in.get();
+        final int seq = in.getInt();
+        final int length = in.getShort();
+        if (type == Protocol.ACK && seq == client.my_seq && client.my_waiting) {
+          in.position(in.position() + Long.BYTES + 2 * Integer.BYTES);
+          client.my_running = in.get() != 0;
+          my_latency.record(the_now - client.my_sent);
+          client.my_waiting = false;
+          client.my_due = Math.max(client.my_due + my_interval, the_now);
+          my_due.add(client);
+        } else {
+          in.position(in.position() + length);
+        }
+      }
+      in.compact();
+    } else {
+      the_key.cancel();
+      fail(client);
+    }
+  }
+
+  /**
+   * Drops a client whose connection failed.
+   *
+   * @param the_client the client
+   */
+  private void fail(final Client the_client) {
+    my_failures++;
+    my_due.remove(the_client);
+    try {
+      the_client.my_channel.close();
+    } catch (final IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Disconnects the clients.
+   *
+   * @throws IOException if the selector cannot be closed
+   */
+  private void close() throws IOException {
+    final List<SelectionKey> keys = new ArrayList<SelectionKey>(my_selector.keys());
+    for (SelectionKey key : keys) {
+      key.channel().close();
+    }
+    my_selector.close();
+  }
+
+  /**
+   * Runs the load test and prints its results.
+   *
+   * @param the_args the optional number of clients, seconds, milliseconds between
+   *          inputs, tick threads and server address.
+   * @throws IOException if a client cannot connect or the server cannot start
+   */
+  public static void main(final String[] the_args) throws IOException {
+    final int clients = the_args.length > 0 ? Integer.parseInt(the_args[0]) : CLIENTS;
+    final int seconds = the_args.length > 1 ? Integer.parseInt(the_args[1]) : SECONDS;
+    final int millis = the_args.length > 2 ? Integer.parseInt(the_args[2]) : INPUT_MILLIS;
+    final int tickers = the_args.length > 3 ? Integer.parseInt(the_args[3])
+        : Runtime.getRuntime().availableProcessors();
+    GameServer server = null;
+    final InetSocketAddress address;
+    if (the_args.length > 4) {
+      final int colon = the_args[4].lastIndexOf(':');
+      address = new InetSocketAddress(the_args[4].substring(0, colon),
+                                      Integer.parseInt(the_args[4].substring(colon + 1)));
+    } else {
+      server = new GameServer(new InetSocketAddress("localhost", 0), tickers);
+      server.start();
+      address = new InetSocketAddress("localhost", server.getPort());
+    }
+
+    final LoadGenerator load =
+        new LoadGenerator(address, clients, TimeUnit.MILLISECONDS.toNanos(millis));
+    load.run(System.nanoTime() + TimeUnit.SECONDS.toNanos(WARM_UP_SECONDS));
+    load.my_latency.reset();
+    long cpu = 0;
+    if (server != null) {
+      server.getJitter().reset();
+      cpu = server.getCpuTime();
+    }
+    final long start = System.nanoTime();
+    load.run(start + TimeUnit.SECONDS.toNanos(seconds));
+    final double wall = (System.nanoTime() - start) / NANOS;
+
+    System.out.printf("%d clients, one input every %d ms, %d failed%n", clients, millis,
+                      load.my_failures);
+    System.out.printf("%.0f acks/s, input to ack %s%n", load.my_latency.getCount() / wall,
+                      load.my_latency);
+    if (server != null) {
+      final double cores = (server.getCpuTime() - cpu) / NANOS / wall;
+      System.out.printf("server: %d sessions, %d tick threads, tick jitter %s%n",
+                        server.getSessionCount(), tickers, server.getJitter());
+      System.out.printf("server used %.2f cores, %.0f sessions per core%n", cores,
+                        server.getSessionCount() / cores);
+    }
+    load.close();
+    if (server != null) {
+      server.close();
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * TCSS 305 - Spring 2012
+ */
+
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import controller.EngineMetrics;
+
+/**
+ * Serves engine metrics as plain text over HTTP: a GET of PATH answers with the
+ * "name value" lines of EngineMetrics.toString, read at the time of the request.
+ * The server runs on a thread of its own and only reads the metrics, so the
+ * threads recording them never wait for it. Given only a port, it listens on
+ * the loopback interface, so that only tools on the same machine can read it.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class MetricsEndpoint implements Closeable {
+
+  /** The path the metrics are served at. */
+  public static final String PATH = "/metrics";
+
+  /** The status of a successful response. */
+  private static final int OK = 200;
+
+  /** The status of a response to a method other than GET or HEAD. */
+  private static final int METHOD_NOT_ALLOWED = 405;
+
+  /** The HTTP server. */
+  private final HttpServer my_server;
+
+  /**
+   * Answers requests for the metrics.
+   */
+  private static final class Handler implements HttpHandler {
+    /** The metrics served. */
+    private final EngineMetrics my_metrics;
+
+    /**
+     * Creates a handler.
+     *
+     * @param the_metrics the metrics served
+     */
+    Handler(final EngineMetrics the_metrics) {
+      my_metrics = the_metrics;
+    }
+
+    @Override
+    public void handle(final HttpExchange the_exchange) throws IOException {
+      final String method = the_exchange.getRequestMethod();
+      if ("GET".equals(method) || "HEAD".equals(method)) {
+        final byte[] body = my_metrics.toString().getBytes(StandardCharsets.UTF_8);
+        the_exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        if ("HEAD".equals(method)) {
+          the_exchange.sendResponseHeaders(OK, -1);
+        } else {
+          the_exchange.sendResponseHeaders(OK, body.length);
+          try (OutputStream out = the_exchange.getResponseBody()) {
+            out.write(body);
+          }
+        }
+      } else {
+        the_exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+        the_exchange.sendResponseHeaders(METHOD_NOT_ALLOWED, -1);
+      }
+      the_exchange.close();
+    }
+  }
+
+  /**
+   * Starts serving metrics on the loopback interface.
+   *
+   * @param the_port the port, 0 for any free port
+   * @param the_metrics the metrics
+   * @throws IOException if the port cannot be bound
+   */
+  public MetricsEndpoint(final int the_port, final EngineMetrics the_metrics)
+    throws IOException {
+    this(new InetSocketAddress(InetAddress.getLoopbackAddress(), the_port), the_metrics);
+  }
+
+  /**
+   * Starts serving metrics.
+   *
+   * @param the_address the address, with port 0 for any free port
+   * @param the_metrics the metrics
+   * @throws IOException if the address cannot be bound
+   */
+  public MetricsEndpoint(final InetSocketAddress the_address, final EngineMetrics the_metrics)
+    throws IOException {
+    my_server = HttpServer.create(the_address, 0);
+    my_server.createContext(PATH, new Handler(the_metrics));
+    my_server.start();
+  }
+
+  /**
+   * @return the port the metrics are served on.
+   */
+  public int getPort() {
+    return my_server.getAddress().getPort();
+  }
+
+  /**
+   * Stops serving, without waiting for requests in progress.
+   */
+  @Override
+  public void close() {
+    my_server.stop(0);
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * TCSS 305 - Spring 2012
+ */
+
+package server;
+
+import controller.DeltaEncoder;
+import controller.Input;
+
+/**
+ * The messages between a game server and its clients over TCP, all big-endian.
+ *
+ * A client sends requests of REQUEST_SIZE bytes: an operation code and a
+ * sequence number the client chooses. The codes below NEW_GAME are the ordinals
+ * of the inputs; NEW_GAME restarts the session's game and STATE asks for the
+ * whole state of the game.
+ *
+ * The server answers every request, in order, with a response made of a type,
+ * the request's sequence number, the length of the payload and the payload.
+ * The payload of an ACK is the board's hash, score and total lines and whether
+ * its game is running; the payload of a STATE is the game saved by
+ * controller.SaveGame.
+ *
+ * A spectator connected to a SpectatorServer sends nothing and receives the
+ * frames of a controller.DeltaEncoder, whose header is laid out like the header
+ * of a response, with KEYFRAME and DELTA as the types.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ */
+public final class Protocol {
+
+  /** The size of a request: the operation code and the sequence number. */
+  public static final int REQUEST_SIZE = 1 + Integer.BYTES;
+
+  /** The operation code that starts a new game. */
+  public static final int NEW_GAME = Input.values().length;
+
+  /** The operation code that asks for the state of the game. */
+  public static final int STATE = NEW_GAME + 1;
+
+  /** The type of a response carrying a summary of the game. */
+  public static final int ACK = 1;
+
+  /** The type of a response carrying the saved game. */
+  public static final int STATE_REPLY = 2;
+
+  /** The type of a spectator frame holding the whole game. */
+  public static final int KEYFRAME = DeltaEncoder.KEYFRAME;
+
+  /** The type of a spectator frame holding the changes of a tick. */
+  public static final int DELTA = DeltaEncoder.DELTA;
+
+  /** The size of the type, sequence number and payload length of a response. */
+  public static final int RESPONSE_HEADER_SIZE = 1 + Integer.BYTES + Short.BYTES;
+
+  /** The size of the payload of an ACK. */
+  public static final int ACK_SIZE = Long.BYTES + 2 * Integer.BYTES + 1;
+
+  /**
+   * Prevents instantiation of this constant holder.
+   */
+  private Protocol() {
+    // nothing to do
+  }
+}
@@ -0,0 +1,767 @@
+/*
+ * TCSS 305 - Spring 2012
+ */
+
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import controller.Board;
+import controller.BoardEvent;
+import controller.BoardListener;
+import controller.DeltaEncoder;
+import controller.Input;
+import controller.LatencyHistogram;
+import controller.ReadableBoard;
+import controller.SpectatorBoard;
+import model.BagPieceGenerator;
+
+/**
+ * Streams one game to any number of spectators over TCP as the frames of a
+ * DeltaEncoder: a delta for each tick that changes the game and a keyframe
+ * every so often.
+ *
+ * Each frame is encoded once, on the thread playing the game, into a direct
+ * buffer taken from a fixed pool, and handed to the server's I/O thread. That
+ * thread gives every spectator a duplicate of the buffer, which shares its bytes
+ * and has a position of its own, and writes each spectator's queue of frames
+ * with one gathering write; no frame is copied per spectator. A buffer goes
+ * back to the pool once every spectator has been sent all of it.
+ *
+ * A new spectator starts at the next keyframe. A spectator that falls
+ * MAX_BACKLOG frames behind has its queue dropped and starts again at the next
+ * keyframe, so it holds no more than that many buffers, and if the pool runs dry
+ * the frame is not sent and the next one is made a keyframe, so the thread
+ * playing the game never waits for a spectator.
+ *
+ * Usage: SpectatorServer [spectators] [seconds] [keyframe frames] plays a game for
+ * a number of seconds to that many spectators connected in this process, half of
+ * them joining halfway through, and reports the sizes of the frames, the cost
+ * of encoding them, the bytes sent and whether every spectator ended up with
+ * the same game.
+ *
+ * @author Alan Fowler
+ * @version Spring 2012
+ * @see SpectatorBoard
+ */
+public final class SpectatorServer implements BoardListener, Closeable {
+
+  /** The default port. */
+  public static final int DEFAULT_PORT = 3051;
+
+  /** The number of frames a spectator can fall behind before it starts over. */
+  public static final int MAX_BACKLOG = 128;
+
+  /** The number of frame buffers in the pool. */
+  private static final int POOL_FRAMES = 4 * MAX_BACKLOG;
+
+  /** The largest number of frames written to a spectator in one call. */
+  private static final int GATHER = 32;
+
+  /** The number of connections waiting to be accepted that the server allows. */
+  private static final int BACKLOG = 4096;
+
+  /** The size of the buffer that reads, and discards, what spectators send. */
+  private static final int SCRATCH_SIZE = 256;
+
+  /** The default number of spectators of the measurement run. */
+  private static final int SPECTATORS = 1000;
+
+  /** The default number of seconds of the measurement run. */
+  private static final int SECONDS = 10;
+
+  /** The default number of frames between keyframes of the measurement run. */
+  private static final int KEYFRAME_FRAMES = 60;
+
+  /** The frame rate of the measurement run's game. */
+  private static final int FRAMES_PER_SECOND = 60;
+
+  /** The number of ticks between rows of gravity in the measurement run. */
+  private static final int GRAVITY_TICKS = 8;
+
+  /** The chance of an input in a tick of the measurement run. */
+  private static final double INPUT_CHANCE = 0.25;
+
+  /** The number of seconds the measurement run waits for spectators to catch up. */
+  private static final int DRAIN_SECONDS = 10;
+
+  /** The seed of the measurement run. */
+  private static final long SEED = 305;
+
+  /** The width of the measured board. */
+  private static final int WIDTH = 10;
+
+  /** The height of the measured board. */
+  private static final int HEIGHT = 20;
+
+  /** The number of milliseconds between checks of the spectators catching up. */
+  private static final int POLL_MILLIS = 10;
+
+  /** The number of nanoseconds in a second. */
+  private static final double NANOS = 1e9;
+
+  /** The number of bytes in a megabyte. */
+  private static final double MEGABYTE = 1e6;
+
+  /** The board streamed. */
+  private final Board my_board;
+
+  /** The encoder of the board's frames, used by the thread playing the game. */
+  private final DeltaEncoder my_encoder;
+
+  /** The listening socket. */
+  private final ServerSocketChannel my_server;
+
+  /** The selector of the listening socket and the spectators. */
+  private final Selector my_selector;
+
+  /** The I/O thread. */
+  private final Thread my_thread;
+
+  /** The frame buffers not in use. */
+  private final BlockingQueue<Frame> my_free = new ArrayBlockingQueue<Frame>(POOL_FRAMES);
+
+  /** The frames encoded and not yet handed to the spectators. */
+  private final BlockingQueue<Frame> my_published =
+      new ArrayBlockingQueue<Frame>(POOL_FRAMES);
+
+  /** The spectators, used only by the I/O thread. */
+  private final List<Spectator> my_spectators = new ArrayList<Spectator>();
+
+  /** The buffers of one gathering write, used only by the I/O thread. */
+  private final ByteBuffer[] my_gather = new ByteBuffer[GATHER];
+
+  /** The buffer that reads what spectators send, used only by the I/O thread. */
+  private final ByteBuffer my_scratch = ByteBuffer.allocate(SCRATCH_SIZE);
+
+  /** The time taken to encode each frame. */
+  private final LatencyHistogram my_encode_time = new LatencyHistogram();
+
+  /** The number of frames encoded. */
+  private volatile long my_frames;
+
+  /** The number of keyframes encoded. */
+  private volatile long my_keyframes;
+
+  /** The number of bytes encoded. */
+  private volatile long my_encoded_bytes;
+
+  /** The number of frames not sent because the pool was empty. */
+  private volatile long my_dropped;
+
+  /** The number of bytes sent to spectators. */
+  private volatile long my_sent_bytes;
+
+  /** The number of times a spectator fell too far behind and started over. */
+  private volatile long my_restarts;
+
+  /** The number of connected spectators. */
+  private volatile int my_spectator_count;
+
+  /** Whether the server has been closed. */
+  private volatile boolean my_closed;
+
+  /**
+   * An encoded frame and the number of spectators still sending it.
+   */
+  private static final class Frame {
+    /** The bytes of the frame, ready for reading. */
+    private final ByteBuffer my_data;
+    /** The number of holders of the frame, used only by the I/O thread. */
+    private int my_refs;
+    /** Whether the frame is a keyframe. */
+    private boolean my_keyframe;
+
+    /**
+     * Creates a frame buffer.
+     *
+     * @param the_capacity the size of the largest frame
+     */
+    Frame(final int the_capacity) {
+      my_data = ByteBuffer.allocateDirect(the_capacity);
+    }
+  }
+
+  /**
+   * A connected spectator and the frames queued for it.
+   */
+  private static final class Spectator {
+    /** The connection. */
+    private final SocketChannel my_channel;
+    /** The frames queued, oldest first. */
+    private final ArrayDeque<Frame> my_frames = new ArrayDeque<Frame>();
+    /** The spectator's duplicates of the queued frames, in the same order. */
+    private final ArrayDeque<ByteBuffer> my_views = new ArrayDeque<ByteBuffer>();
+    /** Whether the spectator waits for a keyframe. */
+    private boolean my_waiting = true;
+    /** Whether the connection's send buffer is full. */
+    private boolean my_blocked;
+
+    /**
+     * Creates a spectator.
+     *
+     * @param the_channel the connection
+     */
+    Spectator(final SocketChannel the_channel) {
+      my_channel = the_channel;
+    }
+  }
+
+  /**
+   * Runs the selector: accepts spectators, hands out frames and sends them.
+   */
+  private final class Io implements Runnable {
+    @Override
+    public void run() {
+      while (!my_closed) {
+        try {
+          my_selector.select();
+        } catch (final IOException e) {
+          e.printStackTrace();
+          break;
+        }
+        final Iterator<SelectionKey> keys = my_selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          final SelectionKey key = keys.next();
+          keys.remove();
+          if (key.isValid() && key.isAcceptable()) {
+            accept();
+          } else if (key.isValid()) {
+            serve(key);
+          }
+        }
+        boolean published = false;
+        for (Frame frame = my_published.poll(); frame != null; frame = my_published.poll()) {
+          distribute(frame);
+          published = true;
+        }
+        for (int i = my_spectators.size() - 1; published && i >= 0; i--) {
+          final Spectator spectator = my_spectators.get(i);
+          if (!spectator.my_blocked && !spectator.my_views.isEmpty()) {
+            flush(spectator);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a server for a board; it streams nothing until started.
+   *
+   * @param the_address the address, with port 0 for any free port
+   * @param the_board the board, whose generator must be a UniformPieceGenerator or
+   *          BagPieceGenerator
+   * @param the_interval the largest number of frames between keyframes, at least 1
+   * @throws IOException if the address cannot be bound
+   * @throws IllegalArgumentException if the generator cannot be saved or the
+   *           interval is not positive
+   */
+  public SpectatorServer(final InetSocketAddress the_address, final Board the_board,
+                         final int the_interval)
+    throws IOException, IllegalArgumentException {
+    my_board = the_board;
+    my_encoder = new DeltaEncoder(the_board, the_interval);
+    for (int i = 0; i < POOL_FRAMES; i++) {
+      my_free.add(new Frame(my_encoder.getMaxFrameSize()));
+    }
+    my_selector = Selector.open();
+    my_server = ServerSocketChannel.open();
+    my_server.bind(the_address, BACKLOG);
+    my_server.configureBlocking(false);
+    my_server.register(my_selector, SelectionKey.OP_ACCEPT);
+    my_thread = new Thread(new Io(), "spectator-server-io");
+    my_thread.setDaemon(true);
+  }
+
+  /**
+   * Starts streaming: subscribes to the board and starts the I/O thread. Call it
+   * on the thread playing the game, or while the board does not change.
+   */
+  public void start() {
+    my_thread.start();
+    my_board.addBoardListener(this, BoardEvent.ALL);
+  }
+
+  /**
+   * Stops streaming, disconnects the spectators and waits for the I/O thread to
+   * end.
+   *
+   * @throws IOException if the sockets cannot be closed
+   */
+  @Override
+  public void close() throws IOException {
+    my_board.removeBoardListener(this);
+    my_closed = true;
+    my_selector.wakeup();
+    try {
+      my_thread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (SelectionKey key : my_selector.keys()) {
+      key.channel().close();
+    }
+    my_selector.close();
+  }
+
+  /**
+   * Encodes the frame of the changes and hands it to the I/O thread.
+   *
+   * @param the_board the board
+   * @param the_events the kinds of change
+   */
+  @Override
+  public void boardChanged(final ReadableBoard the_board, final int the_events) {
+    final Frame frame = my_free.poll();
+    if (frame == null) {
+      my_encoder.requestKeyframe(); // the spectators cannot make sense of the next delta
+      my_dropped++;
+    } else {
+      final long start = System.nanoTime();
+      frame.my_data.clear();
+      frame.my_keyframe = my_encoder.encode(the_events, frame.my_data);
+      frame.my_data.flip();
+      my_encode_time.record(System.nanoTime() - start);
+      my_frames++;
+      my_encoded_bytes += frame.my_data.limit();
+      if (frame.my_keyframe) {
+        my_keyframes++;
+      }
+      my_published.add(frame);
+      my_selector.wakeup();
+    }
+  }
+
+  /**
+   * @return the port the server listens on.
+   * @throws IOException if the server is closed
+   */
+  public int getPort() throws IOException {
+    return ((InetSocketAddress) my_server.getLocalAddress()).getPort();
+  }
+
+  /**
+   * @return the number of connected spectators.
+   */
+  public int getSpectatorCount() {
+    return my_spectator_count;
+  }
+
+  /**
+   * @return the number of frames encoded.
+   */
+  public long getFrameCount() {
+    return my_frames;
+  }
+
+  /**
+   * @return the number of keyframes encoded.
+   */
+  public long getKeyframeCount() {
+    return my_keyframes;
+  }
+
+  /**
+   * @return the number of bytes encoded.
+   */
+  public long getEncodedBytes() {
+    return my_encoded_bytes;
+  }
+
+  /**
+   * @return the number of frames not sent because every buffer was in use.
+   */
+  public long getDroppedFrames() {
+    return my_dropped;
+  }
+
+  /**
+   * @return the number of bytes sent to spectators.
+   */
+  public long getSentBytes() {
+    return my_sent_bytes;
+  }
+
+  /**
+   * @return the number of times a spectator fell too far behind and started over.
+   */
+  public long getRestarts() {
+    return my_restarts;
+  }
+
+  /**
+   * @return the time taken to encode each frame, in nanoseconds.
+   */
+  public LatencyHistogram getEncodeTime() {
+    return my_encode_time;
+  }
+
+  /**
+   * Accepts a waiting spectator.
+   */
+  private void accept() {
+    try {
+      final SocketChannel channel = my_server.accept();
+      if (channel != null) {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final Spectator spectator = new Spectator(channel);
+        channel.register(my_selector, SelectionKey.OP_READ, spectator);
+        my_spectators.add(spectator);
+        my_spectator_count = my_spectators.size();
+      }
+    } catch (final IOException e) {
+      e.printStackTrace(); // the listening socket carries on
+    }
+  }
+
+  /**
+   * Discards what a spectator sent, ending it if it closed its connection, and
+   * sends its queued frames if its connection can take them again.
+   *
+   * @param the_key the key of the spectator
+   */
+  private void serve(final SelectionKey the_key) {
+    final Spectator spectator = (Spectator) the_key.attachment();
+    boolean open = true;
+    if (the_key.isReadable()) {
+      try {
+        my_scratch.clear();
+        open = spectator.my_channel.read(my_scratch) >= 0;
+      } catch (final IOException e) {
+        open = false;
+      }
+    }
+    if (!open) {
+      end(spectator);
+    } else if (the_key.isWritable()) {
+      spectator.my_blocked = false;
+      flush(spectator);
+    }
+  }
+
+  /**
+   * Queues a frame for every spectator that is not waiting for a keyframe.
+   *
+   * @param the_frame the frame
+   */
+  private void distribute(final Frame the_frame) {
+    the_frame.my_refs = 1; // held until handed out
+    for (int i = 0; i < my_spectators.size(); i++) {
+      final Spectator spectator = my_spectators.get(i);
+      if (!spectator.my_waiting && spectator.my_frames.size() >= MAX_BACKLOG) {
+        restart(spectator);
+      }
+      if (spectator.my_waiting && the_frame.my_keyframe) {
+        spectator.my_waiting = false;
+      }
+      if (!spectator.my_waiting) {
+        the_frame.my_refs++;
+        spectator.my_frames.add(the_frame);
+        spectator.my_views.add(the_frame.my_data.duplicate());
+      }
+    }
+    release(the_frame);
+  }
+
+  /**
+   * Drops the queue of a spectator that fell too far behind, except a frame it
+   * has been sent part of, and makes it wait for a keyframe.
+   *
+   * @param the_spectator the spectator
+   */
+  private void restart(final Spectator the_spectator) {
+    final ByteBuffer head = the_spectator.my_views.peek();
+    final boolean started = head.position() > 0;
+    final Frame first = started ? the_spectator.my_frames.poll() : null;
+    if (started) {
+      the_spectator.my_views.poll();
+    }
+    drop(the_spectator);
+    if (started) {
+      the_spectator.my_frames.add(first);
+      the_spectator.my_views.add(head);
+    }
+    the_spectator.my_waiting = true;
+    my_restarts++;
+  }
+
+  /**
+   * Writes as much of a spectator's queue as its connection takes, returning the
+   * frames sent in full, and watches for the connection taking more if any is
+   * left.
+   *
+   * @param the_spectator the spectator
+   */
+  private void flush(final Spectator the_spectator) {
+    try {
+      boolean more = true;
+      while (more && !the_spectator.my_views.isEmpty()) {
+        int count = 0;
+        for (ByteBuffer view : the_spectator.my_views) {
+          if (count == GATHER) {
+            break;
+          }
+          my_gather[count++] = view;
+        }
+        my_sent_bytes += the_spectator.my_channel.write(my_gather, 0, count);
+        more = !my_gather[count - 1].hasRemaining();
+        Arrays.fill(my_gather, 0, count, null);
+        while (!the_spectator.my_views.isEmpty() &&
+               !the_spectator.my_views.peek().hasRemaining()) {
+          the_spectator.my_views.poll();
+          release(the_spectator.my_frames.poll());
+        }
+      }
+      the_spectator.my_blocked = !the_spectator.my_views.isEmpty();
+      the_spectator.my_channel.keyFor(my_selector).interestOps(the_spectator.my_blocked
+          ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    } catch (final IOException e) {
+      end(the_spectator);
+    }
+  }
+
+  /**
+   * Disconnects a spectator and returns its frames.
+   *
+   * @param the_spectator the spectator
+   */
+  private void end(final Spectator the_spectator) {
+    drop(the_spectator);
+    my_spectators.remove(the_spectator);
+    my_spectator_count = my_spectators.size();
+    try {
+      the_spectator.my_channel.close();
+    } catch (final IOException e) {
+      e.printStackTrace(); // the spectator is gone either way
+    }
+  }
+
+  /**
+   * Empties a spectator's queue, returning its frames.
+   *
+   * @param the_spectator the spectator
+   */
+  private void drop(final Spectator the_spectator) {
+    for (Frame frame = the_spectator.my_frames.poll(); frame != null;
+         frame = the_spectator.my_frames.poll()) {
+      release(frame);
+    }
+    the_spectator.my_views.clear();
+  }
+
+  /**
+   * Lets go of a frame, returning it to the pool if nobody else holds it.
+   *
+   * @param the_frame the frame
+   */
+  private void release(final Frame the_frame) {
+    the_frame.my_refs--;
+    if (the_frame.my_refs == 0) {
+      my_free.add(the_frame);
+    }
+  }
+
+  /**
+   * Plays a game with random inputs at a fixed frame rate until the thread is
+   * interrupted, starting a new game whenever one ends.
+   */
+  private static final class Game implements Runnable {
+    /** The board played. */
+    private final Board my_board;
+    /** The source of the inputs. */
+    private final Random my_random = new Random(SEED);
+
+    /**
+     * Creates a game.
+     *
+     * @param the_board the board to play
+     */
+    Game(final Board the_board) {
+      my_board = the_board;
+    }
+
+    @Override
+    public void run() {
+      final Input[] inputs = Input.values();
+      final long frame = TimeUnit.SECONDS.toNanos(1) / FRAMES_PER_SECOND;
+      long next = System.nanoTime();
+      for (long tick = 0; !Thread.currentThread().isInterrupted(); tick++) {
+        synchronized (my_board) {
+          my_board.beginUpdate();
+          if (!my_board.isRunning()) {
+            my_board.newGame();
+          } else if (my_random.nextDouble() < INPUT_CHANCE) {
+            // no hard drops, so pieces land by gravity and soft drops
+            inputs[my_random.nextInt(inputs.length - 1)].apply(my_board);
+          }
+          if (tick % GRAVITY_TICKS == 0 && my_board.isRunning()) {
+            my_board.fall(1);
+          }
+          my_board.endUpdate();
+        }
+        next += frame;
+        LockSupport.parkNanos(this, next - System.nanoTime());
+      }
+    }
+  }
+
+  /**
+   * A spectator of the measurement run: its connection, the bytes read and not
+   * yet applied and its copy of the game.
+   */
+  private static final class Watcher {
+    /** The connection. */
+    private final SocketChannel my_channel;
+    /** The bytes read and not yet applied. */
+    private final ByteBuffer my_input;
+    /** The copy of the game. */
+    private final SpectatorBoard my_board = new SpectatorBoard();
+
+    /**
+     * Connects a spectator.
+     *
+     * @param the_port the port of the server
+     * @param the_selector the selector to register with
+     * @param the_frame_size the size of the largest frame
+     * @throws IOException if the spectator cannot connect
+     */
+    Watcher(final int the_port, final Selector the_selector, final int the_frame_size)
+      throws IOException {
+      my_channel = SocketChannel.open(new InetSocketAddress("localhost", the_port));
+      my_channel.configureBlocking(false);
+      my_channel.register(the_selector, SelectionKey.OP_READ, this);
+      my_input = ByteBuffer.allocate(the_frame_size * GATHER);
+    }
+
+    /**
+     * Reads what arrived and applies the complete frames.
+     *
+     * @throws IOException if the connection fails or a frame is corrupt
+     */
+    void read() throws IOException {
+      if (my_channel.read(my_input) < 0) {
+        throw new IOException("server closed the connection");
+      }
+      my_input.flip();
+      while (my_input.remaining() >= DeltaEncoder.HEADER_SIZE &&
+             my_input.remaining() >= DeltaEncoder.HEADER_SIZE +
+                 my_input.getShort(my_input.position() + 1 + Integer.BYTES)) {
+        my_board.apply(my_input);
+      }
+      my_input.compact();
+    }
+  }
+
+  /**
+   * Reads the frames sent to a set of spectators until a deadline.
+   *
+   * @param the_selector the selector of the spectators
+   * @param the_deadline the time to stop
+   * @throws IOException if a spectator's connection fails
+   */
+  private static void watch(final Selector the_selector, final long the_deadline)
+    throws IOException {
+    while (System.nanoTime() - the_deadline < 0) {
+      the_selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(the_deadline -
+                                                                   System.nanoTime())));
+      for (SelectionKey key : the_selector.selectedKeys()) {
+        ((Watcher) key.attachment()).read();
+      }
+      the_selector.selectedKeys().clear();
+    }
+  }
+
+  /**
+   * Streams a game to spectators in this process and reports the results.
+   *
+   * @param the_args the optional number of spectators, seconds and frames between
+   *          keyframes.
+   * @throws IOException if a spectator cannot connect
+   * @throws InterruptedException if interrupted while the game stops
+   */
+  public static void main(final String[] the_args)
+    throws IOException, InterruptedException {
+    final int spectators = the_args.length > 0 ? Integer.parseInt(the_args[0]) : SPECTATORS;
+    final int seconds = the_args.length > 1 ? Integer.parseInt(the_args[1]) : SECONDS;
+    final int interval = the_args.length > 2 ? Integer.parseInt(the_args[2]) : KEYFRAME_FRAMES;
+    final Board board = new Board(WIDTH, HEIGHT, new BagPieceGenerator(SEED));
+    final SpectatorServer server =
+        new SpectatorServer(new InetSocketAddress("localhost", 0), board, interval);
+    final int frame_size = server.my_encoder.getMaxFrameSize();
+    final Selector selector = Selector.open();
+    final List<Watcher> watchers = new ArrayList<Watcher>();
+    server.start();
+    for (int i = 0; i < spectators / 2; i++) {
+      watchers.add(new Watcher(server.getPort(), selector, frame_size));
+    }
+    final Thread game = new Thread(new Game(board), "game");
+    final long start = System.nanoTime();
+    game.start();
+    final long half = start + TimeUnit.SECONDS.toNanos(seconds) / 2;
+    watch(selector, half);
+    for (int i = spectators / 2; i < spectators; i++) {
+      watchers.add(new Watcher(server.getPort(), selector, frame_size));
+    }
+    watch(selector, start + TimeUnit.SECONDS.toNanos(seconds));
+    game.interrupt();
+    game.join();
+    final double wall = (System.nanoTime() - start) / NANOS;
+
+    // let every spectator catch up with the last frame
+    final int last = (int) server.getFrameCount() - 1;
+    final long drain = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_SECONDS);
+    int caught_up = 0;
+    while (caught_up < watchers.size() && System.nanoTime() - drain < 0) {
+      watch(selector, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS));
+      caught_up = 0;
+      for (Watcher watcher : watchers) {
+        if (watcher.my_board.getSequence() == last) {
+          caught_up++;
+        }
+      }
+    }
+    int same = 0;
+    for (Watcher watcher : watchers) {
+      if (watcher.my_board.isSynced() && watcher.my_board.getHash() == board.getHash() &&
+          watcher.my_board.getLockCount() == board.getLockCount() &&
+          watcher.my_board.getScore() == board.getScore()) {
+        same++;
+      }
+    }
+
+    final long frames = server.getFrameCount();
+    final long keyframes = server.getKeyframeCount();
+    System.out.printf("%d frames in %.1f s, %d keyframes, %d dropped%n", frames, wall,
+                      keyframes, server.getDroppedFrames());
+    System.out.printf("%.1f bytes per frame, a keyframe up to %d bytes, encode %s%n",
+                      (double) server.getEncodedBytes() / frames, frame_size,
+                      server.getEncodeTime());
+    System.out.printf("%d spectators: %.2f MB/s sent, %d restarts, %d of %d hold the game%n",
+                      server.getSpectatorCount(), server.getSentBytes() / wall / MEGABYTE,
+                      server.getRestarts(), same, watchers.size());
+    for (SelectionKey key : selector.keys()) {
+      key.channel().close();
+    }
+    selector.close();
+    server.close();
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * TCSS 305 - Spring 2012
+ * Tetris Project
+ */
+package view;
+
+import controller.Board;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the bytes allocated by one full game frame and fails when they exceed a
+ * budget. A frame is a gravity step, a scripted move, the event dispatch to the
+ * panels and a repaint of the board and preview panels into an offscreen image.
+ * Frames that start a new game are not counted. The budget is the number of
+ * bytes each frame may allocate, and the gate fails when more than STRAY_FRAMES
+ * frames exceed it: the JVM itself allocates now and then, for instance when it
+ * deoptimizes code, but an allocation in the game shows up in hundreds of
+ * frames. Runs headless.
+ *
+ * Usage: FrameAllocationGate [budget bytes per frame, default 0] [frames]
+ *
+ * @author Aaron Nelson
+ * @version 6/1/2012
+ */
+public final class FrameAllocationGate {
+  /**
+   * The number of frames played before measuring, so that the JIT has settled.
+   */
+  private static final int WARMUP_FRAMES = 200000;
+  /**
+   * The number of frames that may exceed the budget, for allocations of the JVM.
+   */
+  private static final int STRAY_FRAMES = 3;
+  /**
+   * The default number of measured frames.
+   */
+  private static final int FRAMES = 100000;
+  /**
+   * The pixel size used by the panels.
+   */
+  private static final int PIXELSIZE = 20;
+  /**
+   * The number of extra rows painted above the board.
+   */
+  private static final int EXTRAROWS = 4;
+  /**
+   * The number of distinct moves in the scripted input.
+   */
+  private static final int MOVES = 8;
+  /**
+   * The board being played.
+   */
+  private final Board my_board;
+  /**
+   * The panel showing the board.
+   */
+  private final GamingPanel my_game_panel;
+  /**
+   * The panel showing the next piece.
+   */
+  private final PiecePreviewPanel my_preview;
+  /**
+   * The image the game panel is painted into.
+   */
+  private final Graphics2D my_game_graphics;
+  /**
+   * The image the preview panel is painted into.
+   */
+  private final Graphics2D my_preview_graphics;
+  /**
+   * The number of frames played so far.
+   */
+  private long my_frame;
+
+  /**
+   * Builds a board and its panels the way TetrisGUI does.
+   */
+  private FrameAllocationGate() {
+    my_board = new Board();
+    my_game_panel = new GamingPanel(my_board);
+    my_preview = new PiecePreviewPanel(my_board.getNextPiece());
+    my_board.addBoardListener(new ScorePanel(), ScorePanel.EVENTS);
+    my_board.addBoardListener(my_game_panel, GamingPanel.EVENTS);
+    my_board.addBoardListener(my_preview, PiecePreviewPanel.EVENTS);
+
+    final int width = my_board.getWidth() * PIXELSIZE;
+    final int height = (my_board.getHeight() + EXTRAROWS) * PIXELSIZE;
+    my_game_panel.setSize(width, height);
+    my_preview.setSize(my_preview.getPreferredSize());
+    my_game_graphics = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+        .createGraphics();
+    my_preview_graphics = new BufferedImage(my_preview.getWidth(), my_preview.getHeight(),
+                                            BufferedImage.TYPE_INT_RGB).createGraphics();
+  }
+
+  /**
+   * Plays one frame.
+   *
+   * @return false if the frame had to start a new game and should not be counted
+   */
+  private boolean frame() {
+    if (!my_board.getGameInformation().isGameOver()) {
+      my_board.newGame();
+      return false;
+    }
+    switch ((int) (my_frame++ % MOVES)) {
+      case 0:
+      case 1:
+        my_board.moveLeft();
+        break;
+      case 2:
+        my_board.rotate();
+        break;
+      case 3:
+      case 4:
+        my_board.moveRight();
+        break;
+      case 5:
+        my_board.moveDown();
+        break;
+      case 6:
+        if (my_frame % (MOVES * MOVES) == MOVES - 1) {
+          my_board.drop();
+        }
+        break;
+      default:
+        break;
+    }
+    my_board.step();
+    my_game_panel.paintComponent(my_game_graphics);
+    my_preview.paintComponent(my_preview_graphics);
+    return true;
+  }
+
+  /**
+   * Runs the gate.
+   *
+   * @param the_args the optional budget in bytes per frame and number of frames.
+   */
+  public static void main(final String[] the_args) {
+    System.setProperty("java.awt.headless", "true");
+    final long budget = the_args.length > 0 ? Long.parseLong(the_args[0]) : 0;
+    final int frames = the_args.length > 1 ? Integer.parseInt(the_args[1]) : FRAMES;
+    final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    final long thread = Thread.currentThread().getId();
+    final FrameAllocationGate gate = new FrameAllocationGate();
+
+    for (int i = 0; i < WARMUP_FRAMES; i++) {
+      gate.frame();
+    }
+    long allocated = 0;
+    long allocating = 0;
+    long over = 0;
+    long counted = 0;
+    while (counted < frames) {
+      final long before = threads.getThreadAllocatedBytes(thread);
+      final boolean count = gate.frame();
+      final long bytes = threads.getThreadAllocatedBytes(thread) - before;
+      if (count) {
+        allocated += bytes;
+        if (bytes > 0) {
+          allocating++;
+        }
+        if (bytes > budget) {
+          over++;
+        }
+        counted++;
+      }
+    }
+    // judge frames one by one, so that rare allocations cannot average away
+    System.out.printf("%d frames, %d allocating, %d bytes allocated, %d over the " +
+                      "budget of %d bytes (%d allowed)%n", counted, allocating, allocated,
+                      over, budget, STRAY_FRAMES);
+    if (over > STRAY_FRAMES) {
+      throw new IllegalStateException("Frame allocation budget exceeded: " + over +
+                                      " frames allocated more than " + budget + " bytes");
+    }
+  }
+}
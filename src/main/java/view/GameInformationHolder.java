@@ -6,8 +6,8 @@
  */
 package view;
 
-import model.AbstractPiece;
 import model.Piece;
+import model.PieceState;
 
 /**
  * This class is used to hold information about a game.
@@ -38,19 +38,25 @@ public class GameInformationHolder {
    */
   private int my_level;
   /**
-   * This field holds the next piece that will be used on a tetris board.
+   * This field holds the packed state of the next piece that will be used on a tetris
+   * board.
    */
-  private Piece my_piece;
+  private int my_piece;
   /**
    * The current lines cleared count. It resets at ten.
    */
   private int my_line_count;
+  /**
+   * The total number of lines cleared in this game.
+   */
+  private int my_total_lines;
   /**
    * Constructs a game information holder.
    * 
-   * @param the_piece The next piece that will be used on a tetris board.
+   * @param the_piece The packed state of the next piece that will be used on a tetris
+   *   board.
    */
-  public GameInformationHolder(final Piece the_piece) {
+  public GameInformationHolder(final int the_piece) {
     my_score = 0;
     my_game_over_status = true;
     my_level = 1;
@@ -65,22 +71,29 @@ public class GameInformationHolder {
   public int getLineCount() {
     return my_line_count;
   }
+  /**
+   * Gets the total number of lines cleared in this game.
+   * 
+   * @return returns the number of lines cleared since the game started.
+   */
+  public int getTotalLines() {
+    return my_total_lines;
+  }
   /**
    * Increments the line count.
    */
   public void updateLineCount() {
+    my_total_lines++;
     my_line_count = my_line_count++ % LINENUMBER;
     updateScore(SCORE);
   }
   /**
-   * Updates the piece type that is the next piece if it is different than the current one.
+   * Updates the piece that is the next piece.
    * 
-   * @param the_piece The next piece that will be used.
+   * @param the_piece The packed state of the next piece that will be used.
    */
-  public void updatePiece(final Piece the_piece) {
-    if (!the_piece.equals(my_piece)) {
-      my_piece = the_piece;
-    }
+  public void updatePiece(final int the_piece) {
+    my_piece = the_piece;
   }
   /**
    * Returns the next piece to be used by a board.
@@ -89,7 +102,15 @@ public class GameInformationHolder {
    */
   public Piece getPiece() {
     
-    return ((AbstractPiece) my_piece).clone();
+    return PieceState.toPiece(my_piece);
+  }
+  /**
+   * Returns the packed state of the next piece to be used by a board.
+   * 
+   * @return The packed state of the next piece used on a board.
+   */
+  public int getPieceState() {
+    return my_piece;
   }
   /**
    * Increments the level by 1.
@@ -97,6 +118,23 @@ public class GameInformationHolder {
   public void levelUp() {
     my_level++;
   }
+  /**
+   * Sets every statistic at once, as when a recorded or saved game is restored.
+   * 
+   * @param the_score The score.
+   * @param the_level The difficulty level.
+   * @param the_line_count The line count since the last reset at ten.
+   * @param the_total_lines The total number of lines cleared.
+   * @param the_running True if the game is still going.
+   */
+  public void restore(final int the_score, final int the_level, final int the_line_count,
+                      final int the_total_lines, final boolean the_running) {
+    my_score = the_score;
+    my_level = the_level;
+    my_line_count = the_line_count;
+    my_total_lines = the_total_lines;
+    my_game_over_status = the_running;
+  }
   /**
    * Ends the game by setting status to false.
    */
@@ -1,29 +1,44 @@
 /*
  * Aaron Nelson
- * 
+ *
  * TCSS 305 - Spring 2012
  * Tetris Part 4
  */
 package view;
 
-import controller.Board;
+import controller.BoardEvent;
+import controller.BoardListener;
+import controller.BoardSnapshot;
+import controller.EngineMetrics;
+import controller.GameLoop;
+import controller.ReadableBoard;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Observable;
-import java.util.Observer;
+import java.awt.image.BufferedImage;
 import javax.swing.JPanel;
-import model.Block;
+import model.PieceShape;
+import model.PieceState;
 
 /**
  * This class creates the view for the current board state.
- * 
+ *
+ * The frozen blocks are kept in a back buffer that only changes when a piece
+ * locks or lines clear; a lock without a clear draws just the locked piece into
+ * it. A move of the falling piece repaints only the cells the piece left and
+ * entered, and painting copies the clipped part of the back buffer before
+ * drawing the piece over it. The panel paints the state it was last told about,
+ * so it can be fed snapshots of a board played on another thread.
+ *
  * @author Aaron Nelson
  * @version 5/25/2012
  */
-public class GamingPanel extends JPanel implements Observer {
+public class GamingPanel extends JPanel implements BoardListener {
+  /**
+   * The board events this panel repaints on.
+   */
+  public static final int EVENTS = BoardEvent.PIECE_MOVED | BoardEvent.PIECE_LOCKED |
+      BoardEvent.LINES_CLEARED;
   /**
    * The pixel size for drawing the board.
    */
@@ -33,53 +48,182 @@ public class GamingPanel extends JPanel implements Observer {
    */
   private static final int EXTRAROWS = 4;
   /**
-   * The currently frozen blocks on a board.
+   * The color of the blocks.
+   */
+  private static final Color BLOCK_COLOR = Color.RED;
+  /**
+   * The board state being painted.
+   */
+  private ReadableBoard my_board;
+  /**
+   * The frozen blocks drawn over the background, the size of the panel.
+   */
+  private BufferedImage my_stack;
+  /**
+   * The graphics context drawing into the back buffer, kept for its lifetime.
+   */
+  private Graphics2D my_stack_graphics;
+  /**
+   * Whether the back buffer must be redrawn from the board before it is used.
+   */
+  private boolean my_stack_dirty = true;
+  /**
+   * The packed state of the falling piece when the panel last saw it.
    */
-  private final Board my_board;
-  
+  private int my_piece;
+  /**
+   * The number of locked pieces drawn into the back buffer.
+   */
+  private int my_lock_count;
+  /**
+   * The game loop told about every painted snapshot, or null.
+   */
+  private GameLoop my_probe;
+  /**
+   * The metrics the time of every paint is recorded into, or null.
+   */
+  private EngineMetrics my_metrics;
+
   /**
    * Constructs a gaming panel for drawing a tetris board.
-   * 
+   *
    * @param the_board the current tetris game.
    */
-  public GamingPanel(final Board the_board) {
+  public GamingPanel(final ReadableBoard the_board) {
     super();
     my_board = the_board;
+    my_piece = the_board.getCurrentPieceState();
+    my_lock_count = the_board.getLockCount();
     this.setBackground(Color.CYAN);
-    
-    
+
+
+  }
+  /**
+   * Tells a game loop about every snapshot this panel paints, so that it can
+   * measure the time from a key press to the screen.
+   *
+   * @param the_loop the game loop, or null to stop telling.
+   */
+  public void setPaintProbe(final GameLoop the_loop) {
+    my_probe = the_loop;
+  }
+  /**
+   * Records the time of every paint into the given metrics.
+   *
+   * @param the_metrics the metrics, or null to stop recording.
+   */
+  public void setMetrics(final EngineMetrics the_metrics) {
+    my_metrics = the_metrics;
   }
   @Override
-  public void update(final Observable the_source, final Object the_update) {
-    repaint();
+  public void boardChanged(final ReadableBoard the_board, final int the_events) {
+    my_board = the_board;
+    // rows moved down, or several locks were reported together
+    if ((the_events & BoardEvent.LINES_CLEARED) != 0 ||
+        the_board.getLockCount() != my_lock_count + 1 &&
+        (the_events & BoardEvent.PIECE_LOCKED) != 0) {
+      my_stack_dirty = true;
+      repaint();
+    } else if ((the_events & BoardEvent.PIECE_LOCKED) != 0) {
+      final int locked = the_board.getLockedPieceState();
+      if (!my_stack_dirty && my_stack != null) {
+        paintPiece(my_stack_graphics, locked);
+      }
+      repaintPiece(locked);
+    }
+    my_lock_count = the_board.getLockCount();
+    repaintPiece(my_piece);
+    my_piece = the_board.getCurrentPieceState();
+    repaintPiece(my_piece);
   }
   @Override
   public void paintComponent(final Graphics the_graphics) {
-    super.paintComponent(the_graphics);
+    // paint the cached stack instead of calling super.paintComponent, which
+    // copies the graphics context on every paint; only the clip is copied
+    final EngineMetrics metrics = my_metrics;
+    final long start = metrics == null ? 0L : System.nanoTime();
     final Graphics2D g2d = (Graphics2D) the_graphics;
-    g2d.setColor(Color.RED);
-    
-    
-    
-    final List<Block[]> blocks = new LinkedList<Block[]>(my_board.getBlocks());
-    final int[][] piece = my_board.getCurrentPiece().getBoardCoordinates();
-
-    for (int single_block = 0; single_block < piece.length; single_block++) {
-      g2d.fillRect(piece[single_block][0] * PIXELSIZE, (my_board.getHeight() - 
-          piece[single_block][1]) * PIXELSIZE - (EXTRAROWS - 1) * PIXELSIZE + 
-          (EXTRAROWS - 1) * PIXELSIZE, PIXELSIZE, PIXELSIZE);
-      
+    updateStack();
+    g2d.drawImage(my_stack, 0, 0, null);
+    paintPiece(g2d, my_board.getCurrentPieceState());
+    if (my_probe != null && my_board instanceof BoardSnapshot) {
+      my_probe.painted(((BoardSnapshot) my_board).getVersion(), System.nanoTime());
+    }
+    if (metrics != null) {
+      metrics.record(EngineMetrics.PAINT, start);
+    }
+  }
+  /**
+   * Makes the back buffer match the size of the panel and the frozen blocks of
+   * the board.
+   */
+  private void updateStack() {
+    final int width = Math.max(1, getWidth());
+    final int height = Math.max(1, getHeight());
+    if (my_stack == null || my_stack.getWidth() != width || my_stack.getHeight() != height) {
+      if (my_stack_graphics != null) {
+        my_stack_graphics.dispose();
+      }
+      my_stack = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      my_stack_graphics = my_stack.createGraphics();
+      my_stack_dirty = true;
     }
-    
-    for (int rows = 0; rows < blocks.size(); rows++) {
-      final Block[] each_row = blocks.get(rows);
-      for (int column = 0; column < each_row.length; column++) {
-        if (!each_row[column].equals(Block.EMPTY)) {
-          g2d.fillRect(column * PIXELSIZE, (my_board.getHeight() - rows + (EXTRAROWS - 1)) *
-                       PIXELSIZE - (EXTRAROWS - 1) * PIXELSIZE, PIXELSIZE, PIXELSIZE);
+    if (my_stack_dirty) {
+      my_stack_graphics.setColor(getBackground());
+      my_stack_graphics.fillRect(0, 0, width, height);
+      my_stack_graphics.setColor(BLOCK_COLOR);
+      // read the board in place so that redrawing the stack allocates nothing
+      for (int rows = 0; rows < my_board.getStackHeight(); rows++) {
+        long each_row = my_board.getRowMask(rows);
+        while (each_row != 0) {
+          final int column = Long.numberOfTrailingZeros(each_row);
+          my_stack_graphics.fillRect(column * PIXELSIZE, rowTop(rows), PIXELSIZE, PIXELSIZE);
+          each_row &= each_row - 1;
         }
       }
+      my_stack_dirty = false;
+    }
+  }
+  /**
+   * Draws the blocks of a piece.
+   *
+   * @param the_graphics the graphics to draw with.
+   * @param the_piece the packed state of the piece.
+   */
+  private void paintPiece(final Graphics2D the_graphics, final int the_piece) {
+    final PieceShape shape = PieceState.getShape(the_piece);
+    final int rotation = PieceState.getRotation(the_piece);
+
+    the_graphics.setColor(BLOCK_COLOR);
+    for (int single_block = 0; single_block < PieceShape.BLOCKS; single_block++) {
+      the_graphics.fillRect((PieceState.getX(the_piece) +
+                             shape.getCellX(rotation, single_block)) * PIXELSIZE,
+                            rowTop(PieceState.getY(the_piece) +
+                                   shape.getCellY(rotation, single_block)),
+                            PIXELSIZE, PIXELSIZE);
     }
   }
+  /**
+   * Schedules a repaint of the cells covered by a piece.
+   *
+   * @param the_piece the packed state of the piece.
+   */
+  private void repaintPiece(final int the_piece) {
+    final PieceShape shape = PieceState.getShape(the_piece);
+    final int rotation = PieceState.getRotation(the_piece);
+    repaint(PieceState.getX(the_piece) * PIXELSIZE,
+            rowTop(PieceState.getY(the_piece) + shape.getHeight(rotation) - 1),
+            shape.getWidth(rotation) * PIXELSIZE, shape.getHeight(rotation) * PIXELSIZE);
+  }
+  /**
+   * Returns the pixel coordinate of the top edge of a board row.
+   *
+   * @param the_row the board row, counted from the floor.
+   * @return the y pixel coordinate.
+   */
+  private int rowTop(final int the_row) {
+    return (my_board.getHeight() - the_row + (EXTRAROWS - 1)) * PIXELSIZE -
+        (EXTRAROWS - 1) * PIXELSIZE;
+  }
 
 }
@@ -6,16 +6,19 @@
  */
 package view;
 
+import controller.BoardEvent;
+import controller.BoardListener;
+import controller.ReadableBoard;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.util.Observable;
-import java.util.Observer;
 
 import javax.swing.JPanel;
 
 import model.Piece;
+import model.PieceShape;
+import model.PieceState;
 
 /**
  * This class creates a panel for displaying a preview of the next tetris piece.
@@ -24,7 +27,11 @@ import model.Piece;
  * @version 5/25/2012
  */
 
-public class PiecePreviewPanel extends JPanel implements Observer {
+public class PiecePreviewPanel extends JPanel implements BoardListener {
+  /**
+   * The board events this panel updates on; the next piece changes on lock.
+   */
+  public static final int EVENTS = BoardEvent.PIECE_LOCKED;
   /**
    * The dimension for the preview panel.
    */
@@ -38,9 +45,9 @@ public class PiecePreviewPanel extends JPanel implements Observer {
    */
   private static final String PREVIEWTITLE = "Preview of the Next Piece";
   /**
-   * The next piece for the board that is being previewed.
+   * The packed state of the next piece for the board that is being previewed.
    */
-  private Piece my_piece;
+  private int my_piece;
   /**
    * Constructs the panel to display the next piece as a preview.
    * 
@@ -48,29 +55,37 @@ public class PiecePreviewPanel extends JPanel implements Observer {
    */
   public PiecePreviewPanel(final Piece the_piece) {
     super();
-    my_piece = the_piece;
+    my_piece = PieceState.of(the_piece);
     setPreferredSize(MYSIZE);
     this.setBackground(Color.WHITE);
   }
   @Override
   public void paintComponent(final Graphics the_graphics) {
-    super.paintComponent(the_graphics);
+    // fill the background here instead of calling super.paintComponent, which
+    // copies the graphics context on every paint
     final Graphics2D g2d = (Graphics2D) the_graphics;
+    g2d.setColor(getBackground());
+    g2d.fillRect(0, 0, getWidth(), getHeight());
     g2d.setColor(Color.BLUE);
     
-    final int[][] block_locations = my_piece.getBlockLocations();
-    for (int pair = 0; pair < block_locations.length; pair++) {
-      g2d.fillRect(block_locations[pair][0] * PIXELSIZE + MYSIZE.width / 2 - PIXELSIZE, 
-                   (MYSIZE.height - block_locations[pair][1] * PIXELSIZE / 2) - 
-                   (block_locations[pair][1] * PIXELSIZE / 2), PIXELSIZE, PIXELSIZE);
+    final PieceShape shape = PieceState.getShape(my_piece);
+    final int rotation = PieceState.getRotation(my_piece);
+    for (int pair = 0; pair < PieceShape.BLOCKS; pair++) {
+      final int x = shape.getCellX(rotation, pair);
+      final int y = shape.getCellY(rotation, pair);
+      g2d.fillRect(x * PIXELSIZE + MYSIZE.width / 2 - PIXELSIZE, 
+                   (MYSIZE.height - y * PIXELSIZE / 2) - 
+                   (y * PIXELSIZE / 2), PIXELSIZE, PIXELSIZE);
     }
   }
   @Override
-  public void update(final Observable the_source, final Object the_data) {
-    if (the_data instanceof GameInformationHolder && ((GameInformationHolder) 
-        the_data).isGameOver()) {
-      my_piece = ((GameInformationHolder) the_data).getPiece();
-      repaint();
+  public void boardChanged(final ReadableBoard the_board, final int the_events) {
+    if (the_board.isRunning()) {
+      final int piece = the_board.getNextPieceState();
+      if (piece != my_piece) {
+        my_piece = piece;
+        repaint();
+      }
     }
     
   }
@@ -6,8 +6,9 @@
  */
 package view;
 
-import java.util.Observable;
-import java.util.Observer;
+import controller.BoardEvent;
+import controller.BoardListener;
+import controller.ReadableBoard;
 import javax.swing.BoxLayout;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -17,7 +18,11 @@ import javax.swing.JPanel;
  * @author Aaron Nelson
  * @version 6/1/2012
  */
-public class ScorePanel extends JPanel implements Observer {
+public class ScorePanel extends JPanel implements BoardListener {
+  /**
+   * The board events this panel updates on.
+   */
+  public static final int EVENTS = BoardEvent.STATS_CHANGED;
   /**
    * The text that always will be displayed in the score label.
    */
@@ -49,6 +54,18 @@ public class ScorePanel extends JPanel implements Observer {
    * the next level.
    */
   private final JLabel my_next_level = new JLabel();
+  /**
+   * The score that is currently displayed.
+   */
+  private int my_score;
+  /**
+   * The level that is currently displayed.
+   */
+  private int my_level = 1;
+  /**
+   * The line count that is currently displayed.
+   */
+  private int my_line_count;
   /**
    * Constructs the panel to display score and level information.
    */
@@ -69,12 +86,16 @@ public class ScorePanel extends JPanel implements Observer {
     add(my_next_level);
   }
   @Override
-  public void update(final Observable the_source, final Object the_update) {
-    if (the_update instanceof GameInformationHolder) {
-      my_score_label.setText(SCORE + ((GameInformationHolder) the_update).getScore());
-      my_level_label.setText(LEVEL + ((GameInformationHolder) the_update).getLevel());
-      my_next_level.setText(NEXTLEVEL + (INITIALCOUNT - ((GameInformationHolder) 
-          the_update).getLineCount()));
+  public void boardChanged(final ReadableBoard the_board, final int the_events) {
+    // only rebuild the label text when a value changed
+    if (the_board.getScore() != my_score || the_board.getLevel() != my_level ||
+        the_board.getLineCount() != my_line_count) {
+      my_score = the_board.getScore();
+      my_level = the_board.getLevel();
+      my_line_count = the_board.getLineCount();
+      my_score_label.setText(SCORE + my_score);
+      my_level_label.setText(LEVEL + my_level);
+      my_next_level.setText(NEXTLEVEL + (INITIALCOUNT - my_line_count));
       repaint();
     }
   }
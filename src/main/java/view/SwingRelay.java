@@ -0,0 +1,102 @@
+/*
+ * Aaron Nelson
+ *
+ * TCSS 305 - Spring 2012
+ * Tetris Part 4
+ */
+package view;
+
+import controller.Board;
+import controller.BoardEvent;
+import controller.BoardListener;
+import controller.ReadableBoard;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.SwingUtilities;
+
+/**
+ * Hands the changes of a board played on another thread to listeners on the
+ * Swing event thread. The relay turns on the board's snapshots and passes the
+ * latest snapshot to its listeners, so they never read the live board. Changes
+ * made while a hand-off is waiting for the event thread join that hand-off, so
+ * a busy event thread receives one update however many ticks it missed.
+ *
+ * @author Aaron Nelson
+ * @version 6/1/2012
+ */
+public class SwingRelay implements BoardListener, Runnable {
+  /**
+   * The board being relayed.
+   */
+  private final Board my_board;
+  /**
+   * The kinds of change not yet handed to the event thread.
+   */
+  private final AtomicInteger my_pending = new AtomicInteger();
+  /**
+   * The listeners on the event thread.
+   */
+  private BoardListener[] my_listeners = new BoardListener[0];
+  /**
+   * The kinds of change each listener subscribed to.
+   */
+  private int[] my_events = new int[0];
+
+  /**
+   * Creates a relay for a board and subscribes it to every kind of change.
+   * Call it on the thread that plays the board, or before that thread starts.
+   *
+   * @param the_board the board
+   */
+  public SwingRelay(final Board the_board) {
+    my_board = the_board;
+    the_board.setPublishing(true);
+    the_board.addBoardListener(this, BoardEvent.ALL);
+  }
+
+  /**
+   * Subscribes a listener on the event thread to the given kinds of change. Must
+   * be called on the event thread.
+   *
+   * @param the_listener the listener
+   * @param the_events the kinds of change, as a mask of BoardEvent bits
+   */
+  public void addBoardListener(final BoardListener the_listener, final int the_events) {
+    my_listeners = Arrays.copyOf(my_listeners, my_listeners.length + 1);
+    my_events = Arrays.copyOf(my_events, my_events.length + 1);
+    my_listeners[my_listeners.length - 1] = the_listener;
+    my_events[my_events.length - 1] = the_events;
+  }
+
+  /**
+   * Records the changes and schedules a hand-off unless one is waiting.
+   *
+   * @param the_board the board that changed
+   * @param the_events the kinds of change
+   */
+  @Override
+  public void boardChanged(final ReadableBoard the_board, final int the_events) {
+    int pending;
+    do {
+      pending = my_pending.get();
+    } while (!my_pending.compareAndSet(pending, pending | the_events));
+    if (pending == 0) {
+      SwingUtilities.invokeLater(this);
+    }
+  }
+
+  /**
+   * Hands the pending changes and the latest snapshot to the listeners.
+   */
+  @Override
+  public void run() {
+    final int events = my_pending.getAndSet(0);
+    final ReadableBoard snapshot = my_board.getSnapshot();
+    for (int i = 0; i < my_listeners.length; i++) {
+      final int wanted = events & my_events[i];
+      if (wanted != 0) {
+        my_listeners[i].boardChanged(snapshot, wanted);
+      }
+    }
+  }
+}
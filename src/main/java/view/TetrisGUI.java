@@ -7,6 +7,12 @@
 package view;
 
 import controller.Board;
+import controller.BoardEvent;
+import controller.BoardListener;
+import controller.EngineMetrics;
+import controller.GameLoop;
+import controller.Input;
+import controller.ReadableBoard;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
@@ -14,8 +20,6 @@ import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
-import java.util.Observable;
-import java.util.Observer;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
 import javax.swing.JFrame;
@@ -25,22 +29,28 @@ import javax.swing.JMenuBar;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JToggleButton;
-import javax.swing.Timer;
 import java.awt.Toolkit;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import server.MetricsEndpoint;
 
 /**
- * This class creates the GUI for a Tetris game.
+ * This class creates the GUI for a Tetris game. The board is played by a game
+ * loop thread; the panels are fed snapshots of it on the event thread, and key
+ * presses and releases are passed to the loop, which handles auto-repeat.
  * 
  * @author Aaron Nelson
  * @version 5/22/2012
  */
-public class TetrisGUI extends JFrame implements Observer {
+public class TetrisGUI extends JFrame implements BoardListener {
   /**
-   * The initial timer delay time.
+   * The initial gravity delay in milliseconds.
    */
   private static final int DELAY = 1000;
   /**
-   * The timer delay change when leveling up.
+   * The gravity delay change when leveling up.
    */
   private static final int DELAYCHANGE = 100;
   /**
@@ -60,14 +70,34 @@ public class TetrisGUI extends JFrame implements Observer {
    * The name of the options that are available in the menu.
    */
   private static final String[] MENUNAMES = {"New Game", "Pause Game", "End Game"};
+  /**
+   * The number of frames between the keyframes of a recording, ten seconds.
+   */
+  private static final int KEYFRAME_TICKS = 600;
+  /**
+   * The name the metrics of the game are registered with as an MBean.
+   */
+  private static final String METRICS_NAME = "gui";
   /**
    * This field holds the current state of the tetris board.
    */
   private final Board my_board;
   /**
-   * The timer for controlling events in the tetris game.
+   * The time taken by the board's operations and the panel's paints.
    */
-  private final Timer my_timer;
+  private final EngineMetrics my_metrics = new EngineMetrics();
+  /**
+   * The HTTP server of the metrics, or null if they are not served.
+   */
+  private MetricsEndpoint my_metrics_endpoint;
+  /**
+   * The thread that advances the game.
+   */
+  private final GameLoop my_loop;
+  /**
+   * Hands the changes of the board to the panels on the event thread.
+   */
+  private final SwingRelay my_relay;
   /**
    * This field holds the preview piece.
    */
@@ -102,46 +132,51 @@ public class TetrisGUI extends JFrame implements Observer {
   public TetrisGUI() {
     super();
     my_board = new Board();
+    my_relay = new SwingRelay(my_board);
     my_stats = new ScorePanel();
-    my_timer = new Timer(DELAY, new TetrisPieceListener());
+    my_loop = new GameLoop(my_board, DELAY, TimeUnit.MILLISECONDS);
     my_piece_preview = new PiecePreviewPanel(my_board.getNextPiece());
-    my_current_game = new GamingPanel(my_board);
+    my_current_game = new GamingPanel(my_board.getSnapshot());
+    my_current_game.setPaintProbe(my_loop);
+    my_board.setMetrics(my_metrics);
+    my_current_game.setMetrics(my_metrics);
+    try {
+      my_metrics.register(METRICS_NAME);
+    } catch (final JMException e) {
+      e.printStackTrace(); // the game is playable without the MBean
+    }
     my_level = 1;
-    addTheObservers();
+    addTheListeners();
     my_game_over = true;
     my_menu = new JMenuBar();
   }
   /**
-   * Adds all the observers to the board.
+   * Adds all the listeners to the board.
    */
-  private void addTheObservers() {
-    my_board.addObserver(this);
-    my_board.addObserver(my_piece_preview);
-    my_board.addObserver(my_current_game);
-    my_board.addObserver(my_stats);
+  private void addTheListeners() {
+    my_relay.addBoardListener(my_stats, ScorePanel.EVENTS);
+    my_relay.addBoardListener(my_current_game, GamingPanel.EVENTS);
+    my_relay.addBoardListener(my_piece_preview, PiecePreviewPanel.EVENTS);
+    my_relay.addBoardListener(this, BoardEvent.STATS_CHANGED | BoardEvent.GAME_OVER);
   }
   @Override
-  public void update(final Observable the_souce, final Object the_update) {
-    if (the_update instanceof GameInformationHolder) {
-      my_game_over = ((GameInformationHolder) the_update).isGameOver();
-      if (((GameInformationHolder) the_update).getLevel() != my_level) {
-        if (my_level < (DELAY / DELAYCHANGE) - 1) {
-          my_level = ((GameInformationHolder) the_update).getLevel();
-          my_timer.setDelay(my_timer.getDelay() - DELAYCHANGE);
-        } else {
-          my_level = DELAY / DELAYCHANGE;
-          my_timer.setDelay(DELAY / DELAY);
-        }
+  public void boardChanged(final ReadableBoard the_board, final int the_events) {
+    my_game_over = the_board.isRunning();
+    if (the_board.getLevel() != my_level) {
+      // several lines, and so several levels, may be cleared in one update
+      my_level = the_board.getLevel();
+      if (my_level < DELAY / DELAYCHANGE) {
+        my_loop.setGravity(DELAY - (my_level - 1) * DELAYCHANGE, TimeUnit.MILLISECONDS);
+      } else {
+        my_loop.setGravity(GameLoop.TWENTY_G);
       }
     }
-    if (the_update instanceof GameInformationHolder && 
-        !((GameInformationHolder) the_update).isGameOver()) {
+    if ((the_events & BoardEvent.GAME_OVER) != 0) {
       gameOver();
     }
-    
   }
   /**
-   * This method initiates a timer and the background of the tetris board.
+   * This method starts the game loop and the background of the tetris board.
    */
   public void start() {
     compileMenu();
@@ -182,13 +217,32 @@ public class TetrisGUI extends JFrame implements Observer {
     //Allow the board to become visible
     setVisible(true);
     JOptionPane.showMessageDialog(null, CONTROLS);
-    my_timer.start();
+    my_loop.start();
+  }
+  /**
+   * Records the games played from now on, for playback by controller.Replay.
+   * 
+   * @param the_path the file to record to
+   * @throws IOException if the recording cannot be created
+   */
+  public void record(final Path the_path) throws IOException {
+    my_loop.startRecording(the_path, KEYFRAME_TICKS);
+  }
+  /**
+   * Serves the metrics of the game as plain text over HTTP, on the loopback
+   * interface.
+   * 
+   * @param the_port the port to serve on
+   * @throws IOException if the port cannot be bound
+   */
+  public void serveMetrics(final int the_port) throws IOException {
+    my_metrics_endpoint = new MetricsEndpoint(the_port, my_metrics);
   }
   /**
-   * This method stops the timer when a game is over.
+   * This method pauses the game loop when a game is over.
    */
   private void gameOver() {
-    my_timer.stop();
+    my_loop.setPaused(true);
     JOptionPane.showMessageDialog(null, "Game Over");
   }
   /**
@@ -220,21 +274,6 @@ public class TetrisGUI extends JFrame implements Observer {
       my_current_game.setVisible(true);
     }
   }
-  /**
-   * This class performs the action of stepping the pieces while a game is going.
-   * 
-   * @author Aaron Nelson
-   * @version 5/25/2012
-   */
-  private class TetrisPieceListener implements ActionListener {
-
-    @Override
-    public void actionPerformed(final ActionEvent the_event) {
-      if (my_game_over) {
-        my_board.step();
-      }
-    }
-  }
   /**
    * This class listens for key events for controlling the tetris piece currently
    * moving.
@@ -244,24 +283,71 @@ public class TetrisGUI extends JFrame implements Observer {
    */
   private class TetrisKeyListener extends KeyAdapter {
     /**
-     * This method controls what happens when certain keys are typed.
+     * Whether the key of each action is down, to ignore the presses repeated by
+     * the operating system; the game loop does its own repeating.
+     */
+    private final boolean[] my_down = new boolean[Input.values().length];
+
+    /**
+     * This method passes presses of the game keys to the game loop.
      * 
-     * @param the_event the event triggered by a key being typed.
+     * @param the_event the event triggered by a key being pressed.
      */
-    public void keyTyped(final KeyEvent the_event) {
-      if (my_current_game.isVisible() && my_game_over) {
-        if (the_event.getKeyChar() == 'a') {
-          my_board.moveLeft();
-        } else if (the_event.getKeyChar() == 's') {
-          my_board.moveRight();
-        } else if (the_event.getKeyChar() == 'w') {
-          my_board.rotate();
-        } else if (the_event.getKeyChar() == 'z') {
-          my_board.moveDown();
-        } else if (the_event.getKeyChar() == 'v') {
-          my_board.drop();
-        }
+    @Override
+    public void keyPressed(final KeyEvent the_event) {
+      final long now = System.nanoTime();
+      final Input input = inputFor(the_event);
+      if (input != null && !my_down[input.ordinal()] && my_current_game.isVisible() &&
+          my_game_over) {
+        my_down[input.ordinal()] = true;
+        my_loop.press(input, now);
+      }
+    }
+
+    /**
+     * This method passes releases of the game keys to the game loop.
+     * 
+     * @param the_event the event triggered by a key being released.
+     */
+    @Override
+    public void keyReleased(final KeyEvent the_event) {
+      final long now = System.nanoTime();
+      final Input input = inputFor(the_event);
+      if (input != null && my_down[input.ordinal()]) {
+        my_down[input.ordinal()] = false;
+        my_loop.release(input, now);
+      }
+    }
+
+    /**
+     * Returns the action of a key.
+     * 
+     * @param the_event the key event.
+     * @return the action, or null if the key has none.
+     */
+    private Input inputFor(final KeyEvent the_event) {
+      final Input result;
+      switch (the_event.getKeyCode()) {
+        case KeyEvent.VK_A:
+          result = Input.LEFT;
+          break;
+        case KeyEvent.VK_S:
+          result = Input.RIGHT;
+          break;
+        case KeyEvent.VK_W:
+          result = Input.ROTATE;
+          break;
+        case KeyEvent.VK_Z:
+          result = Input.SOFT_DROP;
+          break;
+        case KeyEvent.VK_V:
+          result = Input.HARD_DROP;
+          break;
+        default:
+          result = null;
+          break;
       }
+      return result;
     }
   }
   /**
@@ -275,10 +361,10 @@ public class TetrisGUI extends JFrame implements Observer {
     public void actionPerformed(final ActionEvent the_event) {
       if (the_event.getSource() instanceof JToggleButton) {
         if (((JToggleButton) the_event.getSource()).isSelected()) {
-          my_timer.stop();
+          my_loop.setPaused(true);
           hidegame();
         } else {
-          my_timer.start();
+          my_loop.setPaused(false);
           hidegame();
         }
       }
@@ -296,14 +382,14 @@ public class TetrisGUI extends JFrame implements Observer {
     public void actionPerformed(final ActionEvent the_event) {
       if (the_event.getSource() instanceof JButton) {
         if (((JButton) the_event.getSource()).getName().equals(MENUNAMES[2])) {
-          my_timer.stop();
+          my_loop.setPaused(true);
           my_new_game.setEnabled(true);
           my_game_over = false;
           gameOver();
         } else if (((JButton) the_event.getSource()).getName().equals(MENUNAMES[0])) {
           my_new_game.setEnabled(false);
-          my_board.newGame();
-          my_timer.start();
+          my_loop.newGame();
+          my_loop.setPaused(false);
         }
       }
     }  
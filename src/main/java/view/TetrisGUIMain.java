@@ -6,6 +6,9 @@
  */
 package view;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
 /**
  * This initiates the gui for a tetris game.
  * 
@@ -21,12 +24,21 @@ public final class TetrisGUIMain {
   }
   /**
    * The main method, invokes the Tetris GUI.
-   * Command line arguments are ignored.
+   * Each optional argument is either a port number, on which to serve the
+   * game's metrics over HTTP, or a file to record the session to.
    * 
    * @param the_args Command line arguments.
+   * @throws IOException if the recording cannot be created or the port bound
    */
-  public static void main(final String[] the_args) {
+  public static void main(final String[] the_args) throws IOException {
     final TetrisGUI gui = new TetrisGUI();
+    for (String arg : the_args) {
+      if (arg.matches("\\d+")) {
+        gui.serveMetrics(Integer.parseInt(arg));
+      } else {
+        gui.record(Paths.get(arg));
+      }
+    }
     gui.start();
   }
 }
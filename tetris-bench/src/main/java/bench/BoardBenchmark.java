@@ -0,0 +1,123 @@
+/*
+ * TCSS 305 - Spring 2012
+ * Tetris Project
+ */
+package bench;
+
+import controller.Board;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import model.Block;
+import model.Piece;
+import model.UniformPieceGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the board operations that leave the frozen stack unchanged. Moves
+ * that run into a wall are rejected, which costs the same collision test as a
+ * successful move, so the piece may settle against a wall during an iteration.
+ *
+ * @author Aaron Nelson
+ * @version 6/1/2012
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+  /**
+   * The width of the board.
+   */
+  @Param({"10", "40"})
+  private int my_width;
+  /**
+   * The height of the board.
+   */
+  @Param({"20", "40"})
+  private int my_height;
+  /**
+   * The fraction of the board height filled before measuring.
+   */
+  @Param({"0.0", "0.25", "0.5"})
+  private double my_fill;
+  /**
+   * The board being measured.
+   */
+  private Board my_board;
+  /**
+   * A copy of the current piece.
+   */
+  private Piece my_piece;
+
+  /**
+   * Fills a fresh board to the requested level.
+   */
+  @Setup(Level.Iteration)
+  public void setUp() {
+    my_board = new Board(my_width, my_height, new UniformPieceGenerator(Boards.SEED));
+    Boards.fill(my_board, new Random(Boards.SEED), my_fill);
+    my_piece = my_board.getCurrentPiece();
+  }
+
+  /**
+   * @return whether the piece moved.
+   */
+  @Benchmark
+  public boolean moveLeft() {
+    return my_board.moveLeft();
+  }
+
+  /**
+   * @return whether the piece moved.
+   */
+  @Benchmark
+  public boolean moveRight() {
+    return my_board.moveRight();
+  }
+
+  /**
+   * @return whether the piece rotated.
+   */
+  @Benchmark
+  public boolean rotate() {
+    return my_board.rotate();
+  }
+
+  /**
+   * @return a copy of the frozen blocks.
+   */
+  @Benchmark
+  public List<Block[]> getBlocks() {
+    return my_board.getBlocks();
+  }
+
+  /**
+   * @return the text rendering of the board.
+   */
+  @Benchmark
+  public String boardToString() {
+    return my_board.toString();
+  }
+
+  /**
+   * @return the board coordinates of the piece.
+   */
+  @Benchmark
+  public int[][] getBoardCoordinates() {
+    return my_piece.getBoardCoordinates();
+  }
+}
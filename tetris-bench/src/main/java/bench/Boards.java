@@ -0,0 +1,89 @@
+/*
+ * TCSS 305 - Spring 2012
+ * Tetris Project
+ */
+package bench;
+
+import controller.Board;
+import java.util.Random;
+import model.PieceState;
+
+/**
+ * Prepares boards for the benchmarks by playing random placements.
+ *
+ * @author Aaron Nelson
+ * @version 6/1/2012
+ */
+final class Boards {
+  /**
+   * The seed of every benchmark's pieces and placement choices.
+   */
+  static final long SEED = 305;
+  /**
+   * The number of rotational states tried for a placement.
+   */
+  private static final int ROTATIONS = 4;
+
+  /**
+   * Prevents instantiation.
+   */
+  private Boards() {
+    // nothing to do
+  }
+
+  /**
+   * Plays random placements until the stack reaches the given fraction of the
+   * board height.
+   *
+   * @param the_board the board to fill
+   * @param the_random the source of placement choices
+   * @param the_fill the fraction of the board height to fill, 0 to 1
+   */
+  static void fill(final Board the_board, final Random the_random, final double the_fill) {
+    final int rows = (int) (the_fill * the_board.getHeight());
+    while (the_board.getStackHeight() < rows) {
+      playRandomPiece(the_board, the_random);
+    }
+  }
+
+  /**
+   * Rotates and shifts the current piece at random and drops it. Starts a new game
+   * when the game is over.
+   *
+   * @param the_board the board to play on
+   * @param the_random the source of placement choices
+   */
+  static void playRandomPiece(final Board the_board, final Random the_random) {
+    for (int i = the_random.nextInt(ROTATIONS); i > 0; i--) {
+      the_board.rotate();
+    }
+    final int shift = the_random.nextInt(the_board.getWidth()) - the_board.getWidth() / 2;
+    for (int i = shift; i < 0; i++) {
+      the_board.moveLeft();
+    }
+    for (int i = shift; i > 0; i--) {
+      the_board.moveRight();
+    }
+    the_board.drop();
+    if (isOver(the_board)) {
+      the_board.newGame();
+    }
+  }
+
+  /**
+   * @param the_board a board
+   * @return true if the game on the board is over.
+   */
+  static boolean isOver(final Board the_board) {
+    // GameInformationHolder reports true while the game is still going
+    return !the_board.getGameInformation().isGameOver();
+  }
+
+  /**
+   * @param the_board a board
+   * @return true if the current piece is above the stack and can fall freely.
+   */
+  static boolean isFalling(final Board the_board) {
+    return PieceState.getY(the_board.getCurrentPieceState()) > the_board.getStackHeight();
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * TCSS 305 - Spring 2012
+ * Tetris Project
+ */
+package bench;
+
+import controller.Board;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import model.UniformPieceGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the board operations that move the current piece down and freeze it.
+ * These change the stack, so the board is brought back to its fill level before
+ * every invocation; the per-invocation setup adds some timer overhead, which is
+ * small next to a freeze.
+ *
+ * @author Aaron Nelson
+ * @version 6/1/2012
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlacementBenchmark {
+  /**
+   * The number of rows the stack may grow past its fill level before the board
+   * is refilled.
+   */
+  private static final int SLACK = 4;
+
+  /**
+   * A board kept near a fill level.
+   */
+  @State(Scope.Thread)
+  public static class FilledBoard {
+    /**
+     * The width of the board.
+     */
+    @Param({"10", "40"})
+    private int my_width;
+    /**
+     * The height of the board.
+     */
+    @Param({"20", "40"})
+    private int my_height;
+    /**
+     * The fraction of the board height filled before measuring.
+     */
+    @Param({"0.0", "0.25", "0.5"})
+    private double my_fill;
+    /**
+     * The board being measured.
+     */
+    Board my_board;
+    /**
+     * The source of placement choices.
+     */
+    private Random my_random;
+
+    /**
+     * Creates the board.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+      my_board = new Board(my_width, my_height, new UniformPieceGenerator(Boards.SEED));
+      my_random = new Random(Boards.SEED);
+      refill();
+    }
+
+    /**
+     * Starts again from an empty board when the stack has grown too high.
+     */
+    void refill() {
+      if (Boards.isOver(my_board) ||
+          my_board.getStackHeight() > my_fill * my_height + SLACK) {
+        my_board.newGame();
+        Boards.fill(my_board, my_random, my_fill);
+      }
+    }
+  }
+
+  /**
+   * A board whose current piece can fall at least one row.
+   */
+  public static class FallingPiece extends FilledBoard {
+    /**
+     * Replaces a piece that reached the stack.
+     */
+    @Setup(Level.Invocation)
+    public void prepare() {
+      refill();
+      if (!Boards.isFalling(my_board)) {
+        my_board.drop();
+        refill();
+      }
+    }
+  }
+
+  /**
+   * A board whose current piece has been lowered onto the stack.
+   */
+  public static class LandedPiece extends FilledBoard {
+    /**
+     * Lowers the current piece to the top of the stack.
+     */
+    @Setup(Level.Invocation)
+    public void prepare() {
+      refill();
+      while (Boards.isFalling(my_board)) {
+        my_board.moveDown();
+      }
+    }
+  }
+
+  /**
+   * @param the_state a board with a falling piece
+   * @return whether the piece moved.
+   */
+  @Benchmark
+  public boolean moveDown(final FallingPiece the_state) {
+    return the_state.my_board.moveDown();
+  }
+
+  /**
+   * Drops a piece from the top of the board, freezing it and clearing lines.
+   *
+   * @param the_state a board with a falling piece
+   * @return the board.
+   */
+  @Benchmark
+  public Board drop(final FallingPiece the_state) {
+    the_state.my_board.drop();
+    return the_state.my_board;
+  }
+
+  /**
+   * Freezes a piece resting near the stack and clears any full lines.
+   *
+   * @param the_state a board with a landed piece
+   * @return the board.
+   */
+  @Benchmark
+  public Board freezeAndClearLines(final LandedPiece the_state) {
+    the_state.my_board.drop();
+    return the_state.my_board;
+  }
+}
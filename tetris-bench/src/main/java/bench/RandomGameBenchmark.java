@@ -0,0 +1,76 @@
+/*
+ * TCSS 305 - Spring 2012
+ * Tetris Project
+ */
+package bench;
+
+import controller.Board;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import model.UniformPieceGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Plays random games and reports the number of pieces placed per second. Each
+ * operation rotates and shifts one piece at random and drops it; a game that ends
+ * is restarted in place.
+ *
+ * @author Aaron Nelson
+ * @version 6/1/2012
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RandomGameBenchmark {
+  /**
+   * The width of the board.
+   */
+  @Param({"10", "40"})
+  private int my_width;
+  /**
+   * The height of the board.
+   */
+  @Param({"20", "40"})
+  private int my_height;
+  /**
+   * The board being played.
+   */
+  private Board my_board;
+  /**
+   * The source of placement choices.
+   */
+  private Random my_random;
+
+  /**
+   * Creates the board.
+   */
+  @Setup
+  public void setUp() {
+    my_board = new Board(my_width, my_height, new UniformPieceGenerator(Boards.SEED));
+    my_random = new Random(Boards.SEED);
+  }
+
+  /**
+   * Places one piece.
+   *
+   * @return the board.
+   */
+  @Benchmark
+  public Board placePiece() {
+    Boards.playRandomPiece(my_board, my_random);
+    return my_board;
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * TCSS 305 - Spring 2012
+ * Tetris Project
+ */
+package bench;
+
+import controller.Board;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import javax.swing.JComponent;
+import model.UniformPieceGenerator;
+import view.GamingPanel;
+import view.PiecePreviewPanel;
+import view.ScorePanel;
+
+/**
+ * Paints the game panels into offscreen images, the way Swing paints them, and
+ * reports frames per second, paint latency percentiles and bytes allocated per
+ * paint for several board sizes and fill levels. Runs headless.
+ *
+ * Usage: java -cp target/benchmarks.jar bench.RenderBenchmark [frames]
+ *
+ * @author Aaron Nelson
+ * @version 6/1/2012
+ */
+public final class RenderBenchmark {
+  /**
+   * The default number of measured frames per configuration.
+   */
+  private static final int FRAMES = 20000;
+  /**
+   * The number of frames painted before measuring.
+   */
+  private static final int WARMUP_FRAMES = 20000;
+  /**
+   * The board widths measured.
+   */
+  private static final int[] WIDTHS = {10, 40};
+  /**
+   * The board heights measured.
+   */
+  private static final int[] HEIGHTS = {20, 40};
+  /**
+   * The fill levels measured, as fractions of the board height.
+   */
+  private static final double[] FILLS = {0.0, 0.25, 0.5};
+  /**
+   * The pixel size used by the panels.
+   */
+  private static final int PIXELSIZE = 20;
+  /**
+   * The number of extra rows painted above the board.
+   */
+  private static final int EXTRAROWS = 4;
+  /**
+   * The number of nanoseconds in a second.
+   */
+  private static final double NANOS = 1e9;
+  /**
+   * The number of nanoseconds in a microsecond.
+   */
+  private static final double MICROS = 1e3;
+  /**
+   * The percentiles reported.
+   */
+  private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+  /**
+   * The row format of the report.
+   */
+  private static final String ROW = "%-18s %5s %5s %5s %10s %9s %9s %9s %9s %10s%n";
+  /**
+   * The allocation counter of the current thread.
+   */
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  /**
+   * Prevents instantiation.
+   */
+  private RenderBenchmark() {
+    // nothing to do
+  }
+
+  /**
+   * Runs every configuration and prints a report.
+   *
+   * @param the_args the optional number of measured frames.
+   */
+  public static void main(final String[] the_args) {
+    System.setProperty("java.awt.headless", "true");
+    final int frames = the_args.length > 0 ? Integer.parseInt(the_args[0]) : FRAMES;
+
+    System.out.printf(ROW, "panel", "width", "height", "fill", "fps", "p50 us", "p90 us",
+                      "p99 us", "max us", "bytes");
+    for (int width : WIDTHS) {
+      for (int height : HEIGHTS) {
+        for (double fill : FILLS) {
+          run(width, height, fill, frames);
+        }
+      }
+    }
+  }
+
+  /**
+   * Measures one configuration.
+   *
+   * @param the_width the board width
+   * @param the_height the board height
+   * @param the_fill the fill level
+   * @param the_frames the number of measured frames
+   */
+  private static void run(final int the_width, final int the_height, final double the_fill,
+                          final int the_frames) {
+    final Random random = new Random(Boards.SEED);
+    final Board board = new Board(the_width, the_height, new UniformPieceGenerator(Boards.SEED));
+    Boards.fill(board, random, the_fill);
+
+    final GamingPanel game = new GamingPanel(board);
+    game.setSize(the_width * PIXELSIZE, (the_height + EXTRAROWS) * PIXELSIZE);
+    final PiecePreviewPanel preview = new PiecePreviewPanel(board.getNextPiece());
+    preview.setSize(preview.getPreferredSize());
+    final ScorePanel score = new ScorePanel();
+    score.setSize(score.getPreferredSize());
+    score.doLayout();
+    board.addBoardListener(score, ScorePanel.EVENTS);
+    board.addBoardListener(game, GamingPanel.EVENTS);
+    board.addBoardListener(preview, PiecePreviewPanel.EVENTS);
+
+    final JComponent[] panels = {game, preview, score};
+    final Graphics2D[] graphics = new Graphics2D[panels.length];
+    for (int i = 0; i < panels.length; i++) {
+      graphics[i] = new BufferedImage(panels[i].getWidth(), panels[i].getHeight(),
+                                      BufferedImage.TYPE_INT_RGB).createGraphics();
+    }
+    final long[][] nanos = new long[panels.length][the_frames];
+    final long[] bytes = new long[panels.length];
+    final long thread = Thread.currentThread().getId();
+
+    for (int frame = -WARMUP_FRAMES; frame < the_frames; frame++) {
+      play(board, random, the_fill, frame);
+      for (int i = 0; i < panels.length; i++) {
+        final long allocated = THREADS.getThreadAllocatedBytes(thread);
+        final long start = System.nanoTime();
+        panels[i].paint(graphics[i]);
+        final long end = System.nanoTime();
+        if (frame >= 0) {
+          nanos[i][frame] = end - start;
+          bytes[i] += THREADS.getThreadAllocatedBytes(thread) - allocated;
+        }
+      }
+    }
+    for (int i = 0; i < panels.length; i++) {
+      report(panels[i].getClass().getSimpleName(), the_width, the_height, the_fill,
+             nanos[i], bytes[i]);
+    }
+  }
+
+  /**
+   * Changes the board between frames: the piece moves every frame and falls
+   * every few frames, and a filled board is refilled when the game ends.
+   *
+   * @param the_board the board
+   * @param the_random the source of placement choices
+   * @param the_fill the fill level
+   * @param the_frame the frame number
+   */
+  private static void play(final Board the_board, final Random the_random,
+                           final double the_fill, final int the_frame) {
+    if ((the_frame & 1) == 0) {
+      the_board.moveLeft();
+    } else {
+      the_board.moveRight();
+    }
+    if (the_frame % EXTRAROWS == 0) {
+      the_board.step();
+    }
+    if (Boards.isOver(the_board)) {
+      the_board.newGame();
+      Boards.fill(the_board, the_random, the_fill);
+    }
+  }
+
+  /**
+   * Prints one row of the report.
+   *
+   * @param the_panel the panel name
+   * @param the_width the board width
+   * @param the_height the board height
+   * @param the_fill the fill level
+   * @param the_nanos the paint time of every frame
+   * @param the_bytes the bytes allocated by all frames
+   */
+  private static void report(final String the_panel, final int the_width,
+                             final int the_height, final double the_fill,
+                             final long[] the_nanos, final long the_bytes) {
+    final long[] sorted = the_nanos.clone();
+    Arrays.sort(sorted);
+    long total = 0;
+    for (long nanos : sorted) {
+      total += nanos;
+    }
+    final String[] percentiles = new String[PERCENTILES.length];
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      final int index = (int) Math.ceil(PERCENTILES[i] * sorted.length) - 1;
+      percentiles[i] = String.format("%.1f", sorted[Math.max(0, index)] / MICROS);
+    }
+    System.out.printf(ROW, the_panel, the_width, the_height, the_fill,
+                      String.format("%.0f", NANOS * sorted.length / total),
+                      percentiles[0], percentiles[1], percentiles[2],
+                      String.format("%.1f", sorted[sorted.length - 1] / MICROS),
+                      the_bytes / sorted.length);
+  }
+}